@@ -0,0 +1,100 @@
+package autoweka;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes lines of log output to a file on its own thread, so that whoever is reading the output of a child process never has to wait on the disk.
+ *
+ * Lines are flushed whenever the queue runs dry, rather than after every single one.
+ */
+public class AsyncLogWriter
+{
+    final static Logger log = LoggerFactory.getLogger(AsyncLogWriter.class);
+
+    //Not a line anybody could write, it tells the thread that we're done
+    private static final String END = new String("");
+
+    private Writer mOut;
+    private LinkedBlockingQueue<String> mLines = new LinkedBlockingQueue<String>();
+    private Thread mThread;
+
+    public AsyncLogWriter(Writer out, String name)
+    {
+        mOut = out;
+        mThread = new Thread(new Runnable(){
+            public void run()
+            {
+                boolean failed = false;
+                while(true)
+                {
+                    String line;
+                    try
+                    {
+                        line = mLines.take();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        break;
+                    }
+                    if(line == END)
+                        break;
+                    if(failed)
+                        continue;
+                    try
+                    {
+                        mOut.write(line);
+                        mOut.write('\n');
+                        if(mLines.isEmpty())
+                            mOut.flush();
+                    }
+                    catch(IOException e)
+                    {
+                        //Keep taking the lines so that nothing backs up, but there's no point in trying to write them
+                        log.warn("Failed to write log: {}", e.getMessage());
+                        failed = true;
+                    }
+                }
+            }
+        }, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Queues up a line to be written
+     * @param line The line, without its new line.
+     */
+    public void writeLine(String line)
+    {
+        mLines.add(line);
+    }
+
+    /**
+     * Writes out everything that's been queued up, and closes the file
+     */
+    public void close()
+    {
+        mLines.add(END);
+        try
+        {
+            mThread.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        try
+        {
+            mOut.close();
+        }
+        catch(IOException e)
+        {
+            log.warn("Failed to close log: {}", e.getMessage());
+        }
+    }
+}
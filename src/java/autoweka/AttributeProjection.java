@@ -0,0 +1,97 @@
+package autoweka;
+
+import java.io.Serializable;
+
+import weka.attributeSelection.AttributeSelection;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Does what AttributeSelection.reduceDimensionality does to a single instance, without going through its filter.
+ *
+ * When the attribute selection just keeps some of the attributes, reducing an instance is nothing more than copying a few values - but the
+ * filter copies the instance on the way in, builds a new one, queues it and hands it back, for every single instance. This works out which
+ * attributes are kept once, and then copies their values straight into an array (which can be reused from one instance to the next).
+ *
+ * It only works for selections that keep attributes as they are, so create hands back null for ones that transform them (like principal
+ * components), or that keep string or relational attributes, whose values live in the header rather than the instance.
+ */
+public class AttributeProjection implements Serializable
+{
+    static final long serialVersionUID = -6049283170517384529L;
+
+    private int[] mIndices;
+    private Instances mHeader;
+
+    private AttributeProjection(int[] indices, Instances header)
+    {
+        mIndices = indices;
+        mHeader = header;
+    }
+
+    /**
+     * Works out the projection that an attribute selection does
+     * @param as The attribute selection, which has to have been run already.
+     * @param inputHeader The header of the instances that get reduced.
+     * @return The projection, or null if the selection does something more than just keeping some of the attributes.
+     * @throws Exception if the selection couldn't be applied to the header.
+     */
+    public static AttributeProjection create(AttributeSelection as, Instances inputHeader) throws Exception
+    {
+        int[] indices = as.selectedAttributes();
+        Instances header = as.reduceDimensionality(new Instances(inputHeader, 0));
+        if(header.numAttributes() != indices.length)
+            return null;
+
+        for(int i = 0; i < indices.length; i++)
+        {
+            if(indices[i] < 0 || indices[i] >= inputHeader.numAttributes())
+                return null;
+            Attribute in = inputHeader.attribute(indices[i]);
+            Attribute out = header.attribute(i);
+            if(!in.name().equals(out.name()) || in.type() != out.type() || in.numValues() != out.numValues())
+                return null;
+            if(in.isString() || in.isRelationValued())
+                return null;
+        }
+        return new AttributeProjection(indices, header);
+    }
+
+    /**
+     * Gets the header of the reduced instances
+     * @return The header, which shouldn't be changed.
+     */
+    public Instances getHeader()
+    {
+        return mHeader;
+    }
+
+    /**
+     * Makes an array that's the right size to project into
+     * @return The array.
+     */
+    public double[] newBuffer()
+    {
+        return new double[mIndices.length];
+    }
+
+    /**
+     * Reduces an instance
+     * @param instance The instance, which has the input header.
+     * @param buffer Where to put the values, from newBuffer - the instance that comes back uses it, so it can only be reused once that
+     *               instance isn't needed any more. If it's null, a new one gets made.
+     * @return The reduced instance.
+     */
+    public Instance project(Instance instance, double[] buffer)
+    {
+        if(buffer == null)
+            buffer = newBuffer();
+        for(int i = 0; i < mIndices.length; i++)
+            buffer[i] = instance.value(mIndices[i]);
+        Instance projected = new DenseInstance(instance.weight(), buffer);
+        projected.setDataset(mHeader);
+        return projected;
+    }
+}
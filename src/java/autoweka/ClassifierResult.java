@@ -30,33 +30,80 @@ public class ClassifierResult
         public double getScore(Evaluation eval, Instances testingData);
     }
 
-    public static class ErrorRateMetric implements Metric
+    /**
+     * A Metric that knows the best score that anything could ever get on it, which lets us work out when a configuration can't possibly win
+     */
+    public static interface BoundedMetric extends Metric {
+        public double getBestPossible();
+    }
+
+    /**
+     * A Metric that can be computed from the running totals in a MetricAccumulator, so there's no need to keep every prediction in an Evaluation
+     */
+    public static interface StreamingMetric extends Metric {
+        public double getScore(MetricAccumulator acc);
+    }
+
+    /**
+     * A Metric that can work out how good the final score could possibly be part way through an evaluation, assuming every instance
+     * that hasn't been evaluated yet gets predicted perfectly. This lets an evaluation stop as soon as it can't get under a quality cap.
+     */
+    public static interface CappableMetric extends StreamingMetric {
+        public double getLowerBound(MetricAccumulator accSoFar, double totalWeight);
+    }
+
+    public static class ErrorRateMetric implements BoundedMetric, CappableMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData){
             return eval.errorRate();
         }
+        public double getScore(MetricAccumulator acc){
+            return acc.errorRate();
+        }
+        public double getLowerBound(MetricAccumulator acc, double totalWeight){
+            //For numeric classes the error rate is the RMSE
+            if(!acc.classIsNominal())
+                return Math.sqrt(acc.sumSquaredError() / totalWeight);
+            return acc.incorrect() / totalWeight;
+        }
     }
 
-    public static class MeanAbsoluteErrorMetric implements Metric
+    public static class MeanAbsoluteErrorMetric implements BoundedMetric, CappableMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData){
             return eval.meanAbsoluteError();
         }
+        public double getScore(MetricAccumulator acc){
+            return acc.meanAbsoluteError();
+        }
+        public double getLowerBound(MetricAccumulator acc, double totalWeight){
+            return acc.sumAbsoluteError() / totalWeight;
+        }
     }
 
-    public static class RootMeanSquaredErrorMetric implements Metric
+    public static class RootMeanSquaredErrorMetric implements BoundedMetric, CappableMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData){
             return eval.rootMeanSquaredError();
         }
+        public double getScore(MetricAccumulator acc){
+            return acc.rootMeanSquaredError();
+        }
+        public double getLowerBound(MetricAccumulator acc, double totalWeight){
+            return Math.sqrt(acc.sumSquaredError() / totalWeight);
+        }
     }
 
-    public static class RelativeAbsoluteErrorMetric implements Metric
+    public static class RelativeAbsoluteErrorMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData) {
             try {
                 return eval.relativeAbsoluteError();
@@ -65,25 +112,28 @@ public class ClassifierResult
             }
         }
     }
-    public static class RootRelativeSquaredErrorMetric implements Metric
+    public static class RootRelativeSquaredErrorMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData) {
             return eval.rootRelativeSquaredError();
         }
     }
 
-    public static class AreaAboveROCMetric implements Metric
+    public static class AreaAboveROCMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData) {
             return 1.0d - eval.areaUnderROC(1);
         }
     }
 
-    public static class AreaUnderROCMetric implements Metric
+    public static class AreaUnderROCMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.areaUnderROC(1);
         }
@@ -97,25 +147,36 @@ public class ClassifierResult
         }
     }
 
-    public static class CorrectMetric implements Metric
+    public static class CorrectMetric implements StreamingMetric
     {
         public double getDefault() { return getInfinity(); }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.correct();
         }
+        public double getScore(MetricAccumulator acc) {
+            return -acc.correct();
+        }
     }
 
-    public static class IncorrectMetric implements Metric
+    public static class IncorrectMetric implements BoundedMetric, CappableMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData) {
             return eval.incorrect();
         }
+        public double getScore(MetricAccumulator acc) {
+            return acc.incorrect();
+        }
+        public double getLowerBound(MetricAccumulator acc, double totalWeight) {
+            return acc.incorrect();
+        }
     }
 
-    public static class CorrelationCoefficientMetric implements Metric
+    public static class CorrelationCoefficientMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             try {
                 return -eval.correlationCoefficient();
@@ -125,33 +186,37 @@ public class ClassifierResult
         }
     }
 
-    public static class FalseNegativeRateMetric implements Metric
+    public static class FalseNegativeRateMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData) {
             return eval.falseNegativeRate(1);
         }
     }
 
-    public static class FalsePositiveRateMetric implements Metric
+    public static class FalsePositiveRateMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData) {
             return eval.falsePositiveRate(1);
         }
     }
 
-    public static class FMeasureMetric implements Metric
+    public static class FMeasureMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.fMeasure(1);
         }
     }
 
-    public static class KappaMetric implements Metric
+    public static class KappaMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.kappa();
         }
@@ -193,89 +258,112 @@ public class ClassifierResult
         }
     }
 
-    public static class PctCorrectMetric implements Metric
+    public static class PctCorrectMetric implements BoundedMetric, CappableMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -100; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.pctCorrect();
         }
+        public double getScore(MetricAccumulator acc) {
+            return -acc.pctCorrect();
+        }
+        public double getLowerBound(MetricAccumulator acc, double totalWeight) {
+            return -100 * (1 - acc.incorrect() / totalWeight);
+        }
     }
 
-    public static class PctIncorrectMetric implements Metric
+    public static class PctIncorrectMetric implements BoundedMetric, CappableMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData) {
             return eval.pctIncorrect();
         }
+        public double getScore(MetricAccumulator acc) {
+            return acc.pctIncorrect();
+        }
+        public double getLowerBound(MetricAccumulator acc, double totalWeight) {
+            return 100 * acc.incorrect() / totalWeight;
+        }
     }
 
-    public static class PrecisionMetric implements Metric
+    public static class PrecisionMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.precision(1);
         }
     }
 
-    public static class WeightedAreaUnderROCMetric implements Metric
+    public static class WeightedAreaUnderROCMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.weightedAreaUnderROC();
         }
     }
 
-    public static class WeightedFalseNegativeRateMetric implements Metric
+    public static class WeightedFalseNegativeRateMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData) {
             return eval.weightedFalseNegativeRate();
         }
     }
 
-    public static class WeightedFalsePositiveRateMetric implements Metric
+    public static class WeightedFalsePositiveRateMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return 0; }
         public double getScore(Evaluation eval, Instances testingData) {
             return eval.weightedFalsePositiveRate();
         }
     }
 
-    public static class WeightedFMeasureMetric implements Metric
+    public static class WeightedFMeasureMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.weightedFMeasure();
         }
     }
 
-    public static class WeightedPrecisionMetric implements Metric
+    public static class WeightedPrecisionMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.weightedPrecision();
         }
     }
 
-    public static class WeightedRecallMetric implements Metric
+    public static class WeightedRecallMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.weightedRecall();
         }
     }
 
-    public static class WeightedTrueNegativeRateMetric implements Metric
+    public static class WeightedTrueNegativeRateMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.weightedTrueNegativeRate();
         }
     }
 
-    public static class WeightedTruePositiveRateMetric implements Metric
+    public static class WeightedTruePositiveRateMetric implements BoundedMetric
     {
         public double getDefault() { return getInfinity(); }
+        public double getBestPossible() { return -1; }
         public double getScore(Evaluation eval, Instances testingData) {
             return -eval.weightedTruePositiveRate();
         }
@@ -312,6 +400,8 @@ public class ClassifierResult
     private Metric mMetric = null;
     private double mPercentEvaluated = 0;
     private boolean mMemOut;
+    private boolean mCapped = false;
+    private long mPeakMemory = 0;
 
     public ClassifierResult(String str)
     {
@@ -338,7 +428,21 @@ public class ClassifierResult
 
     public void setScoreFromEval(Evaluation eval, Instances testingData) {
         mRawScore = mMetric.getScore(eval, testingData);
+        clampRawScore();
+        setPercentEvaluated(eval);
+    }
+
+    /**
+     * Sets the score from the running totals of an evaluation, this only works for StreamingMetrics
+     * @param acc The totals.
+     */
+    public void setScoreFromAccumulator(MetricAccumulator acc) {
+        mRawScore = ((StreamingMetric)mMetric).getScore(acc);
+        clampRawScore();
+        mPercentEvaluated = 100.0 * (1.0 - acc.unclassified() / acc.withClass());
+    }
 
+    private void clampRawScore() {
         if(Double.isInfinite(mRawScore)) {
             mRawScore = getInfinity();
         }
@@ -346,7 +450,6 @@ public class ClassifierResult
             System.err.println("Score larger than our definition of infinity, adjusting.");
             mRawScore = getInfinity() - 1;
         }
-        setPercentEvaluated(eval);
     }
 
     public void setPercentEvaluated(Evaluation eval){
@@ -417,9 +520,65 @@ public class ClassifierResult
         return Double.isNaN(score) ? mMetric.getDefault() : score;
     }
 
+    /**
+     * Gets the best score that a result for this metric could ever have
+     * @return The best score, or negative infinity if the metric doesn't know.
+     */
+    public double getBestPossibleScore()
+    {
+        if(mMetric instanceof BoundedMetric)
+            return ((BoundedMetric)mMetric).getBestPossible();
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Checks if this metric can be computed from a MetricAccumulator rather than a full Evaluation
+     * @return True if the metric is a StreamingMetric.
+     */
+    public boolean canStream()
+    {
+        return mMetric instanceof StreamingMetric;
+    }
+
+    /**
+     * Checks if evaluations for this metric can be stopped early when they can't get under a quality cap
+     * @return True if the metric is a CappableMetric.
+     */
+    public boolean canBeCapped()
+    {
+        return mMetric instanceof CappableMetric;
+    }
+
+    /**
+     * Gets the best score that an evaluation could end up with, given how it's done so far
+     * @param accSoFar The totals for the instances that have been done so far.
+     * @param totalWeight The total weight of all the instances that will be evaluated.
+     * @return The lower bound on the score (including the regularization penalty), or negative infinity if the metric can't tell.
+     */
+    public double getLowerBoundScore(MetricAccumulator accSoFar, double totalWeight)
+    {
+        if(!canBeCapped() || totalWeight <= 0)
+            return Double.NEGATIVE_INFINITY;
+        return mRegularizationPlenalty + ((CappableMetric)mMetric).getLowerBound(accSoFar, totalWeight);
+    }
+
+    /**
+     * Marks this result as one where the evaluation was stopped because it couldn't get under the quality cap - the score is then the lower bound at that point
+     * @param capped Whether the evaluation was capped.
+     */
+    public void setCapped(boolean capped)
+    {
+        mCapped = capped;
+    }
+
+    public boolean getCapped()
+    {
+        return mCapped;
+    }
+
     public String getDescription()
     {
-        return "Attribute Selection Time: " + mAttributeSelectionTime + " Training Time: " + mTrainingTime + " Evaluation Time: " + mEvaluationTime + " Score: " + getScore() + " Completed: " + mCompleted;
+        return "Attribute Selection Time: " + mAttributeSelectionTime + " Training Time: " + mTrainingTime + " Evaluation Time: " + mEvaluationTime + " Score: " + getScore() + " Completed: " + mCompleted + (mCapped ? " Capped" : "") + " Peak Memory: " + (mPeakMemory / (1024 * 1024)) + "MB";
     }
 
     public void setClassifier(AbstractClassifier cls)
@@ -451,4 +610,18 @@ public class ClassifierResult
     {
         return mMemOut;
     }
+
+    public void setPeakMemory(long bytes)
+    {
+        mPeakMemory = bytes;
+    }
+
+    /**
+     * Gets the most heap that was in use while this result was being computed
+     * @return The peak heap usage in bytes, or 0 if it wasn't measured.
+     */
+    public long getPeakMemory()
+    {
+        return mPeakMemory;
+    }
 }
@@ -2,29 +2,37 @@ package autoweka;
 
 import weka.classifiers.Evaluation;
 import weka.classifiers.AbstractClassifier;
-import weka.classifiers.evaluation.output.prediction.CSV;
+import weka.classifiers.Classifier;
 import weka.core.Instances;
 import weka.core.Instance;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Remove;
 
 import java.io.File;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
 import weka.attributeSelection.ASEvaluation;
 import weka.attributeSelection.ASSearch;
+import weka.attributeSelection.AttributeTransformer;
 import weka.attributeSelection.AttributeSelection;
 import java.util.Map;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static weka.classifiers.meta.AutoWEKAClassifier.configurationRankingPath;
-import static weka.classifiers.meta.AutoWEKAClassifier.configurationInfoDirPath;
-import static weka.classifiers.meta.AutoWEKAClassifier.configurationHashSetPath;
+import static weka.classifiers.meta.AutoWEKAClassifier.getConfigurationLogPath;
 
 /**
  * Class that is responsible for actually running a WEKA classifier from start to finish using the Auto-WEKA argument format.
@@ -40,13 +48,21 @@ public class ClassifierRunner
     private InstanceGenerator mInstanceGenerator = null;
     private boolean mTestOnly = false;
     private boolean mDisableOutput = false;
-    private java.io.PrintStream mSavedOutput = null;
+    private static java.io.PrintStream msSavedOutput = null;
+    private static int msDisabledOutputCount = 0;
+    private static java.io.PrintStream msSavedErr = null;
+    private static int msRedirectedErrCount = 0;
     private String mPredictionsFileName = null;
+    private boolean mAttributeSelectionCache = true;
+    private boolean mStreamingMetrics = true;
+    private int mEvaluationThreads = 1;
+    private boolean mFoldModels = false;
 
     /**
      * Prepares a runner with the specified properties.
      *
-     * Importantly, you must define 'instanceGenerator' and 'datasetString', while optional properties are 'verbose', 'onlyTest' and 'disableOutput'
+     * Importantly, you must define 'instanceGenerator' and 'datasetString', while optional properties are 'verbose', 'onlyTest' and 'disableOutput'.
+     * 'experimentDir' is where the attribute selections that get reused between evaluations are kept, without it they're only kept in memory
      *
      * @param props Properties to set.
      */
@@ -54,12 +70,39 @@ public class ClassifierRunner
     {
         //Get the instnace generator
         mInstanceGenerator = InstanceGenerator.create(props.getProperty("instanceGenerator"), props.getProperty("datasetString"));
+        //Index plans and attribute selections get shared with the other evaluations through the experiment folder
+        if(props.getProperty("experimentDir") != null)
+            mInstanceGenerator.setExperimentDir(new File(props.getProperty("experimentDir")));
         //Get the regularizer - experimental to the point of not working
         //mRegularizer = ParameterRegularizer.create(props.getProperty("regularizer"), props.getProperty("regularizerParameterFileName"), props.getProperty("regularizerParams"));
 
         mTestOnly = Boolean.valueOf(props.getProperty("onlyTest", "false"));
         mDisableOutput = Boolean.valueOf(props.getProperty("disableOutput", "false"));
         mPredictionsFileName = props.getProperty("predictionsFileName", null);
+        //If someone wants the AttributeSelection object itself, we can't skip making it. The selections are index plans, so they live with the others
+        mAttributeSelectionCache = Boolean.valueOf(props.getProperty("attributeSelectionCache", "true")) && props.getProperty("modelOutputFilePrefix") == null;
+        //Simple metrics get worked out from running totals instead of a full Evaluation
+        mStreamingMetrics = Boolean.valueOf(props.getProperty("streamingMetrics", "true"));
+        //How many threads to make predictions on, for the classifiers where that's safe
+        mEvaluationThreads = Integer.parseInt(props.getProperty("evaluationThreads", "1"));
+        //Keep the model from each fold, so the final one can be put together out of them instead of being trained again
+        mFoldModels = Boolean.valueOf(props.getProperty("foldEnsemble", "false"));
+    }
+
+    /*
+     * Checks if an attribute evaluator transforms the data, rather than just picking out attributes
+     */
+    private static boolean isAttributeTransformer(String attribEvalClassName)
+    {
+        try
+        {
+            return AttributeTransformer.class.isAssignableFrom(Class.forName(attribEvalClassName));
+        }
+        catch(ClassNotFoundException e)
+        {
+            //Don't know what it is, so play it safe
+            return true;
+        }
     }
 
     /*
@@ -77,19 +120,21 @@ public class ClassifierRunner
         private float timeout;
         private String mSeed;
         private List<String> args;
+        private double qualityCap;
         public ClassifierResult result;
 
-        public RunnerThread(String _instanceStr, String _resultMetric, float _timeout, String _mSeed, List<String> _args)
+        public RunnerThread(String _instanceStr, String _resultMetric, float _timeout, String _mSeed, List<String> _args, double _qualityCap)
         {
             instanceStr = _instanceStr;
             resultMetric = _resultMetric;
             timeout = _timeout;
             mSeed = _mSeed;
             args = _args;
+            qualityCap = _qualityCap;
         }
         protected void doWork() throws Exception
         {
-            result = _run(instanceStr, resultMetric, timeout, mSeed, args);
+            result = _run(instanceStr, resultMetric, timeout, mSeed, args, qualityCap);
         }
 
         protected String getOpName()
@@ -109,12 +154,33 @@ public class ClassifierRunner
      */
     public ClassifierResult run(String instanceStr, String resultMetric, float timeout, String mSeed, List<String> args)
     {
-        java.io.PrintStream stderr = System.err;
-        System.setErr(System.out);
+        return run(instanceStr, resultMetric, timeout, mSeed, args, Double.POSITIVE_INFINITY);
+    }
 
-        RunnerThread runner = new RunnerThread(instanceStr, resultMetric, timeout, mSeed, args);
+    /**
+     * Runs a classifier like run() does, but gives up on the evaluation as soon as the score can't get under the quality cap.
+     *
+     * A result that got capped isn't completed, and has the best score that it could still have got at the point where it stopped. Only metrics
+     * that are ClassifierResult.CappableMetrics can be capped, and only if there aren't any predictions being written out.
+     *
+     * @param instanceStr The string describing the instances.
+     * @param resultMetric The metric to use.
+     * @param timeout The timeout.
+     * @param mSeed The random seed.
+     * @param args The list of arguments.
+     * @param qualityCap The score to stop at, or infinity for no cap.
+     * @return The evaluation result.
+     */
+    public ClassifierResult run(String instanceStr, String resultMetric, float timeout, String mSeed, List<String> args, double qualityCap)
+    {
+        redirectStdErr();
+
+        RunnerThread runner = new RunnerThread(instanceStr, resultMetric, timeout, mSeed, args, qualityCap);
+        Util.resetPeakHeapUsage();
         float time = runner.runWorker(timeout * 2.05f);
-        System.setErr(stderr);
+        long peakMemory = Util.getPeakHeapUsage();
+        restoreStdErr();
+        log.debug("Peak heap usage for evaluation: {} MB", peakMemory / (1024 * 1024));
         if(runner.getException() != null)
             throw (RuntimeException)runner.getException();
         if(runner.terminated())
@@ -122,6 +188,8 @@ public class ClassifierRunner
             ClassifierResult res = new ClassifierResult(resultMetric);
             res.setTrainingTime(time);
         }
+        if(runner.result != null)
+            runner.result.setPeakMemory(peakMemory);
 
         return runner.result;
     }
@@ -133,8 +201,8 @@ public class ClassifierRunner
     {
         ClassifierResult res = new ClassifierResult(resultMetric);
         res.setClassifier(classifier);
-        Instances instances = mInstanceGenerator.getTestingFromParams(instanceStr);
-        _evaluateClassifierOnInstances(classifier, res, instances, evaluateClassifierOnInstances,null,null);
+        Instances instances = mInstanceGenerator.getTestingViewFromParams(instanceStr);
+        _evaluateClassifierOnInstances(classifier, res, instances, evaluateClassifierOnInstances,null,null,null,Double.POSITIVE_INFINITY);
 
         return res;
     }
@@ -142,12 +210,14 @@ public class ClassifierRunner
     /*
      * Do the actual run of a classifier for AS, Training and Test
      */
-    private ClassifierResult _run(String instanceStr, String resultMetric, float timeout, String mSeed, List<String> args)
+    private ClassifierResult _run(String instanceStr, String resultMetric, float timeout, String mSeed, List<String> args, double qualityCap)
     {
 
-        //The first arg contains stuff we need to pass to the instance generator
+        //The first arg contains stuff we need to pass to the instance generator. The testing data is only ever read, so it can share its rows with the dataset
         Instances training = mInstanceGenerator.getTrainingFromParams(instanceStr);
-        Instances testing  = mInstanceGenerator.getTestingFromParams(instanceStr);
+        Instances testing  = mInstanceGenerator.getTestingViewFromParams(instanceStr);
+        Instances header = training;
+        int[] selectedAttributes = null;
 
         //Next, start into the arguments that are for the actual classifier
         WekaArgumentConverter.Arguments wekaArgs = WekaArgumentConverter.convert(args);
@@ -172,61 +242,97 @@ public class ClassifierRunner
 
             float attribTimeout = Float.parseFloat(attribTime);
 
-            ASEvaluation asEval = null;
-            ASSearch     asSearch = null;
-
-            try{
-                asEval   = ASEvaluation.forName(attribEvalClassName, argMap.get("attributeeval").toArray(new String[0]));
-            }catch(Exception e){
-                throw new RuntimeException("Failed to create ASEvaluation " + attribEvalClassName + ": " + e.getMessage(), e);
-            }
-            try{
-                asSearch = ASSearch.forName(attribSearchClassName, argMap.get("attributesearch").toArray(new String[0]));
-            }catch(Exception e){
-                throw new RuntimeException("Failed to create ASSearch " + attribSearchClassName + ": " + e.getMessage(), e);
+            //Has this selection already been done on this fold? Only selections that keep attributes as they are can be replayed from the
+            //indices, the ones that transform the data (like principal components) always get run
+            String asPlanName = null;
+            int[] cachedAttrs = null;
+            if(mAttributeSelectionCache && !isAttributeTransformer(attribEvalClassName))
+            {
+                asPlanName = "as-" + Util.hashString(attribSearchClassName + " " + argMap.get("attributesearch") + " " + attribEvalClassName + " " + argMap.get("attributeeval") + " " + instanceStr);
+                cachedAttrs = mInstanceGenerator.findIndexPlan(asPlanName);
             }
 
-            //Build ourselves a selector
-            AttributeSelection attribSelect = new AttributeSelection();
-            attribSelect.setEvaluator(asEval);
-            attribSelect.setSearch(asSearch);
-
-            AttributeSelectorThread asThread = new AttributeSelectorThread(attribSelect, training);
-
-            disableOutput();
-            float asTime = asThread.runWorker(attribTimeout);
-            enableOutput();
-            res.setAttributeSelectionTime(asTime);
-
-            //If we had to stop/got an exception, we need to report a false run
-            if(asThread.getException() != null || asThread.terminated())
+            if(cachedAttrs != null)
             {
-                if(asThread.getException() != null)
+                //Just do the projection that the selection would have done
+                long asStart = System.nanoTime();
+                try
                 {
-                    res.setMemOut(asThread.getException().getCause() instanceof OutOfMemoryError);
-                    log.warn("Attribute selection (search {} {}, eval {} {}) failed: {}", attribSearchClassName, argMap.get("attributeeval"), attribEvalClassName, argMap.get("attributesearch"), asThread.getException().getMessage(), asThread.getException());
+                    Remove remove = new Remove();
+                    remove.setAttributeIndicesArray(cachedAttrs);
+                    selectedAttributes = cachedAttrs;
+                    remove.setInvertSelection(true);
+                    remove.setInputFormat(training);
+                    training = Filter.useFilter(training, remove);
+                    testing = Filter.useFilter(testing, remove);
+                }catch(Exception e){
+                    throw new RuntimeException(e);
                 }
-
-                asThread = null;
-                res.setCompleted(false);
-                return res;
+                res.setAttributeSelectionTime((System.nanoTime() - asStart) * 1e-9f);
+                log.debug("Reused cached attribute selection {} ({} attributes)", asPlanName, cachedAttrs.length);
             }
             else
             {
-                res.setAttributeSelection(attribSelect);
-                try
+                ASEvaluation asEval = null;
+                ASSearch     asSearch = null;
+
+                try{
+                    asEval   = ASEvaluation.forName(attribEvalClassName, argMap.get("attributeeval").toArray(new String[0]));
+                }catch(Exception e){
+                    throw new RuntimeException("Failed to create ASEvaluation " + attribEvalClassName + ": " + e.getMessage(), e);
+                }
+                try{
+                    asSearch = ASSearch.forName(attribSearchClassName, argMap.get("attributesearch").toArray(new String[0]));
+                }catch(Exception e){
+                    throw new RuntimeException("Failed to create ASSearch " + attribSearchClassName + ": " + e.getMessage(), e);
+                }
+
+                //Build ourselves a selector
+                AttributeSelection attribSelect = new AttributeSelection();
+                attribSelect.setEvaluator(asEval);
+                attribSelect.setSearch(asSearch);
+
+                AttributeSelectorThread asThread = new AttributeSelectorThread(attribSelect, training);
+
+                disableOutput();
+                float asTime = asThread.runWorker(attribTimeout);
+                enableOutput();
+                res.setAttributeSelectionTime(asTime);
+
+                //If we had to stop/got an exception, we need to report a false run
+                if(asThread.getException() != null || asThread.terminated())
                 {
-                    //Filter the instances
-                    int[] attrs = attribSelect.selectedAttributes();
-                    log.debug("Using {}% attributes:", (100.0*(attrs.length) / training.numAttributes()));
-                    for(int i = 0; i < attrs.length; i++){
-                        log.debug("{}", i);
+                    if(asThread.getException() != null)
+                    {
+                        res.setMemOut(asThread.getException().getCause() instanceof OutOfMemoryError);
+                        log.warn("Attribute selection (search {} {}, eval {} {}) failed: {}", attribSearchClassName, argMap.get("attributeeval"), attribEvalClassName, argMap.get("attributesearch"), asThread.getException().getMessage(), asThread.getException());
+                    }
+
+                    asThread = null;
+                    res.setCompleted(false);
+                    return res;
+                }
+                else
+                {
+                    res.setAttributeSelection(attribSelect);
+                    try
+                    {
+                        //Filter the instances
+                        int[] attrs = attribSelect.selectedAttributes();
+                        selectedAttributes = attrs;
+                        log.debug("Using {}% attributes:", (100.0*(attrs.length) / training.numAttributes()));
+                        for(int i = 0; i < attrs.length; i++){
+                            log.debug("{}", i);
+                        }
+                        //Double check that the selection really is just a projection before anybody replays it
+                        if(asPlanName != null && AttributeProjection.create(attribSelect, training) != null)
+                            mInstanceGenerator.saveIndexPlan(asPlanName, attrs);
+                        training = attribSelect.reduceDimensionality(training);
+                        testing = attribSelect.reduceDimensionality(testing);
+                        log.debug("Target class: {}", training.classAttribute());
+                    }catch(Exception e){
+                        throw new RuntimeException(e);
                     }
-                    training = attribSelect.reduceDimensionality(training);
-                    testing = attribSelect.reduceDimensionality(testing);
-                    log.debug("Target class: {}", training.classAttribute());
-                }catch(Exception e){
-                    throw new RuntimeException(e);
                 }
             }
         }
@@ -310,10 +416,22 @@ public class ClassifierRunner
         log.debug("Performing evaluation on {} instances.", testing.numInstances());
 
         //Get the evaluation
-        if(!_evaluateClassifierOnInstances(classifier, res, testing, timeout,args,instanceStr)){
+        if(!_evaluateClassifierOnInstances(classifier, res, testing, timeout,args,instanceStr,mSeed,qualityCap)){
           return res;
         }
 
+        if(mFoldModels && res.getCompleted())
+        {
+            try
+            {
+                FoldEnsemble.saveFold(FoldEnsemble.getFoldModelDir(mSeed, args), instanceStr, header, selectedAttributes, classifier);
+            }
+            catch(Exception e)
+            {
+                log.warn("Failed to save fold model: {}", e.getMessage());
+            }
+        }
+
         // write out configuration info
         log.info("{};{};{};{};{};{};{};{}",
         targetClassifierName, argsArraySaved,
@@ -328,16 +446,31 @@ public class ClassifierRunner
     /*
      * Internal method that performs the evaluation of a classifier on a bunch of instances
      *
-     * If true, then the training was good, otherwise it failed
+     * If true, then the training was good, otherwise it failed (or got capped)
      */
-    private boolean _evaluateClassifierOnInstances(AbstractClassifier classifier, ClassifierResult res, Instances instances, float timeout,List<String> args,String instanceStr)
+    private boolean _evaluateClassifierOnInstances(AbstractClassifier classifier, ClassifierResult res, Instances instances, float timeout,List<String> args,String instanceStr,String seed,double qualityCap)
     {
 
         Evaluation eval = null;
+        MetricAccumulator acc = null;
         try
         {
-            eval = new Evaluation(instances);
-            EvaluatorThread evalThread = new EvaluatorThread(eval, classifier, instances, mPredictionsFileName);
+            EvaluatorThread evalThread;
+            //The simple metrics only need a few totals, so there's no point keeping every prediction around
+            if(mStreamingMetrics && res.canStream())
+            {
+                acc = new MetricAccumulator(instances);
+                evalThread = new EvaluatorThread(acc, classifier, instances, mPredictionsFileName);
+                //If we're writing out predictions though, whoever asked wants all of them
+                if(mPredictionsFileName == null)
+                    evalThread.setQualityCap(res, qualityCap);
+            }
+            else
+            {
+                eval = new Evaluation(instances);
+                evalThread = new EvaluatorThread(eval, classifier, instances, mPredictionsFileName);
+            }
+            evalThread.setNumThreads(mEvaluationThreads);
 
             disableOutput();
             float evalTime = evalThread.runWorker(timeout);
@@ -348,12 +481,23 @@ public class ClassifierRunner
                 throw evalThread.getException();
             }
 
-            log.debug("Completed evaluation on {}/{} instances.", (instances.numInstances() - eval.unclassified()), instances.numInstances());
+            if(evalThread.capped())
+            {
+                log.debug("Evaluation capped after {}/{} instances, score can't get below {}", evalThread.getNumEvaluated(), instances.numInstances(), evalThread.getCappedScore());
+                res.setCompleted(false);
+                res.setCapped(true);
+                res._setRawScore(evalThread.getCappedScore() - res.getNormalizationPenalty());
+                res.setPercentEvaluated(100.0 * evalThread.getNumEvaluated() / instances.numInstances());
+                return false;
+            }
+
+            double unclassified = (acc != null) ? acc.unclassified() : eval.unclassified();
+            log.debug("Completed evaluation on {}/{} instances.", (instances.numInstances() - unclassified), instances.numInstances());
 
             //Make sure that if we terminated the eval, we crap out accordingly
             res.setCompleted(!evalThread.terminated());
 
-            res.setPercentEvaluated(100.0f*(float)(1.0f - eval.unclassified() / instances.numInstances()));
+            res.setPercentEvaluated(100.0f*(float)(1.0f - unclassified / instances.numInstances()));
             log.debug("Percent evaluated: {}", res.getPercentEvaluated());
             //Check to make sure we evaluated enough data (and if we should log it)
             if(res.getPercentEvaluated() < 100)
@@ -364,8 +508,11 @@ public class ClassifierRunner
             else if(!evalThread.terminated())
             {
                 //We're good, we can safely report this value
-                res.setScoreFromEval(eval, instances);
-                saveConfiguration(res,args,instanceStr);
+                if(acc != null)
+                    res.setScoreFromAccumulator(acc);
+                else
+                    res.setScoreFromEval(eval, instances);
+                saveConfiguration(res,args,instanceStr,seed);
             }
         } catch(Exception e) {
             log.debug("Evaluating classifier failed: {}", e.getMessage(), e);
@@ -373,74 +520,82 @@ public class ClassifierRunner
             res.setMemOut(e.getCause() instanceof OutOfMemoryError);
             return false;
         }
-        log.trace(eval.toSummaryString("\nResults\n======\n", false));
-        try
+        if(acc != null)
         {
-            log.trace(eval.toMatrixString());
-        }catch(Exception e)
+            log.trace("Results: {}", acc);
+        }
+        else
         {
-            //throw new RuntimeException("Failed to get confusion matrix", e);
+            log.trace(eval.toSummaryString("\nResults\n======\n", false));
+            try
+            {
+                log.trace(eval.toMatrixString());
+            }catch(Exception e)
+            {
+                //throw new RuntimeException("Failed to get confusion matrix", e);
+            }
         }
         log.debug(res.getDescription());
 
         return true;
     }
 
-    protected void saveConfiguration(ClassifierResult res,List<String> args, String instanceStr){
+    protected void saveConfiguration(ClassifierResult res,List<String> args, String instanceStr, String seed){
       //Checking if we're doing this logging for this run of autoweka
       File sortedLog = new File(configurationRankingPath);
       if (!sortedLog.exists()){
         return;
       }
 
-      //Setting up some basic stuff
-      Configuration ciConfig = new Configuration(args);
-      int ciHash             = ciConfig.hashCode();
-      String ciFilename      = configurationInfoDirPath+ciHash+".xml";
-      File ciFile            = new File(ciFilename);
-      String configIndex     = configurationHashSetPath;
-
       //Computing Score and fold ID
       Properties pInstanceString = Util.parsePropertyString(instanceStr);
       int ciFold     = Integer.parseInt(pInstanceString.getProperty("fold", "-1"));
       double ciScore = res.getScore();
 
-      //Updating the configuration data
-      ciConfig.setEvaluationValues(ciScore,ciFold);
-
-      if (ciFile.exists()){
-        Configuration ciConfigFull = Configuration.fromXML(ciFilename,Configuration.class); //Find a faster way w/o IOs?
-        ciConfigFull.mergeWith(ciConfig);
-        ciConfigFull.toXML(ciFilename);
-      }else{
-        Util.initializeFile(ciFilename);
-        ciConfig.toXML(ciFilename);
-      }
-
-      //Updating the configuration list
-      try{
-          BufferedWriter fp = new BufferedWriter(new FileWriter(configurationHashSetPath,true));//true for appending
-          fp.write(ciHash+",");
-          fp.flush();
-          fp.close();
-      }catch(IOException e){
-          throw new RuntimeException("Couldn't write to configIndex");
-      }
-
+      //Just one more line on the end of this run's log, the ConfigurationRanker sorts it all out once the search is done
+      ConfigurationLog.append(getConfigurationLogPath(seed), Configuration.toArgStrings(args), ciFold, ciScore);
     }
 
 
+    /*
+     * The streams are global, so when there are several runs going on at once in this JVM only the first one in swaps them out, and only the last one out puts them back
+     */
     protected void disableOutput()
     {
         if(!mDisableOutput) return;
-        mSavedOutput = System.out;
-        System.setOut(new Util.NullPrintStream());
+        synchronized(ClassifierRunner.class)
+        {
+            if(msDisabledOutputCount++ == 0)
+            {
+                msSavedOutput = System.out;
+                System.setOut(new Util.NullPrintStream());
+            }
+        }
     }
 
     protected void enableOutput()
     {
         if(!mDisableOutput) return;
-        System.setOut(mSavedOutput);
+        synchronized(ClassifierRunner.class)
+        {
+            if(--msDisabledOutputCount == 0)
+                System.setOut(msSavedOutput);
+        }
+    }
+
+    private static synchronized void redirectStdErr()
+    {
+        if(msRedirectedErrCount++ == 0)
+        {
+            msSavedErr = System.err;
+            System.setErr(System.out);
+        }
+    }
+
+    private static synchronized void restoreStdErr()
+    {
+        if(--msRedirectedErrCount == 0)
+            System.setErr(msSavedErr);
     }
 
     class BuilderThread extends WorkerThread
@@ -465,12 +620,60 @@ public class ClassifierRunner
         }
     }
 
+    /**
+     * Runs the evaluation of a classifier, either into an Evaluation or a MetricAccumulator, optionally writing out each prediction as it goes (see PredictionsWriter).
+     *
+     * When it's allowed more than one thread, the test instances get split up into chunks that are predicted on a pool of threads (using
+     * the classifier's batch prediction if it has an efficient one), and then recorded in their original order so the scores come out exactly
+     * the same. This only happens for classifiers that are known to be safe to predict with from several threads at once - either because
+     * predicting doesn't touch any state, or because each thread can be given its own copy of the model.
+     */
     public static class EvaluatorThread extends WorkerThread
     {
+        //How many instances each task predicts
+        private static final int CHUNK_SIZE = 256;
+
+        //Classifiers that don't change anything when they predict, so all the threads can share the one model
+        private static final Set<String> msSharedPredictionClassifiers = new HashSet<String>(Arrays.asList(
+            "weka.classifiers.rules.ZeroR", "weka.classifiers.rules.OneR", "weka.classifiers.trees.DecisionStump",
+            "weka.classifiers.trees.J48", "weka.classifiers.trees.REPTree", "weka.classifiers.trees.RandomTree"));
+        //Classifiers that keep scratch state in their neighbour searches while predicting, so each thread needs its own copy. These are the
+        //slow ones to predict with, so the copies pay for themselves
+        private static final Set<String> msReplicatedPredictionClassifiers = new HashSet<String>(Arrays.asList(
+            "weka.classifiers.lazy.IBk", "weka.classifiers.lazy.KStar", "weka.classifiers.lazy.LWL"));
+
+        /**
+         * Checks if a classifier can be predicted with from several threads at once, all sharing the one model
+         * @param classifier The classifier.
+         * @return True if it can.
+         */
+        public static boolean canSharePredictions(Classifier classifier)
+        {
+            return msSharedPredictionClassifiers.contains(classifier.getClass().getName());
+        }
+
+        /**
+         * Checks if a classifier can be predicted with from several threads at once, as long as each one gets its own copy of the model
+         * @param classifier The classifier.
+         * @return True if it can.
+         */
+        public static boolean canReplicatePredictions(Classifier classifier)
+        {
+            return msReplicatedPredictionClassifiers.contains(classifier.getClass().getName());
+        }
+
         private AbstractClassifier mClassifier;
         private Instances mInstances;
         private Evaluation mEval;
         private String mPredictionsFile;
+        private MetricAccumulator mAccumulator = null;
+        private ClassifierResult mCapResult = null;
+        private double mQualityCap = Double.POSITIVE_INFINITY;
+        private volatile boolean mCapped = false;
+        private volatile double mCappedScore = Double.NEGATIVE_INFINITY;
+        private volatile int mNumEvaluated = 0;
+        private int mNumThreads = 1;
+        private double mTotalWeight = 0;
 
         public EvaluatorThread(Evaluation ev, AbstractClassifier cls, Instances inst)
         {
@@ -484,30 +687,278 @@ public class ClassifierRunner
             mInstances = inst;
             mPredictionsFile = predictionsFile;
         }
+
+        /**
+         * Evaluates into a MetricAccumulator rather than an Evaluation, which doesn't keep any of the predictions
+         * @param acc The accumulator.
+         * @param cls The classifier.
+         * @param inst The instances.
+         */
+        public EvaluatorThread(MetricAccumulator acc, AbstractClassifier cls, Instances inst)
+        {
+            this(acc, cls, inst, null);
+        }
+
+        /**
+         * Evaluates into a MetricAccumulator rather than an Evaluation, which doesn't keep any of the predictions
+         * @param acc The accumulator.
+         * @param cls The classifier.
+         * @param inst The instances.
+         * @param predictionsFile Where to write out the predictions, or null.
+         */
+        public EvaluatorThread(MetricAccumulator acc, AbstractClassifier cls, Instances inst, String predictionsFile)
+        {
+            mAccumulator = acc;
+            mClassifier = cls;
+            mInstances = inst;
+            mPredictionsFile = predictionsFile;
+        }
+
+        /**
+         * Stop evaluating as soon as the score can't get under the cap - this only works for CappableMetrics going into a MetricAccumulator
+         * @param res The result that the evaluation is for, which knows the metric.
+         * @param qualityCap The score to stop at.
+         */
+        public void setQualityCap(ClassifierResult res, double qualityCap)
+        {
+            mCapResult = res;
+            mQualityCap = qualityCap;
+        }
+
+        /**
+         * Lets the predictions get made on several threads, if the classifier is one that can handle it
+         * @param numThreads The number of threads.
+         */
+        public void setNumThreads(int numThreads)
+        {
+            mNumThreads = numThreads;
+        }
+
+        /**
+         * Checks to see if the evaluation was stopped because of the quality cap
+         * @return True if it was capped.
+         */
+        public boolean capped()
+        {
+            return mCapped;
+        }
+
+        /**
+         * Gets the best score that a capped evaluation could have got
+         * @return The score.
+         */
+        public double getCappedScore()
+        {
+            return mCappedScore;
+        }
+
+        /**
+         * Gets how many instances were evaluated
+         * @return The number of instances.
+         */
+        public int getNumEvaluated()
+        {
+            return mNumEvaluated;
+        }
+
         protected void doWork() throws Exception
         {
-            CSV out = null;
-            StringBuffer buffer = null;
-            if(mPredictionsFile != null){
-                out = new CSV();
-                buffer = new StringBuffer();
-                out.setBuffer(buffer);
-                out.setHeader(mInstances);
-                out.setOutputDistribution(true);
-                out.printHeader();
-                mEval.evaluateModel(mClassifier, mInstances, out);
-                out.printFooter();
-                try{
-                    BufferedWriter fp = new BufferedWriter(new FileWriter(mPredictionsFile));
-                    fp.write(buffer.toString());
-                    fp.flush();
-                    fp.close();
-                }catch(IOException e){
-                    throw new RuntimeException(e);
+            if(isCapping())
+                mTotalWeight = mInstances.sumOfWeights();
+
+            //Predictions go straight out to the file as they're recorded, so it doesn't matter how many there are
+            PredictionsWriter predictions = null;
+            if(mPredictionsFile != null)
+                predictions = PredictionsWriter.create(mPredictionsFile, mInstances);
+            try
+            {
+                boolean shared = canSharePredictions(mClassifier);
+                if(mNumThreads > 1 && mInstances.numInstances() > CHUNK_SIZE && (shared || canReplicatePredictions(mClassifier)))
+                {
+                    evaluateInParallel(shared, predictions);
+                    return;
+                }
+
+                for(int i = 0; i < mInstances.numInstances(); i++)
+                {
+                    Instance instance = mInstances.instance(i);
+                    if(record(i, predict(mClassifier, instance), instance, predictions))
+                        break;
+                }
+            }
+            finally
+            {
+                if(predictions != null)
+                    predictions.close();
+            }
+        }
+
+        /*
+         * Gets a prediction with the class hidden, just like Evaluation does. For numeric classes the prediction is a single value
+         */
+        private double[] predict(AbstractClassifier classifier, Instance instance) throws Exception
+        {
+            Instance classMissing = (Instance)instance.copy();
+            classMissing.setDataset(mInstances);
+            classMissing.setClassMissing();
+            if(mInstances.classAttribute().isNominal())
+                return classifier.distributionForInstance(classMissing);
+            return new double[]{classifier.classifyInstance(classMissing)};
+        }
+
+        /*
+         * Adds a prediction to the evaluation (and the predictions file), returns true if the evaluation has gone over the quality cap
+         */
+        private boolean record(int index, double[] prediction, Instance instance, PredictionsWriter predictions) throws Exception
+        {
+            if(predictions != null)
+                predictions.write(index, prediction, instance);
+            if(mAccumulator == null)
+                mEval.evaluateModelOnceAndRecordPrediction(prediction, instance);
+            else if(mAccumulator.classIsNominal())
+                mAccumulator.addDistribution(prediction, instance);
+            else
+                mAccumulator.addPrediction(prediction[0], instance);
+
+            mNumEvaluated++;
+            if(!isCapping())
+                return false;
+            double bound = mCapResult.getLowerBoundScore(mAccumulator, mTotalWeight);
+            if(bound > mQualityCap)
+            {
+                mCappedScore = bound;
+                mCapped = true;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean isCapping()
+        {
+            return mAccumulator != null && mCapResult != null && mCapResult.canBeCapped() && !Double.isInfinite(mQualityCap);
+        }
+
+        /*
+         * Predicts chunks of the instances on a pool of threads, and records them in order as they come back. Only a few chunks are
+         * allowed to be waiting at once, so we never hold on to more than a handful of predictions
+         */
+        private void evaluateInParallel(final boolean shared, PredictionsWriter predictions) throws Exception
+        {
+            final ThreadLocal<AbstractClassifier> classifiers = new ThreadLocal<AbstractClassifier>(){
+                protected AbstractClassifier initialValue()
+                {
+                    if(shared)
+                        return mClassifier;
+                    try
+                    {
+                        return (AbstractClassifier)AbstractClassifier.makeCopy(mClassifier);
+                    }
+                    catch(Exception e)
+                    {
+                        throw new RuntimeException("Failed to copy classifier for prediction", e);
+                    }
+                }
+            };
+
+            ExecutorService executor = Executors.newFixedThreadPool(mNumThreads, new ThreadFactory(){
+                private int mCount = 0;
+                public synchronized Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "EvaluatorThread-predict-" + (mCount++));
+                    t.setDaemon(true);
+                    return t;
                 }
-            } else {
-                for (Instance instance : mInstances) {
-                    mEval.evaluateModelOnceAndRecordPrediction(mClassifier, instance);
+            });
+            setNumHelperThreads(mNumThreads);
+
+            int numInstances = mInstances.numInstances();
+            int numChunks = (numInstances + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            LinkedList<Future<double[][]>> pending = new LinkedList<Future<double[][]>>();
+            int nextChunk = 0;
+            try
+            {
+                while(nextChunk < numChunks && pending.size() < 2 * mNumThreads)
+                    pending.add(executor.submit(new PredictionTask(nextChunk++, classifiers)));
+
+                for(int chunk = 0; chunk < numChunks; chunk++)
+                {
+                    double[][] chunkPredictions;
+                    try
+                    {
+                        chunkPredictions = pending.removeFirst().get();
+                    }
+                    catch(ExecutionException e)
+                    {
+                        if(e.getCause() instanceof Exception)
+                            throw (Exception)e.getCause();
+                        throw new RuntimeException(e.getCause());
+                    }
+                    if(nextChunk < numChunks)
+                        pending.add(executor.submit(new PredictionTask(nextChunk++, classifiers)));
+
+                    int start = chunk * CHUNK_SIZE;
+                    for(int i = 0; i < chunkPredictions.length; i++)
+                    {
+                        if(record(start + i, chunkPredictions[i], mInstances.instance(start + i), predictions))
+                            return;
+                    }
+                }
+            }
+            finally
+            {
+                for(Future<double[][]> f : pending)
+                    f.cancel(true);
+                executor.shutdownNow();
+                setNumHelperThreads(0);
+            }
+        }
+
+        /*
+         * Makes the predictions for one chunk of the instances
+         */
+        private class PredictionTask implements Callable<double[][]>
+        {
+            private int mChunk;
+            private ThreadLocal<AbstractClassifier> mClassifiers;
+
+            public PredictionTask(int chunk, ThreadLocal<AbstractClassifier> classifiers)
+            {
+                mChunk = chunk;
+                mClassifiers = classifiers;
+            }
+
+            public double[][] call() throws Exception
+            {
+                long startCpuTime = getCurrentThreadCpuTime();
+                try
+                {
+                    AbstractClassifier classifier = mClassifiers.get();
+                    int start = mChunk * CHUNK_SIZE;
+                    int end = Math.min(mInstances.numInstances(), start + CHUNK_SIZE);
+
+                    if(classifier.implementsMoreEfficientBatchPrediction())
+                    {
+                        Instances batch = new Instances(mInstances, end - start);
+                        for(int i = start; i < end; i++)
+                        {
+                            batch.add(mInstances.instance(i));
+                            batch.instance(i - start).setClassMissing();
+                        }
+                        return classifier.distributionsForInstances(batch);
+                    }
+
+                    double[][] predictions = new double[end - start][];
+                    for(int i = start; i < end; i++)
+                    {
+                        if(Thread.currentThread().isInterrupted())
+                            throw new InterruptedException();
+                        predictions[i - start] = predict(classifier, mInstances.instance(i));
+                    }
+                    return predictions;
+                }
+                finally
+                {
+                    addHelperCpuTime(getCurrentThreadCpuTime() - startCpuTime);
                 }
             }
         }
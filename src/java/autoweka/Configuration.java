@@ -2,6 +2,7 @@ package autoweka;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -34,10 +35,10 @@ public class Configuration extends XmlSerializable implements Comparable{
 	private int mEvaluatedFold;
 
 	@XmlElement(name="folds")
-	private ArrayList<String> mFolds;
+	private int[] mFolds;
 
 	@XmlElement(name="scores")
-	private ArrayList<String> mScores;
+	private double[] mScores;
 
 	@XmlElement(name="avgScore")
 	private double mAverageScore;
@@ -52,17 +53,13 @@ public class Configuration extends XmlSerializable implements Comparable{
 	private boolean averagedFlag;
 
 	public Configuration(){
-		this.mFolds  = new ArrayList<String>();
-		this.mScores = new ArrayList<String>();
+		this.mFolds  = new int[0];
+		this.mScores = new double[0];
 		this.averagedFlag=false;
 	}
 
 	public Configuration(List<String> argsList){
-		this();
-		this.mArgStrings = "";
-		for (String s : argsList){
-			this.mArgStrings+=(s+" ");
-		}
+		this(toArgStrings(argsList));
 	}
 
 	public Configuration(String args){
@@ -70,25 +67,46 @@ public class Configuration extends XmlSerializable implements Comparable{
 		this.mArgStrings=args;
 	}
 
+	//Builds a configuration that has already been evaluated on the given folds, such as one that's been aggregated from the ConfigurationLog.
+	public Configuration(String args, int[] folds, double[] scores){
+		this(args);
+		if(folds.length!=scores.length){
+			throw new RuntimeException("Every fold needs a score!");
+		}
+		this.mFolds  = folds;
+		this.mScores = scores;
+		this.mAmtFolds  = folds.length;
+		this.mAmtScores = scores.length;
+		if(folds.length>0){
+			this.mEvaluatedFold  = folds[folds.length-1];
+			this.mEvaluatedScore = scores[scores.length-1];
+		}
+		forceUpdateAverage();
+	}
+
+	//The argument string that a configuration gets for the given arguments, which is what identifies it
+	public static String toArgStrings(List<String> argsList){
+		StringBuilder sb = new StringBuilder();
+		for (String s : argsList){
+			sb.append(s).append(' ');
+		}
+		return sb.toString();
+	}
+
 	//Merges two instances of the same configuration (i.e. same argument string), while keeping track of scores and folds id's. Merging is done on caller configuration only.
 	public void mergeWith(Configuration c){
 
 		if(c.hashCode()!=this.hashCode()){
 			throw new RuntimeException("Not equivalent configurations!");
 		}
-		//@TODO optimize those to Integer and Double later
 		if(c.mFolds!=null){
-			for(String fold : c.mFolds){
-				this.mFolds.add(fold);
-				this.mAmtFolds++;
-			}
+			this.mFolds = concat(this.mFolds, c.mFolds);
+			this.mAmtFolds+=c.mFolds.length;
 		}
-		if(c.mFolds!=null){
-			for(String score : c.mScores){
-				this.mScores.add(score);
-				averagedFlag=false;
-				this.mAmtScores++;
-			}
+		if(c.mScores!=null){
+			this.mScores = concat(this.mScores, c.mScores);
+			this.mAmtScores+=c.mScores.length;
+			averagedFlag=false;
 		}
 
 	}
@@ -109,12 +127,24 @@ public class Configuration extends XmlSerializable implements Comparable{
 		averagedFlag=true;
 	}
 
-	private double average(List<String> l){ //Apparently theres no standard java method for that. @TODO Check if thats true
+	private double average(double[] l){
 		double sum = 0;
-		for (String d: l){
-			sum+=Double.parseDouble(d);
+		for (double d: l){
+			sum+=d;
 		}
-		return (sum/l.size());
+		return (sum/l.length);
+	}
+
+	private static int[] concat(int[] a, int[] b){
+		int[] res = Arrays.copyOf(a, a.length+b.length);
+		System.arraycopy(b, 0, res, a.length, b.length);
+		return res;
+	}
+
+	private static double[] concat(double[] a, double[] b){
+		double[] res = Arrays.copyOf(a, a.length+b.length);
+		System.arraycopy(b, 0, res, a.length, b.length);
+		return res;
 	}
 
 	public int compareTo(Object aTarget){ //Compares only the average score. If necessary, updates this metric before comparing
@@ -126,9 +156,9 @@ public class Configuration extends XmlSerializable implements Comparable{
 		this.lazyUpdateAverage();
 		cTarget.lazyUpdateAverage();
 
-			if (this.mFolds.size() > cTarget.mFolds.size()){
+			if (this.mFolds.length > cTarget.mFolds.length){
 				return 1;
-			}else if (this.mFolds.size() < cTarget.mFolds.size()){
+			}else if (this.mFolds.length < cTarget.mFolds.length){
 				return -1;
 			}else{
 				if      (this.mAverageScore < cTarget.mAverageScore ) return 1; //Assumes smaller score is better. If that isn't the case, change that.
@@ -140,8 +170,8 @@ public class Configuration extends XmlSerializable implements Comparable{
 
 	public String toString(){
 		String strFolds = "[";
-		for(String fold : mFolds){
-			strFolds+=(fold.toString()+"/");
+		for(int fold : mFolds){
+			strFolds+=(fold+"/");
 		}
 		strFolds+="]";
 		return (Integer.toString(this.hashCode())+","+Double.toString(mEvaluatedScore)+","+strFolds);
@@ -158,13 +188,13 @@ public class Configuration extends XmlSerializable implements Comparable{
 		mEvaluatedScore = aScore;
 		mEvaluatedFold  = aFoldId;
 		if (mFolds==null){
-			mFolds = new ArrayList<String>();
+			mFolds = new int[0];
 		}
 		if (mScores == null){
-			mScores = new ArrayList<String>();
+			mScores = new double[0];
 		}
-		mFolds.add(Integer.toString(aFoldId));
-		mScores.add(Double.toString(aScore));
+		mFolds  = concat(mFolds, new int[]{aFoldId});
+		mScores = concat(mScores, new double[]{aScore});
 		mAmtFolds++;
 		mAmtScores++;
 		mAverageScore = average(mScores);
@@ -173,18 +203,19 @@ public class Configuration extends XmlSerializable implements Comparable{
 	public void setScore(double aScore){
 		mEvaluatedScore = aScore;
 		if (mScores == null){
-			mScores = new ArrayList<String>();
+			mScores = new double[0];
 		}
-		mScores.add(Double.toString(aScore));
+		mScores = concat(mScores, new double[]{aScore});
+		averagedFlag=false;
 		mAmtScores++;
 	}
 
 	public void setFoldId(int aFoldId){
 		mEvaluatedFold  = aFoldId;
 		if (mFolds==null){
-			mFolds = new ArrayList<String>();
+			mFolds = new int[0];
 		}
-		mFolds.add(Integer.toString(aFoldId));
+		mFolds = concat(mFolds, new int[]{aFoldId});
 		mAmtFolds++;
 	}
 
@@ -195,14 +226,30 @@ public class Configuration extends XmlSerializable implements Comparable{
 	
 
 	public int getEvaluationAmount(){
-		return this.mScores.size();
+		return this.mScores.length;
 	}
 
 	public double getEvaluatedScore() { return mEvaluatedScore;}
 	public int getEvaluatedFold()     { return mEvaluatedFold;}
 	public int getAmtFolds()          { return mAmtFolds;}
 	public String getArgStrings()     { return mArgStrings;}
-	public List<String> getFolds()    { return mFolds;}
-	public List<String> getScores()   { return mScores;}
+	public int[] getFoldIds()         { return mFolds;}
+	public double[] getScoreValues()  { return mScores;}
+
+	public List<String> getFolds(){
+		List<String> folds = new ArrayList<String>(mFolds.length);
+		for(int fold : mFolds){
+			folds.add(Integer.toString(fold));
+		}
+		return folds;
+	}
+
+	public List<String> getScores(){
+		List<String> scores = new ArrayList<String>(mScores.length);
+		for(double score : mScores){
+			scores.add(Double.toString(score));
+		}
+		return scores;
+	}
 
 }
@@ -0,0 +1,185 @@
+package autoweka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps track of the best N configurations as their evaluations come in, so that the current leaders can be had at any time without sorting
+ * everything that's been tried.
+ *
+ * Configurations are ranked the same way that Configuration.compareTo does it: the more folds a configuration has been evaluated on the
+ * better, and then the lower average score the better. The leaders sit in a heap of size N with the worst of them on top, and a new
+ * evaluation only has to get past that one to make it in.
+ *
+ * This is exact, even though configurations that fall out of the heap are never looked at again until they get another evaluation. Another
+ * evaluation always means another fold, so a configuration can only ever move up past the ones that it was already ahead of - whatever it
+ * lost to before is still ahead of it, and whatever pushed it out of the heap still is too.
+ *
+ * The leaderboard can follow any number of ConfigurationLogs (see addLog), which get read up to date whenever refresh is called.
+ */
+public class ConfigurationLeaderboard implements ConfigurationLog.RecordHandler
+{
+    private int mSize;
+    private Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private PriorityQueue<Entry> mLeaders;
+    private List<ConfigurationLog.Tail> mTails = new ArrayList<ConfigurationLog.Tail>();
+
+    //Worst first, which is the order that the heap needs
+    private static final Comparator<Entry> msWorstFirst = new Comparator<Entry>(){
+        public int compare(Entry a, Entry b)
+        {
+            if(a.mCount != b.mCount)
+                return a.mCount < b.mCount ? -1 : 1;
+            return Double.compare(b.getAverage(), a.getAverage());
+        }
+    };
+
+    /**
+     * Creates an empty leaderboard
+     * @param size How many configurations to keep track of.
+     */
+    public ConfigurationLeaderboard(int size)
+    {
+        if(size < 1)
+            throw new IllegalArgumentException("The leaderboard needs room for at least one configuration");
+        mSize = size;
+        mLeaders = new PriorityQueue<Entry>(size, msWorstFirst);
+    }
+
+    /**
+     * Starts following a ConfigurationLog, which doesn't have to exist yet
+     * @param fileName The log.
+     */
+    public synchronized void addLog(String fileName)
+    {
+        mTails.add(new ConfigurationLog.Tail(fileName));
+    }
+
+    /**
+     * Reads in everything that's been added to the logs since the last refresh
+     * @return The number of new evaluations.
+     */
+    public int refresh()
+    {
+        List<ConfigurationLog.Tail> tails;
+        synchronized(this)
+        {
+            tails = new ArrayList<ConfigurationLog.Tail>(mTails);
+        }
+        int count = 0;
+        for(ConfigurationLog.Tail tail: tails)
+            count += tail.poll(this);
+        return count;
+    }
+
+    /**
+     * Adds an evaluation of a configuration
+     * @param argStrings The argument string of the configuration.
+     * @param fold The fold that it was evaluated on.
+     * @param score The score it got.
+     */
+    public synchronized void record(String argStrings, int fold, double score)
+    {
+        Entry e = mEntries.get(argStrings);
+        if(e == null)
+        {
+            e = new Entry(argStrings);
+            mEntries.put(argStrings, e);
+        }
+
+        //It can't change while it's in the heap, or the heap gets lost
+        if(e.mIsLeader)
+            mLeaders.remove(e);
+        e.add(fold, score);
+
+        if(e.mIsLeader || mLeaders.size() < mSize)
+        {
+            mLeaders.add(e);
+            e.mIsLeader = true;
+        }
+        else if(msWorstFirst.compare(e, mLeaders.peek()) > 0)
+        {
+            mLeaders.poll().mIsLeader = false;
+            mLeaders.add(e);
+            e.mIsLeader = true;
+        }
+    }
+
+    /**
+     * Gets the current leaders
+     * @return Up to N configurations, best first.
+     */
+    public synchronized List<Configuration> getLeaders()
+    {
+        List<Entry> entries = new ArrayList<Entry>(mLeaders);
+        Collections.sort(entries, Collections.reverseOrder(msWorstFirst));
+        List<Configuration> leaders = new ArrayList<Configuration>(entries.size());
+        for(Entry e: entries)
+            leaders.add(e.toConfiguration());
+        return leaders;
+    }
+
+    /**
+     * Gets everything that's known about a configuration, whether or not it's one of the leaders
+     * @param argStrings The argument string of the configuration.
+     * @return The configuration, or null if it hasn't been evaluated.
+     */
+    public synchronized Configuration get(String argStrings)
+    {
+        Entry e = mEntries.get(argStrings);
+        return e == null ? null : e.toConfiguration();
+    }
+
+    /**
+     * Gets how many different configurations have been evaluated
+     * @return The number of configurations.
+     */
+    public synchronized int getNumConfigurations()
+    {
+        return mEntries.size();
+    }
+
+    private static class Entry
+    {
+        private String mArgStrings;
+        private int[] mFolds = new int[10];
+        private double[] mScores = new double[10];
+        private int mCount = 0;
+        private double mSum = 0;
+        private boolean mIsLeader = false;
+
+        private Entry(String argStrings)
+        {
+            mArgStrings = argStrings;
+        }
+
+        private void add(int fold, double score)
+        {
+            if(mCount == mFolds.length)
+            {
+                mFolds = Arrays.copyOf(mFolds, 2 * mCount);
+                mScores = Arrays.copyOf(mScores, 2 * mCount);
+            }
+            mFolds[mCount] = fold;
+            mScores[mCount] = score;
+            mSum += score;
+            mCount++;
+        }
+
+        private double getAverage()
+        {
+            return mSum / mCount;
+        }
+
+        private Configuration toConfiguration()
+        {
+            return new Configuration(mArgStrings, Arrays.copyOf(mFolds, mCount), Arrays.copyOf(mScores, mCount));
+        }
+    }
+}
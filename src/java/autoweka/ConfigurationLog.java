@@ -0,0 +1,232 @@
+package autoweka;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only log of every configuration evaluation, which is what the ConfigurationRanker works from when 'nBestConfigs' is set.
+ *
+ * Each evaluation is a single line of the form 'fold TAB score TAB argument string'. Every line goes out in one write while holding a lock on
+ * the file, so the wrappers of an experiment (and every parallel run of it) can all add to the same log without tearing each other's lines.
+ * Nothing ever gets read back or rewritten while the search is going, which keeps the cost of an evaluation the same no matter how many
+ * came before it.
+ */
+public class ConfigurationLog
+{
+    final static Logger log = LoggerFactory.getLogger(ConfigurationLog.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Gets told about each record in the log, in the order that they were written
+     */
+    public static interface RecordHandler
+    {
+        public void record(String argStrings, int fold, double score);
+    }
+
+    /**
+     * Adds an evaluation to the end of the log
+     * @param fileName The log file.
+     * @param argStrings The argument string of the configuration, as made by Configuration.
+     * @param fold The fold that it was evaluated on.
+     * @param score The score it got.
+     */
+    public static void append(String fileName, String argStrings, int fold, double score)
+    {
+        if(argStrings.indexOf('\n') >= 0 || argStrings.indexOf('\t') >= 0)
+            throw new IllegalArgumentException("Argument string can't contain tabs or new lines: " + argStrings);
+        ByteBuffer line = ByteBuffer.wrap((fold + "\t" + score + "\t" + argStrings + "\n").getBytes(UTF8));
+
+        //File locks belong to the whole JVM, so the threads in here have to take turns before going for it
+        synchronized(ConfigurationLog.class)
+        {
+            try
+            {
+                FileOutputStream out = new FileOutputStream(fileName, true);
+                try
+                {
+                    FileChannel channel = out.getChannel();
+                    FileLock lock = channel.lock();
+                    try
+                    {
+                        while(line.hasRemaining())
+                            channel.write(line);
+                    }
+                    finally
+                    {
+                        lock.release();
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException("Couldn't write to configuration log " + fileName, e);
+            }
+        }
+    }
+
+    /**
+     * Reads through the whole log once, handing each record over as it goes
+     * @param fileName The log file.
+     * @param handler What gets each record.
+     * @return The number of records that were read.
+     * @throws FileNotFoundException if there's no log.
+     */
+    public static int read(String fileName, RecordHandler handler) throws FileNotFoundException
+    {
+        FileInputStream in = new FileInputStream(fileName);
+        int count = 0;
+        synchronized(ConfigurationLog.class)
+        {
+            try
+            {
+                FileLock lock = in.getChannel().lock(0, Long.MAX_VALUE, true);
+                try
+                {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+                    String line;
+                    while((line = reader.readLine()) != null)
+                    {
+                        if(parse(fileName, line, handler))
+                            count++;
+                    }
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException("Couldn't read configuration log " + fileName, e);
+            }
+            finally
+            {
+                try
+                {
+                    in.close();
+                }
+                catch(IOException e)
+                {
+                    //Nothing left to do with it anyway
+                }
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Splits up a line of the log and hands it over, returns false if it wasn't a proper record
+     */
+    private static boolean parse(String fileName, String line, RecordHandler handler)
+    {
+        int firstTab = line.indexOf('\t');
+        int secondTab = line.indexOf('\t', firstTab + 1);
+        if(firstTab < 0 || secondTab < 0)
+        {
+            log.warn("Skipping malformed line in configuration log {}: {}", fileName, line);
+            return false;
+        }
+        try
+        {
+            int fold = Integer.parseInt(line.substring(0, firstTab));
+            double score = Double.parseDouble(line.substring(firstTab + 1, secondTab));
+            handler.record(line.substring(secondTab + 1), fold, score);
+            return true;
+        }
+        catch(NumberFormatException e)
+        {
+            log.warn("Skipping malformed line in configuration log {}: {}", fileName, line);
+            return false;
+        }
+    }
+
+    /**
+     * Follows a log that's still being written, remembering how far it's got so that each poll only reads the records that are new since the last one
+     */
+    public static class Tail
+    {
+        private String mFileName;
+        private long mOffset = 0;
+
+        public Tail(String fileName)
+        {
+            mFileName = fileName;
+        }
+
+        /**
+         * Hands over every record that's been added since the last poll
+         * @param handler What gets each record.
+         * @return The number of new records.
+         */
+        public synchronized int poll(RecordHandler handler)
+        {
+            File file = new File(mFileName);
+            if(!file.exists() || file.length() <= mOffset)
+                return 0;
+
+            byte[] bytes;
+            synchronized(ConfigurationLog.class)
+            {
+                try
+                {
+                    RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    try
+                    {
+                        FileLock lock = raf.getChannel().lock(0, Long.MAX_VALUE, true);
+                        try
+                        {
+                            bytes = new byte[(int)(raf.length() - mOffset)];
+                            raf.seek(mOffset);
+                            raf.readFully(bytes);
+                        }
+                        finally
+                        {
+                            lock.release();
+                        }
+                    }
+                    finally
+                    {
+                        raf.close();
+                    }
+                }
+                catch(IOException e)
+                {
+                    throw new RuntimeException("Couldn't read configuration log " + mFileName, e);
+                }
+            }
+
+            //Every line goes in with a single write, but leave anything without its new line for next time just in case
+            int end = bytes.length;
+            while(end > 0 && bytes[end - 1] != '\n')
+                end--;
+            mOffset += end;
+
+            int count = 0;
+            for(String line: new String(bytes, 0, end, UTF8).split("\n"))
+            {
+                if(!line.isEmpty() && parse(mFileName, line, handler))
+                    count++;
+            }
+            return count;
+        }
+    }
+}
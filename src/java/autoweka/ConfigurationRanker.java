@@ -6,28 +6,64 @@ import java.io.FileNotFoundException;
 import java.util.NoSuchElementException;
 import java.util.Arrays;
 import java.util.Scanner;
-import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.Collections;
 import java.util.List;
 
 import static weka.classifiers.meta.AutoWEKAClassifier.configurationRankingPath;
+import static weka.classifiers.meta.AutoWEKAClassifier.getConfigurationLogPath;
 import static weka.classifiers.meta.AutoWEKAClassifier.configurationInfoDirPath;
 import static weka.classifiers.meta.AutoWEKAClassifier.configurationHashSetPath;
 
 public class ConfigurationRanker{
 
-	//Loads configurations from temporary log, merges identical while merging the folds in which they were analyzed, sorts them and spits n of them to a xml
+	//Loads configurations from temporary log, merges identical while merging the folds in which they were analyzed, keeps the n best and spits them to a xml
 
 	public static void rank(int n, String temporaryDirPath, String smacBest) throws FileNotFoundException, NoSuchElementException{
+		rank(n, temporaryDirPath, null, smacBest);
+	}
+
+	//Same as above, but only for the configurations that were evaluated by the run with the given seed (null for the log without a seed)
+	public static void rank(int n, String temporaryDirPath, String seed, String smacBest) throws FileNotFoundException, NoSuchElementException{
+
+		String rPath  = temporaryDirPath+configurationRankingPath;
+		String logPath = temporaryDirPath+getConfigurationLogPath(seed);
+
+		ConfigurationLeaderboard board = new ConfigurationLeaderboard(n);
+		if(new File(logPath).exists()){
+			ConfigurationLog.read(logPath, board);
+			if(board.getNumConfigurations()==0){
+				throw new NoSuchElementException("No configurations in "+logPath);
+			}
+		}else{
+			loadFromHashes(temporaryDirPath, board);
+		}
+		rank(board, smacBest, rPath);
+	}
+
+	//Spits out the leaders of a board that's already been filled up
+	public static void rank(ConfigurationLeaderboard board, String smacBest, String rankingPath){
+
+		List<Configuration> configs = board.getLeaders();
+
+		//Forcing the last incumbent to be the best configuration, in case of a tie
+		if (!smacBest.equals("IGNORE")){
+			forceFirst(configs,board,smacBest);
+		}
+
+		//Spit to xml
+		Util.initializeFile(rankingPath);
+		ConfigurationCollection spitMe = new ConfigurationCollection(configs);
+		spitMe.toXML(rankingPath); //ba dum tss
+	}
+
+	//The old layout, with a list of hashes and an XML file for each configuration
+	private static void loadFromHashes(String temporaryDirPath, ConfigurationLeaderboard board) throws FileNotFoundException, NoSuchElementException{
 
 		//Declaring some basic stuff
 		String hsPath = temporaryDirPath+configurationHashSetPath;
 		String cdPath = temporaryDirPath+configurationInfoDirPath;
-		String rPath  = temporaryDirPath+configurationRankingPath;
 
-		List<Configuration> configs = new ArrayList<Configuration>();
 		File hashSetFile = new File(hsPath);
 		String [] redundantConfigHashes;
 		Set<String> configHashes;
@@ -37,55 +73,43 @@ public class ConfigurationRanker{
 		redundantConfigHashes = (new Scanner(hashSetFile)).nextLine().split(",");
 		configHashes = new HashSet<String>(Arrays.asList(redundantConfigHashes));
 
-//
-
 		for(String hash : configHashes){
-			configs.add(Configuration.fromXML(cdPath+hash+".xml",Configuration.class));
-		}
-
-		//Sorting the configurations
-		for(Configuration c: configs){
-			c.forceUpdateAverage();
-		}
-		Collections.sort(configs);
-		Collections.reverse(configs);
-
-		//Forcing the last incumbent to be the best configuration, in case of a tie
-		if (!smacBest.equals("IGNORE")){
-			forceFirst(configs,smacBest); //gotta do this before slicing, otherwise smacBest might be lost in the slice
+			Configuration c = Configuration.fromXML(cdPath+hash+".xml",Configuration.class);
+			int[] folds = c.getFoldIds();
+			double[] scores = c.getScoreValues();
+			for(int i = 0; i < folds.length; i++){
+				board.record(c.getArgStrings(), folds[i], scores[i]);
+			}
 		}
-
-		//Slicing the list to size n
-		configs = configs.subList(0,  (n<configs.size())?(n):(configs.size())  );
-
-		//Spit to xml
-		Util.initializeFile(rPath);
-		ConfigurationCollection spitMe = new ConfigurationCollection(configs);
-		spitMe.toXML(rPath); //ba dum tss
 	}
 
-	private static void forceFirst(List<Configuration> configs, String smacBest){
+	//The board only hangs on to the leaders, so if the incumbent was tied for first but lost out it gets looked up and put back in front,
+	//pushing the others down one and the last one off the end
+	private static void forceFirst(List<Configuration> configs, ConfigurationLeaderboard board, String smacBest){
 
 		Configuration bestConfig = configs.get(0);
 		if (bestConfig.getArgStrings().equals(smacBest)) {
 			return;
 		}
 
-		double bestScore = bestConfig.getAverageScore();
+		Configuration c = board.get(smacBest);
+		if(c==null){
+			throw new RuntimeException("Couldn't find final incumbent on the log");
+		}
+		if(c.getAverageScore()!=bestConfig.getAverageScore()){
+			throw new RuntimeException("Final incumbent doesn't have the best score");
+		}
 
 		for(int i = 1; i<configs.size(); i++){
-			Configuration temp, c = configs.get(i);
-			if(c.getArgStrings().equals(smacBest)){
-				if(c.getAverageScore()!=bestScore){
-					throw new RuntimeException("Final incumbent doesn't have the best score");
-				}else{
-					configs.set(0,c);
-					configs.set(i,bestConfig);
-					return;
-				}
+			if(configs.get(i).getArgStrings().equals(smacBest)){
+				configs.set(0,configs.get(i));
+				configs.set(i,bestConfig);
+				return;
 			}
 		}
-		throw new RuntimeException("Couldn't find final incumbent on the log");
+		int n = configs.size();
+		configs.add(0,c);
+		configs.remove(n);
 	}
 
 }
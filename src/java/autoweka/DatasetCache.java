@@ -0,0 +1,204 @@
+package autoweka;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact columnar binary copy of a dataset, which gets written once when an experiment is constructed and then memory mapped by every wrapper.
+ *
+ * This saves having to parse the ARFF on every single evaluation, and since the file is mapped the OS can share the pages between all of the
+ * wrapper processes. The file contains the training data and (optionally) the testing data, each section looks like:
+ *   int - length of the header
+ *   byte[] - serialized header (an Instances with no rows, this keeps string/nominal values and the class index)
+ *   int - number of instances
+ *   double[numInstances] - instance weights
+ *   double[numAttributes][numInstances] - the attribute values, one column at a time
+ */
+public class DatasetCache
+{
+    final static Logger log = LoggerFactory.getLogger(DatasetCache.class);
+
+    private static final int MAGIC = 0x41574443;
+    private static final int VERSION = 1;
+    //How much we're willing to map in one go
+    private static final long MAX_MAP_SIZE = 1L << 30;
+
+    /**
+     * Checks to see if the given data can be stored in a cache without blowing it up in size
+     * @param data The instances.
+     * @return True if the data can be cached.
+     */
+    public static boolean canCache(Instances data)
+    {
+        for(int i = 0; i < data.numInstances(); i++)
+        {
+            if(data.instance(i) instanceof SparseInstance)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes out the training and testing data to a cache file
+     * @param file The file to write to.
+     * @param training The training instances.
+     * @param testing The testing instances, or null if they are the same as the training ones.
+     */
+    public static void write(File file, Instances training, Instances testing)
+    {
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(testing == null ? 1 : 2);
+            writeSection(out, training);
+            if(testing != null)
+                writeSection(out, testing);
+            out.close();
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("Failed to write dataset cache " + file, e);
+        }
+    }
+
+    private static void writeSection(DataOutputStream out, Instances data) throws IOException
+    {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        ObjectOutputStream headerOut = new ObjectOutputStream(headerBytes);
+        headerOut.writeObject(new Instances(data, 0));
+        headerOut.close();
+        out.writeInt(headerBytes.size());
+        headerBytes.writeTo(out);
+
+        int numInstances = data.numInstances();
+        out.writeInt(numInstances);
+        for(int i = 0; i < numInstances; i++)
+            out.writeDouble(data.instance(i).weight());
+        for(int a = 0; a < data.numAttributes(); a++)
+        {
+            for(int i = 0; i < numInstances; i++)
+                out.writeDouble(data.instance(i).value(a));
+        }
+    }
+
+    /**
+     * Maps in a cache file
+     * @param file The cache file.
+     * @return An array containing the training and testing instances - these are the same object if the testing data wasn't stored.
+     */
+    public static Instances[] read(File file)
+    {
+        RandomAccessFile raf = null;
+        try
+        {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer preamble = channel.map(FileChannel.MapMode.READ_ONLY, 0, 12);
+            if(preamble.getInt() != MAGIC)
+                throw new RuntimeException("File " + file + " is not a dataset cache");
+            int version = preamble.getInt();
+            if(version != VERSION)
+                throw new RuntimeException("Unsupported dataset cache version " + version);
+            int numSections = preamble.getInt();
+
+            long[] position = new long[]{12};
+            Instances training = readSection(channel, position);
+            Instances testing = training;
+            if(numSections > 1)
+                testing = readSection(channel, position);
+            return new Instances[]{training, testing};
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("Failed to read dataset cache " + file, e);
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new RuntimeException("Failed to read dataset cache header " + file, e);
+        }
+        finally
+        {
+            try
+            {
+                if(raf != null)
+                    raf.close();
+            }
+            catch(IOException e)
+            {
+                log.debug("Failed to close dataset cache", e);
+            }
+        }
+    }
+
+    private static Instances readSection(FileChannel channel, long[] position) throws IOException, ClassNotFoundException
+    {
+        MappedByteBuffer sizeBuf = channel.map(FileChannel.MapMode.READ_ONLY, position[0], 4);
+        int headerLength = sizeBuf.getInt();
+        position[0] += 4;
+
+        MappedByteBuffer headerBuf = channel.map(FileChannel.MapMode.READ_ONLY, position[0], headerLength + 4);
+        byte[] headerBytes = new byte[headerLength];
+        headerBuf.get(headerBytes);
+        int numInstances = headerBuf.getInt();
+        position[0] += headerLength + 4;
+
+        ObjectInputStream headerIn = new ObjectInputStream(new ByteArrayInputStream(headerBytes));
+        Instances header = (Instances)headerIn.readObject();
+        headerIn.close();
+
+        int numAttributes = header.numAttributes();
+        long columnBytes = 8L * numInstances;
+        double[] weights = new double[numInstances];
+        double[][] rows = new double[numInstances][numAttributes];
+        double[] column = new double[numInstances];
+
+        //Column -1 holds the weights, we map as many columns as we're allowed at a time
+        int columnsPerMap = (int)Math.max(1, MAX_MAP_SIZE / Math.max(1, columnBytes));
+        for(int start = -1; start < numAttributes; start += columnsPerMap)
+        {
+            int end = Math.min(numAttributes, start + columnsPerMap);
+            DoubleBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, position[0], columnBytes * (end - start)).asDoubleBuffer();
+            position[0] += columnBytes * (end - start);
+            for(int a = start; a < end; a++)
+            {
+                if(a < 0)
+                {
+                    values.get(weights);
+                    continue;
+                }
+                values.get(column);
+                for(int i = 0; i < numInstances; i++)
+                    rows[i][a] = column[i];
+            }
+        }
+
+        Instances data = new Instances(header, numInstances);
+        for(int i = 0; i < numInstances; i++)
+        {
+            Instance inst = new DenseInstance(weights[i], rows[i]);
+            data.add(inst);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,377 @@
+package autoweka;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of long lived JVMs that evaluate configurations for an experiment, so that SMAC doesn't have to pay for a fresh JVM, dataset load and JIT warmup on every run.
+ *
+ * The pool listens on a loopback port, and the thin client (autoweka.smac.SMACPoolClient) that SMAC invokes as its 'algo' forwards its arguments here.
+ * Each request is handed off to an idle worker (autoweka.smac.SMACPoolWorker), and everything the worker prints is relayed back to the client until the
+ * worker signals that the evaluation is done. Workers are thrown away after a number of evaluations, when their heap usage gets too high, or when an
+ * evaluation didn't finish cleanly (or got terminated), so we keep the leak isolation that we get from running each evaluation in its own process.
+ *
+ * The pool is enabled through the experiment's extraProps:
+ *   evaluatorPoolSize - the number of worker JVMs (0 disables the pool)
+ *   evaluatorPoolMaxEvaluations - how many evaluations a worker can do before it gets recycled (default 50)
+ *   evaluatorPoolMaxHeapFraction - the fraction of -Xmx that a worker can have in use after an evaluation before it gets recycled (default 0.75)
+ */
+public class EvaluatorPool
+{
+    final static Logger log = LoggerFactory.getLogger(EvaluatorPool.class);
+
+    /**
+     * The environment variable that tells the client which port the pool is listening on
+     */
+    public static final String PORT_ENV_VARIABLE = "AUTOWEKA_EVALUATOR_POOL_PORT";
+
+    /**
+     * The line that a worker prints once it has completed an evaluation, followed by the exit code, the heap usage and whether or not the worker should be thrown away
+     */
+    public static final String DONE_MARKER = "__AUTOWEKA_EVALUATION_DONE__";
+
+    private File mExperimentDir;
+    private String mMemory;
+    private String mSeed;
+    private int mMaxEvaluations;
+    private double mMaxHeapFraction;
+
+    private ServerSocket mServer = null;
+    private Thread mAcceptThread = null;
+    private Semaphore mAvailable;
+    private LinkedBlockingQueue<Worker> mIdleWorkers = new LinkedBlockingQueue<Worker>();
+    private List<Worker> mAllWorkers = new ArrayList<Worker>();
+    private volatile boolean mStopped = false;
+
+    /**
+     * Creates a pool for the given experiment, or returns null if the experiment doesn't ask for one
+     * @param exp The experiment.
+     * @param experimentDir The folder containing the experiment.
+     * @param seed The seed that the experiment is being run with.
+     * @return The pool, or null if the pool is disabled.
+     */
+    public static EvaluatorPool create(Experiment exp, File experimentDir, String seed)
+    {
+        Properties props = Util.parsePropertyString(exp.extraPropsString);
+        int size = Integer.parseInt(props.getProperty("evaluatorPoolSize", "0"));
+        if(size <= 0)
+            return null;
+
+        int maxEvaluations = Integer.parseInt(props.getProperty("evaluatorPoolMaxEvaluations", "50"));
+        double maxHeapFraction = Double.parseDouble(props.getProperty("evaluatorPoolMaxHeapFraction", "0.75"));
+        return new EvaluatorPool(experimentDir, exp.memory, seed, size, maxEvaluations, maxHeapFraction);
+    }
+
+    /**
+     * Checks if the experiment's extra properties turn on the pool
+     * @param extraPropsString The extra properties of the experiment.
+     * @return True if the pool should be used.
+     */
+    public static boolean isEnabled(String extraPropsString)
+    {
+        Properties props = Util.parsePropertyString(extraPropsString);
+        return Integer.parseInt(props.getProperty("evaluatorPoolSize", "0")) > 0;
+    }
+
+    public EvaluatorPool(File experimentDir, String memory, String seed, int size, int maxEvaluations, double maxHeapFraction)
+    {
+        mExperimentDir = experimentDir;
+        mMemory = memory;
+        mSeed = seed;
+        mMaxEvaluations = maxEvaluations;
+        mMaxHeapFraction = maxHeapFraction;
+        mAvailable = new Semaphore(size, true);
+    }
+
+    /**
+     * Starts listening for clients
+     * @return The port that clients should connect to.
+     */
+    public int start()
+    {
+        try
+        {
+            mServer = new ServerSocket(0, 50, InetAddress.getByName(null));
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("Failed to open the evaluator pool socket", e);
+        }
+
+        mAcceptThread = new Thread("EvaluatorPool-accept"){
+            public void run()
+            {
+                while(!mStopped)
+                {
+                    try
+                    {
+                        final Socket client = mServer.accept();
+                        Thread handler = new Thread("EvaluatorPool-request"){
+                            public void run()
+                            {
+                                handleClient(client);
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                    catch(IOException e)
+                    {
+                        if(!mStopped)
+                            log.error("Evaluator pool failed to accept a client", e);
+                    }
+                }
+            }
+        };
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+
+        //Make sure that the workers don't outlive us
+        Runtime.getRuntime().addShutdownHook(new Thread(){
+            public void run()
+            {
+                EvaluatorPool.this.stop();
+            }
+        });
+
+        log.debug("Evaluator pool listening on port {}", mServer.getLocalPort());
+        return mServer.getLocalPort();
+    }
+
+    /**
+     * Shuts down the listener and kills all the workers
+     */
+    public void stop()
+    {
+        mStopped = true;
+        try
+        {
+            if(mServer != null)
+                mServer.close();
+        }
+        catch(IOException e)
+        {
+            log.debug("Failed to close the evaluator pool socket", e);
+        }
+        synchronized(mAllWorkers)
+        {
+            for(Worker w: mAllWorkers)
+                w.proc.destroy();
+            mAllWorkers.clear();
+        }
+    }
+
+    /*
+     * Relays a single evaluation from the client to a worker and back again
+     */
+    private void handleClient(final Socket client)
+    {
+        Worker worker = null;
+        boolean acquired = false;
+        try
+        {
+            BufferedReader clientIn = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+            Writer clientOut = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), "UTF-8"));
+            String request = clientIn.readLine();
+            if(request == null)
+                return;
+
+            mAvailable.acquire();
+            acquired = true;
+            worker = mIdleWorkers.poll();
+            if(worker == null)
+                worker = startWorker();
+
+            //If SMAC kills the client then whatever the worker is doing is of no use to anyone
+            final Worker busyWorker = worker;
+            final AtomicBoolean finished = new AtomicBoolean(false);
+            final InputStream clientHangup = client.getInputStream();
+            Thread watcher = new Thread("EvaluatorPool-watcher"){
+                public void run()
+                {
+                    try
+                    {
+                        while(clientHangup.read() >= 0) {}
+                    }
+                    catch(IOException e)
+                    {
+                        //Socket was closed under us
+                    }
+                    if(!finished.get())
+                    {
+                        log.debug("Evaluator pool client went away, killing its worker");
+                        busyWorker.proc.destroy();
+                    }
+                }
+            };
+            watcher.setDaemon(true);
+
+            worker.stdin.write(request + "\n");
+            worker.stdin.flush();
+            watcher.start();
+
+            boolean recycle = true;
+            String line;
+            while((line = worker.stdout.readLine()) != null)
+            {
+                if(line.startsWith(DONE_MARKER))
+                {
+                    String[] parts = line.split(" ");
+                    int exitCode = Integer.parseInt(parts[1]);
+                    double heapFraction = Double.parseDouble(parts[2]) / Double.parseDouble(parts[3]);
+                    worker.evaluations++;
+                    boolean dirty = Boolean.parseBoolean(parts[4]);
+                    recycle = exitCode != 0 || dirty || worker.evaluations >= mMaxEvaluations || heapFraction > mMaxHeapFraction;
+                    clientOut.write(DONE_MARKER + " " + exitCode + "\n");
+                    break;
+                }
+                clientOut.write(line + "\n");
+                clientOut.flush();
+            }
+            finished.set(true);
+            clientOut.flush();
+
+            if(recycle || mStopped)
+            {
+                log.debug("Recycling evaluator worker after {} evaluations", worker.evaluations);
+                retireWorker(worker);
+            }
+            else
+            {
+                mIdleWorkers.add(worker);
+            }
+            worker = null;
+        }
+        catch(Exception e)
+        {
+            if(!mStopped)
+                log.error("Evaluator pool request failed", e);
+            if(worker != null)
+                retireWorker(worker);
+        }
+        finally
+        {
+            if(acquired)
+                mAvailable.release();
+            try
+            {
+                client.close();
+            }
+            catch(IOException e)
+            {
+                log.debug("Failed to close client socket", e);
+            }
+        }
+    }
+
+    /**
+     * Packs up a list of command line arguments into a single line that can be sent to the pool
+     * @param args The arguments.
+     * @return The encoded line.
+     */
+    public static String encodeArgs(String[] args)
+    {
+        StringBuilder sb = new StringBuilder();
+        try
+        {
+            for(String arg: args)
+            {
+                if(sb.length() > 0)
+                    sb.append(" ");
+                sb.append(URLEncoder.encode(arg, "UTF-8"));
+            }
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            throw new RuntimeException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Unpacks a line created by encodeArgs
+     * @param line The encoded line.
+     * @return The arguments.
+     */
+    public static String[] decodeArgs(String line)
+    {
+        if(line.trim().isEmpty())
+            return new String[0];
+        String[] args = line.trim().split(" ");
+        try
+        {
+            for(int i = 0; i < args.length; i++)
+                args[i] = URLDecoder.decode(args[i], "UTF-8");
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            throw new RuntimeException(e);
+        }
+        return args;
+    }
+
+    private Worker startWorker() throws IOException
+    {
+        List<String> args = new ArrayList<String>();
+        args.add(Util.getJavaExecutable());
+        args.add("-Dautoweka.infinity=" + ClassifierResult.getInfinity());
+        if(mMemory != null)
+            args.add("-Xmx" + mMemory);
+        args.add("-cp");
+        args.add(Util.getAbsoluteClasspath());
+        args.add("autoweka.smac.SMACPoolWorker");
+
+        ProcessBuilder pb = new ProcessBuilder(args);
+        pb.directory(mExperimentDir);
+        pb.redirectErrorStream(true);
+        pb.environment().put("AUTOWEKA_EXPERIMENT_SEED", mSeed);
+
+        Worker worker = new Worker();
+        worker.proc = pb.start();
+        worker.stdin = new BufferedWriter(new OutputStreamWriter(worker.proc.getOutputStream(), "UTF-8"));
+        worker.stdout = new BufferedReader(new InputStreamReader(worker.proc.getInputStream(), "UTF-8"));
+        synchronized(mAllWorkers)
+        {
+            mAllWorkers.add(worker);
+        }
+        return worker;
+    }
+
+    private void retireWorker(Worker worker)
+    {
+        worker.proc.destroy();
+        synchronized(mAllWorkers)
+        {
+            mAllWorkers.remove(worker);
+        }
+    }
+
+    private static class Worker
+    {
+        public Process proc;
+        public Writer stdin;
+        public BufferedReader stdout;
+        public int evaluations = 0;
+    }
+}
@@ -0,0 +1,393 @@
+package autoweka;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Machine readable channel that the processes of a run use to tell whoever started them about evaluations, new incumbents and errors, so that
+ * nothing has to go digging through their log output for it.
+ *
+ * Whoever wants the events starts a Server, which listens on a loopback port, and puts that port in the environment of the process that it
+ * starts (see PORT_ENV_VARIABLE). Everything down the process tree inherits it, and calls to send go straight to the server - when the
+ * variable isn't set send doesn't do anything, so the wrappers can be run on their own the same as always. Anything in the middle that wants
+ * to hear from its own children (like the SubProcessWrapper) just starts its own server and puts that port in their environment instead.
+ *
+ * Each event is a small binary record: the type, the experiment seed, the score, the time, whether the run completed and one string (the
+ * argument string for evaluations and incumbents, the message for errors).
+ */
+public class EventChannel
+{
+    final static Logger log = LoggerFactory.getLogger(EventChannel.class);
+
+    /**
+     * The environment variable that tells a process where to send its events
+     */
+    public static final String PORT_ENV_VARIABLE = "AUTOWEKA_EVENT_PORT";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    //Error messages can be whole stack traces, there's no need for all of that
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+
+    private static Client msClient = null;
+    private static boolean msClientTried = false;
+
+    /**
+     * Something that happened in a process of the run
+     */
+    public static class Event
+    {
+        /** A configuration was evaluated, the text is its argument string */
+        public static final byte EVALUATION = 1;
+        /** The optimizer has a new incumbent, the text is its argument string */
+        public static final byte INCUMBENT = 2;
+        /** The estimate of how the final incumbent does on the test set */
+        public static final byte FINAL_ESTIMATE = 3;
+        /** Something went wrong, the text is the message */
+        public static final byte ERROR = 4;
+
+        public final byte type;
+        public final String seed;
+        public final double score;
+        public final double time;
+        public final boolean completed;
+        public final String text;
+
+        public Event(byte type, String seed, double score, double time, boolean completed, String text)
+        {
+            this.type = type;
+            this.seed = seed;
+            this.score = score;
+            this.time = time;
+            this.completed = completed;
+            this.text = text;
+        }
+
+        public static Event evaluation(String seed, double score, double time, boolean completed, String args)
+        {
+            return new Event(EVALUATION, seed, score, time, completed, args);
+        }
+
+        public static Event incumbent(String seed, double score, double time, String args)
+        {
+            return new Event(INCUMBENT, seed, score, time, true, args);
+        }
+
+        public static Event finalEstimate(String seed, double score)
+        {
+            return new Event(FINAL_ESTIMATE, seed, score, 0, true, null);
+        }
+
+        public static Event error(String seed, String message)
+        {
+            if(message != null && message.length() > MAX_MESSAGE_LENGTH)
+                message = message.substring(0, MAX_MESSAGE_LENGTH);
+            return new Event(ERROR, seed, 0, 0, false, message);
+        }
+
+        void write(DataOutputStream out) throws IOException
+        {
+            out.writeByte(type);
+            writeString(out, seed);
+            out.writeDouble(score);
+            out.writeDouble(time);
+            out.writeBoolean(completed);
+            writeString(out, text);
+        }
+
+        static Event read(DataInputStream in) throws IOException
+        {
+            byte type = in.readByte();
+            String seed = readString(in);
+            double score = in.readDouble();
+            double time = in.readDouble();
+            boolean completed = in.readBoolean();
+            return new Event(type, seed, score, time, completed, readString(in));
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Event(" + type + ", " + seed + ", " + score + ", " + time + ", " + completed + ", " + text + ")";
+        }
+    }
+
+    /**
+     * Gets told about each event that reaches a server
+     *
+     * This gets called from the thread that's reading the connection the event came in on, so it has to be thread safe if more than one
+     * process can be sending events.
+     */
+    public static interface Listener
+    {
+        public void onEvent(Event event);
+    }
+
+    /**
+     * Sends an event to the server that was named in our environment
+     * @param event The event.
+     * @return True if it was sent, false if there's nobody listening.
+     */
+    public static synchronized boolean send(Event event)
+    {
+        if(!msClientTried)
+        {
+            msClientTried = true;
+            String port = System.getenv(PORT_ENV_VARIABLE);
+            if(port != null)
+            {
+                try
+                {
+                    msClient = new Client(Integer.parseInt(port));
+                }
+                catch(Exception e)
+                {
+                    log.debug("Failed to connect to event channel on port {}: {}", port, e.getMessage());
+                }
+            }
+        }
+        if(msClient == null)
+            return false;
+
+        try
+        {
+            msClient.send(event);
+            return true;
+        }
+        catch(IOException e)
+        {
+            //The server's gone, there's no point in trying again
+            log.debug("Failed to send event: {}", e.getMessage());
+            msClient.close();
+            msClient = null;
+            return false;
+        }
+    }
+
+    /**
+     * A connection to a server, each send goes out straight away
+     */
+    public static class Client
+    {
+        private Socket mSocket;
+        private DataOutputStream mOut;
+
+        public Client(int port) throws IOException
+        {
+            mSocket = new Socket(InetAddress.getLoopbackAddress(), port);
+            mSocket.setTcpNoDelay(true);
+            mOut = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream()));
+        }
+
+        public synchronized void send(Event event) throws IOException
+        {
+            event.write(mOut);
+            mOut.flush();
+        }
+
+        public synchronized void close()
+        {
+            try
+            {
+                mSocket.close();
+            }
+            catch(IOException e)
+            {
+                //Nothing left to do with it anyway
+            }
+        }
+    }
+
+    /**
+     * Listens for events on a loopback port, and hands them over to a Listener
+     */
+    public static class Server
+    {
+        private Listener mListener;
+        private ServerSocket mServer = null;
+        private Thread mAcceptThread = null;
+        private List<Thread> mReaders = new ArrayList<Thread>();
+        private List<Socket> mConnections = new ArrayList<Socket>();
+        private volatile boolean mStopping = false;
+        private volatile int mWakePort = -1;
+
+        public Server(Listener listener)
+        {
+            mListener = listener;
+        }
+
+        /**
+         * Starts listening
+         * @return The port, which should go in the PORT_ENV_VARIABLE of the processes that have to send events here.
+         * @throws IOException if the port couldn't be opened.
+         */
+        public int start() throws IOException
+        {
+            mServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            mAcceptThread = new Thread(new Runnable(){
+                public void run()
+                {
+                    while(true)
+                    {
+                        try
+                        {
+                            Socket socket = mServer.accept();
+                            //Connections come off the backlog in order, so once stop's own one turns up everything before it has been accepted
+                            if(mStopping && socket.getPort() == mWakePort)
+                            {
+                                socket.close();
+                                break;
+                            }
+                            startReader(socket);
+                        }
+                        catch(IOException e)
+                        {
+                            log.debug("Event channel failed to accept connection: {}", e.getMessage());
+                            if(mServer.isClosed())
+                                break;
+                        }
+                    }
+                }
+            }, "EventChannel-accept");
+            mAcceptThread.setDaemon(true);
+            mAcceptThread.start();
+            return mServer.getLocalPort();
+        }
+
+        /**
+         * Stops listening, once everything that was already sent has been handed over.
+         *
+         * Call this after the processes that send events have finished - their connections get a little while to be read to the end, and
+         * then they're cut off.
+         */
+        public void stop()
+        {
+            try
+            {
+                //Anything that connected before now still gets accepted
+                Socket wake = new Socket();
+                wake.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                mWakePort = wake.getLocalPort();
+                mStopping = true;
+                wake.connect(mServer.getLocalSocketAddress());
+                mAcceptThread.join();
+                wake.close();
+                mServer.close();
+                List<Thread> readers;
+                synchronized(this)
+                {
+                    readers = new ArrayList<Thread>(mReaders);
+                }
+                for(Thread t: readers)
+                    t.join(1000);
+                synchronized(this)
+                {
+                    for(Socket s: mConnections)
+                        s.close();
+                }
+                for(Thread t: readers)
+                    t.join();
+            }
+            catch(Exception e)
+            {
+                log.debug("Failed to stop event channel cleanly: {}", e.getMessage());
+                try
+                {
+                    mServer.close();
+                }
+                catch(IOException ex)
+                {
+                    //Nothing left to do with it anyway
+                }
+            }
+        }
+
+        /*
+         * Gets how many connections are still being read from
+         */
+        synchronized int getNumConnections()
+        {
+            return mConnections.size();
+        }
+
+        private synchronized void startReader(final Socket socket)
+        {
+            Thread reader = new Thread(new Runnable(){
+                public void run()
+                {
+                    try
+                    {
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                        while(true)
+                            mListener.onEvent(Event.read(in));
+                    }
+                    catch(EOFException e)
+                    {
+                        //They're done
+                    }
+                    catch(IOException e)
+                    {
+                        if(!socket.isClosed())
+                            log.debug("Event channel connection failed: {}", e.getMessage());
+                    }
+                    finally
+                    {
+                        try
+                        {
+                            socket.close();
+                        }
+                        catch(IOException e)
+                        {
+                            //Nothing left to do with it anyway
+                        }
+                        //Every evaluation connects on its own, so the finished ones can't be kept around for the whole search
+                        synchronized(Server.this)
+                        {
+                            mReaders.remove(Thread.currentThread());
+                            mConnections.remove(socket);
+                        }
+                    }
+                }
+            }, "EventChannel-reader");
+            reader.setDaemon(true);
+            mReaders.add(reader);
+            mConnections.add(socket);
+            reader.start();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        if(s == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if(length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -11,6 +11,12 @@ import java.io.BufferedWriter;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +27,10 @@ public class Experiment extends XmlSerializable
 {
     final transient static Logger log = LoggerFactory.getLogger(Experiment.class);
 
+    //What the optimizer says about the final incumbent once it's done
+    private static final String FINAL_ESTIMATE_MARKER = "Estimated mean quality of final incumbent config";
+    private static final Pattern msFinalEstimatePattern = Pattern.compile(".*Estimated mean quality of final incumbent config .* on test set: (-?[0-9.]+).*");
+
     /**
      * The name of the experiment, designed to be human readable and contain useful ID information
      */
@@ -254,6 +264,20 @@ public class Experiment extends XmlSerializable
             }
             //Set the experiment seed variable
             env.put("AUTOWEKA_EXPERIMENT_SEED", seed);
+
+            Properties extraProps = Util.parsePropertyString(exp.extraPropsString);
+
+            //Start up the warm evaluators if we've been asked to
+            EvaluatorPool pool = EvaluatorPool.create(exp, experiment.getParentFile(), seed);
+            if(pool != null)
+            {
+                env.put(EvaluatorPool.PORT_ENV_VARIABLE, "" + pool.start());
+            }
+
+            //Remember where the result cache was at, so that we can say how much it helped this run
+            ResultCache resultCache = ResultCache.get(extraProps);
+            long[] resultCacheStats = resultCache != null ? resultCache.getStats() : null;
+
             Util.makePath(experiment.getParentFile() + File.separator + "out" + File.separator + "logs");
             Util.makePath(experiment.getParentFile() + File.separator + "out" + File.separator + "runstamps");
 
@@ -266,37 +290,88 @@ public class Experiment extends XmlSerializable
             //Register a shutdown hook
             Runtime.getRuntime().addShutdownHook(new Util.ProcessKillerShutdownHook(proc));
 
+            //Follow the trajectory as it gets written, so that there's next to nothing left to parse once the run is done
+            //and tell whoever is listening about each new incumbent along the way
+            final TrajectoryParser.Tail tail = TrajectoryParser.create(exp).createTail(exp, expFolder, seed);
+            final CountDownLatch stopWatching = new CountDownLatch(1);
+            final AtomicInteger incumbentsSent = new AtomicInteger(0);
+            final String watchedSeed = seed;
+            Thread watcher = null;
+            if(tail != null)
+            {
+                final long interval = Long.parseLong(extraProps.getProperty("trajectoryPollInterval", "5"));
+                watcher = new Thread(new Runnable(){
+                    public void run()
+                    {
+                        try
+                        {
+                            while(!stopWatching.await(interval, TimeUnit.SECONDS))
+                            {
+                                if(tail.poll() > 0)
+                                {
+                                    log.debug("Trajectory has {} points after {} evaluations", tail.getTrajectory().getPoints().size(), tail.getTrajectory().getNumEvaluations());
+                                    sendIncumbents(tail.getTrajectory(), watchedSeed, incumbentsSent);
+                                }
+                            }
+                        }
+                        catch(InterruptedException e)
+                        {
+                            //Time to stop
+                        }
+                        catch(RuntimeException e)
+                        {
+                            //It'll come up again when the final poll happens
+                            log.debug("Failed to follow trajectory: {}", e.getMessage());
+                        }
+                    }
+                }, "TrajectoryWatcher");
+                watcher.setDaemon(true);
+                watcher.start();
+            }
+
             String line;
             BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-            BufferedWriter logOutput = new BufferedWriter(new FileWriter(experiment.getParentFile() + File.separator + "out" + File.separator + "logs" + File.separator + seed + ".log"));
+            //The full output of the optimizer only goes to disk if it's wanted, and never holds up the reading of it
+            AsyncLogWriter logOutput = null;
+            if(Boolean.parseBoolean(extraProps.getProperty("experimentLog", "true")))
+                logOutput = new AsyncLogWriter(new BufferedWriter(new FileWriter(experiment.getParentFile() + File.separator + "out" + File.separator + "logs" + File.separator + seed + ".log")), "ExperimentLog-" + seed);
 
             while ((line = reader.readLine ()) != null) {
                 // fix nested logging...
-                if(line.matches(".*Result for ParamILS:.*")) {
-                    log.debug(line);
-                } else if(line.matches(".*autoweka.smac.SMACWrapper.*")) {
-                    log.debug(line);
-                } else if(line.matches(".*Sample call for new incumbent.*")) {
-                    log.debug(line);
-                } else if(line.matches(".*DEBUG.*")) {
-                    log.debug(line);
-                } else if(line.matches(".*INFO.*")) {
-                    log.info(line);
-                } else if(line.matches(".*WARN.*")) {
-                    log.warn(line);
-                } else if(line.matches(".*ERROR.*")) {
-                    log.error(line);
-                } else if(line.matches(".*Estimated mean quality of final incumbent config.*")) {
+                if(line.indexOf(FINAL_ESTIMATE_MARKER) >= 0) {
                     System.out.println(line);
+                    Matcher m = msFinalEstimatePattern.matcher(line);
+                    if(m.matches())
+                        EventChannel.send(EventChannel.Event.finalEstimate(seed, Double.parseDouble(m.group(1))));
+                } else if(line.indexOf("Result for ParamILS:") >= 0 || line.indexOf("autoweka.smac.SMACWrapper") >= 0 || line.indexOf("Sample call for new incumbent") >= 0) {
+                    log.debug(line);
                 } else {
-                    log.info(line);
+                    Util.logChildOutput(log, line);
                 }
-                logOutput.write(line + "\n");
-                logOutput.flush();
+                if(logOutput != null)
+                    logOutput.writeLine(line);
             }
+            if(logOutput != null)
+                logOutput.close();
+
+            if(pool != null)
+                pool.stop();
+            if(resultCache != null)
+                log.info("Result cache: {}", ResultCache.describeStats(resultCacheStats, resultCache.getStats()));
 
             //And we might as well do the trajectory parse
-            TrajectoryParser.main(new String[]{"-single", URLDecoder.decode(expFolder.getAbsolutePath()), seed});
+            if(tail != null)
+            {
+                stopWatching.countDown();
+                watcher.join();
+                tail.poll();
+                sendIncumbents(tail.getTrajectory(), seed, incumbentsSent);
+                TrajectoryParser.saveTrajectory(URLDecoder.decode(expFolder.getAbsolutePath()), seed, tail.getTrajectory());
+            }
+            else
+            {
+                TrajectoryParser.main(new String[]{"-single", URLDecoder.decode(expFolder.getAbsolutePath()), seed});
+            }
 
             if(!noExit)
                 System.exit(proc.waitFor());
@@ -304,10 +379,25 @@ public class Experiment extends XmlSerializable
         catch(Exception e)
         {
             log.error(e.getMessage(), e);
+            EventChannel.send(EventChannel.Event.error(seed, e.toString()));
             System.exit(1);
         }
     }
 
+    /*
+     * Sends an incumbent event for each point of the trajectory that hasn't had one yet
+     */
+    private static void sendIncumbents(Trajectory traj, String seed, AtomicInteger sent)
+    {
+        List<Trajectory.Point> points = traj.getPoints();
+        for(int i = sent.get(); i < points.size(); i++)
+        {
+            Trajectory.Point point = points.get(i);
+            EventChannel.send(EventChannel.Event.incumbent(seed, point.mErrorEstimate, point.mTime, point.mArgs));
+        }
+        sent.set(Math.max(sent.get(), points.size()));
+    }
+
     public static Experiment createFromFolder(File folder)
     {
         File experiment = new File(URLDecoder.decode(folder.getAbsolutePath()) + File.separator + folder.getName() + ".experiment");
@@ -235,6 +235,25 @@ public abstract class ExperimentConstructor
 
         //Generate all the stuff that needs to be created alongside the experiment file
         String absExperimentDir = URLDecoder.decode(new File(mExperimentPath + File.separator + mExperiment.name + File.separator).getAbsolutePath()) + File.separator;
+
+        //Write the dataset out in a form that the wrappers can just map in, rather than having to parse it each time
+        Properties extraProps = Util.parsePropertyString(mExperiment.extraPropsString);
+        if(Boolean.parseBoolean(extraProps.getProperty("datasetCache", "false")))
+        {
+            File cacheFile = new File(absExperimentDir + mExperiment.name + ".dataset");
+            if(mInstanceGenerator.writeBinaryCache(cacheFile))
+            {
+                Properties datasetProps = new Properties();
+                datasetProps.setProperty("type", "binaryCache");
+                datasetProps.setProperty("cacheFile", cacheFile.getAbsolutePath());
+                mExperiment.datasetString = Util.propertiesToString(datasetProps);
+            }
+            else
+            {
+                log.warn("Dataset contains sparse instances, not writing a binary cache for it");
+            }
+        }
+
         prepareExperiment(absExperimentDir);
 
         //Populate the experiment object
@@ -254,6 +273,9 @@ public abstract class ExperimentConstructor
         props.setProperty("datasetString", mExperiment.datasetString);
         props.setProperty("instanceGenerator", mExperiment.instanceGenerator);
         props.setProperty("resultMetric", mExperiment.resultMetric);
+        props.setProperty("experimentDir", URLDecoder.decode(new File(mExperimentPath + File.separator + mExperiment.name).getAbsolutePath()));
+        if(mExperiment.memory != null)
+            props.setProperty("memory", mExperiment.memory);
 
         /*
         if(mExperiment.regularizer != null)
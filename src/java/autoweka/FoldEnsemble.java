@@ -0,0 +1,193 @@
+package autoweka;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.filters.unsupervised.attribute.Remove;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The models that one configuration trained on each of the cross validation folds during the search, put together so that they vote.
+ *
+ * When the 'foldEnsemble' property is set, the ClassifierRunner keeps the model from every fold that it finishes under
+ * FOLD_MODEL_DIR/seed/config hash/ in the experiment folder, along with the attributes that its attribute selection kept. Once the search is done,
+ * the models of the winning configuration can be loaded up with load, and their distributions get averaged - which means that there's no need to
+ * run the attribute selection and train the classifier all over again on the full dataset.
+ */
+public class FoldEnsemble extends AbstractClassifier
+{
+    static final long serialVersionUID = 4927015283364271943L;
+    final static Logger log = LoggerFactory.getLogger(FoldEnsemble.class);
+
+    /**
+     * The folder (inside the experiment folder) that the fold models go in
+     */
+    public static final String FOLD_MODEL_DIR = "FoldModels";
+
+    private List<Member> mMembers = new ArrayList<Member>();
+
+    /*
+     * A model from one fold, and the projection of the attributes that it was trained on (null if it had them all)
+     */
+    private static class Member implements Serializable
+    {
+        static final long serialVersionUID = -2384105719364020871L;
+
+        private Remove mProjection;
+        private Classifier mClassifier;
+
+        public Member(Remove projection, Classifier classifier)
+        {
+            mProjection = projection;
+            mClassifier = classifier;
+        }
+
+        //The filter keeps state, so only one instance can go through it at a time
+        public synchronized Instance project(Instance instance) throws Exception
+        {
+            if(mProjection == null)
+                return instance;
+            mProjection.input(instance);
+            mProjection.batchFinished();
+            return mProjection.output();
+        }
+    }
+
+    /**
+     * Gets the folder that the fold models of a configuration go in
+     * @param seed The seed of the run.
+     * @param args The arguments of the configuration, in any order.
+     * @return The folder, relative to the experiment folder.
+     */
+    public static String getFoldModelDir(String seed, List<String> args)
+    {
+        return FOLD_MODEL_DIR + File.separator + seed + File.separator + Util.hashString(ResultCache.getCanonicalArgs(args));
+    }
+
+    /**
+     * Saves the model that was trained on one fold
+     * @param dir The folder from getFoldModelDir.
+     * @param instanceStr The instance string of the fold, which names the model.
+     * @param header The training data, from before any attribute selection.
+     * @param selectedAttributes The attributes that the attribute selection kept, or null if there wasn't one.
+     * @param classifier The trained classifier.
+     * @throws Exception if the model couldn't be written.
+     */
+    public static void saveFold(String dir, String instanceStr, Instances header, int[] selectedAttributes, Classifier classifier) throws Exception
+    {
+        Remove projection = null;
+        if(selectedAttributes != null)
+        {
+            projection = new Remove();
+            projection.setAttributeIndicesArray(selectedAttributes);
+            projection.setInvertSelection(true);
+            projection.setInputFormat(new Instances(header, 0));
+        }
+
+        File folder = new File(dir);
+        folder.mkdirs();
+        //Written somewhere else first, so that a run that gets killed part way through doesn't leave half a model behind
+        File model = new File(folder, Util.hashString(instanceStr) + ".model");
+        File partial = new File(folder, model.getName() + ".part");
+        weka.core.SerializationHelper.write(partial.getPath(), new Member(projection, classifier));
+        if(!partial.renameTo(model))
+        {
+            model.delete();
+            if(!partial.renameTo(model))
+                throw new RuntimeException("Failed to move fold model to " + model.getPath());
+        }
+    }
+
+    /**
+     * Loads up the fold models of a configuration
+     * @param experimentDir The experiment folder.
+     * @param seed The seed of the run that evaluated it.
+     * @param argString The argument string of the configuration, like the ones in the trajectories.
+     * @return The ensemble, or null if no fold models were saved for it.
+     */
+    public static FoldEnsemble load(String experimentDir, String seed, String argString)
+    {
+        File folder = new File(experimentDir, getFoldModelDir(seed, Arrays.asList(argString.trim().split(" "))));
+        File[] models = folder.listFiles();
+        if(models == null)
+            return null;
+        Arrays.sort(models);
+
+        FoldEnsemble ensemble = new FoldEnsemble();
+        for(File model: models)
+        {
+            if(!model.getName().endsWith(".model"))
+                continue;
+            try
+            {
+                ensemble.mMembers.add((Member)weka.core.SerializationHelper.read(model.getPath()));
+            }
+            catch(Exception e)
+            {
+                log.warn("Failed to load fold model {}: {}", model.getPath(), e.getMessage());
+            }
+        }
+        if(ensemble.mMembers.isEmpty())
+            return null;
+        log.debug("Loaded {} fold models from {}", ensemble.mMembers.size(), folder.getPath());
+        return ensemble;
+    }
+
+    /**
+     * Gets how many fold models are voting
+     * @return The number of models.
+     */
+    public int getNumMembers()
+    {
+        return mMembers.size();
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception
+    {
+        throw new Exception("A FoldEnsemble is made out of the models from a search, it can't be trained");
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception
+    {
+        boolean numeric = instance.classAttribute().isNumeric();
+        double[] dist = new double[numeric ? 1 : instance.numClasses()];
+        for(Member m: mMembers)
+        {
+            Instance projected = m.project(instance);
+            if(numeric)
+            {
+                dist[0] += m.mClassifier.classifyInstance(projected);
+            }
+            else
+            {
+                double[] memberDist = m.mClassifier.distributionForInstance(projected);
+                for(int i = 0; i < dist.length; i++)
+                    dist[i] += memberDist[i];
+            }
+        }
+        for(int i = 0; i < dist.length; i++)
+            dist[i] /= mMembers.size();
+        return dist;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Average of ").append(mMembers.size()).append(" fold models\n");
+        for(int i = 0; i < mMembers.size(); i++)
+            sb.append("\n=== Fold model ").append(i).append(" ===\n").append(mMembers.get(i).mClassifier);
+        return sb.toString();
+    }
+}
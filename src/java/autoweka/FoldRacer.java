@@ -0,0 +1,254 @@
+package autoweka;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.List;
+import java.util.Properties;
+
+import weka.core.Statistics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when a configuration that's being evaluated over a number of folds can be given up on, because it can't beat the incumbent.
+ *
+ * The incumbent is the best mean score of any configuration that has finished all of its folds. It's kept in a small file in the experiment
+ * directory (guarded by a file lock, just like the ResultCache) so that every wrapper of an experiment, and every parallel run of it, races
+ * against the same score.
+ *
+ * After each fold, two tests get applied:
+ *   - The bound test: even if every remaining fold got the best score the metric allows, the mean would still be worse than the incumbent.
+ *     This is always safe - a configuration that gets rejected by it could never have won.
+ *   - The t-test: a one sided test that the configuration's true mean is worse than the incumbent, at the 'racingAlpha' level. This only gets
+ *     used if 'racingAlpha' is greater than zero, and only once 'racingMinFolds' folds are in.
+ *
+ * Racing gets turned on by setting the 'racing' property to 'true'. The incumbent file can be moved with 'racingIncumbentFile'.
+ *
+ * If the optimizer gave a quality cap, the configuration has to get under that as well - this works even if racing is turned off. The racer
+ * also hands out a cap for each fold, so that the fold's evaluation can stop as soon as it's clear the mean won't get under the target.
+ */
+public class FoldRacer
+{
+    final static Logger log = LoggerFactory.getLogger(FoldRacer.class);
+
+    private File mIncumbentFile;
+    private int mNumFolds;
+    private double mBestPossible;
+    private double mAlpha;
+    private int mMinFolds;
+    private double mIncumbent = Double.POSITIVE_INFINITY;
+    private double mQualityCap = Double.POSITIVE_INFINITY;
+
+    /**
+     * Creates the racer that the given properties ask for
+     * @param props The wrapper properties.
+     * @param metric The metric that the folds are scored on.
+     * @param numFolds How many folds make up a full evaluation.
+     * @param qualityCap The mean score that the optimizer wants the configuration to get under, or infinity if it doesn't care.
+     * @return The racer, or null if racing isn't turned on and there's no cap.
+     */
+    public static FoldRacer create(Properties props, String metric, int numFolds, double qualityCap)
+    {
+        boolean racing = Boolean.parseBoolean(props.getProperty("racing", "false"));
+        if(!racing && Double.isInfinite(qualityCap))
+            return null;
+        return new FoldRacer(racing ? new File(props.getProperty("racingIncumbentFile", "racing.incumbent")) : null,
+                             new ClassifierResult(metric).getBestPossibleScore(), numFolds,
+                             Double.parseDouble(props.getProperty("racingAlpha", "0")),
+                             Integer.parseInt(props.getProperty("racingMinFolds", "3")), qualityCap);
+    }
+
+    FoldRacer(File incumbentFile, double bestPossible, int numFolds, double alpha, int minFolds)
+    {
+        this(incumbentFile, bestPossible, numFolds, alpha, minFolds, Double.POSITIVE_INFINITY);
+    }
+
+    FoldRacer(File incumbentFile, double bestPossible, int numFolds, double alpha, int minFolds, double qualityCap)
+    {
+        mIncumbentFile = incumbentFile;
+        mBestPossible = bestPossible;
+        mNumFolds = numFolds;
+        mAlpha = alpha;
+        mMinFolds = Math.max(2, minFolds);
+        mQualityCap = qualityCap;
+        if(mIncumbentFile != null)
+            mIncumbent = readIncumbent();
+        log.debug("Racing against an incumbent of {} with a cap of {}", mIncumbent, mQualityCap);
+    }
+
+    /**
+     * Gets the score that we're racing against
+     * @return The incumbent's mean score, or infinity if nothing has finished yet.
+     */
+    public double getIncumbent()
+    {
+        return mIncumbent;
+    }
+
+    /**
+     * Gets the mean score that a configuration has to beat, which is the incumbent or the quality cap, whichever is lower
+     * @return The target.
+     */
+    public double getTarget()
+    {
+        return Math.min(mIncumbent, mQualityCap);
+    }
+
+    /**
+     * Checks to see if a configuration can be rejected given the folds that it's done so far
+     * @param foldScores The scores of the folds that have been done.
+     * @return True if it can't beat the target.
+     */
+    public boolean canReject(List<Double> foldScores)
+    {
+        int k = foldScores.size();
+        double target = getTarget();
+        if(k == 0 || k >= mNumFolds || Double.isInfinite(target))
+            return false;
+
+        double sum = 0;
+        for(double score: foldScores)
+            sum += score;
+
+        //Nothing will let the remaining folds do better than the best possible score
+        if(!Double.isInfinite(mBestPossible) && (sum + (mNumFolds - k) * mBestPossible) / mNumFolds > target)
+        {
+            log.debug("Rejected after {} folds, can't get below {}", k, target);
+            return true;
+        }
+
+        if(mAlpha <= 0 || k < mMinFolds)
+            return false;
+
+        double mean = sum / k;
+        if(mean <= target)
+            return false;
+
+        double variance = 0;
+        for(double score: foldScores)
+            variance += (score - mean) * (score - mean);
+        variance /= (k - 1);
+        if(variance <= 0)
+        {
+            log.debug("Rejected after {} folds, every fold was worse than {}", k, target);
+            return true;
+        }
+
+        double t = (mean - target) / Math.sqrt(variance / k);
+        double df = k - 1;
+        double p = 0.5 * Statistics.incompleteBeta(df / 2, 0.5, df / (df + t * t));
+        if(p < mAlpha)
+        {
+            log.debug("Rejected after {} folds, mean of {} is worse than {} (p={})", k, mean, target, p);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Works out the quality cap for the next fold, so that it can stop as soon as it's clear that the mean over all the folds won't get under the target
+     * @param foldScores The scores of the folds that have been done.
+     * @return The cap, or infinity if the fold can't be capped.
+     */
+    public double getFoldCap(List<Double> foldScores)
+    {
+        double target = getTarget();
+        if(Double.isInfinite(target) || Double.isInfinite(mBestPossible))
+            return Double.POSITIVE_INFINITY;
+        double sum = 0;
+        for(double score: foldScores)
+            sum += score;
+        //Assume that every other fold that's left gets the best possible score
+        return mNumFolds * target - sum - (mNumFolds - foldScores.size() - 1) * mBestPossible;
+    }
+
+    /**
+     * Tells the racer about a configuration that made it through all the folds, so that it can become the incumbent if it's better
+     * @param score The mean score over all of the folds.
+     */
+    public void offer(double score)
+    {
+        if(mIncumbentFile == null || Double.isNaN(score) || score >= mIncumbent)
+            return;
+        try
+        {
+            RandomAccessFile raf = open();
+            try
+            {
+                FileLock lock = raf.getChannel().lock();
+                try
+                {
+                    //Someone else might have got in first with something better
+                    double current = readIncumbent(raf);
+                    if(score < current)
+                    {
+                        raf.setLength(0);
+                        raf.writeDouble(score);
+                        current = score;
+                    }
+                    mIncumbent = current;
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch(IOException e)
+        {
+            log.warn("Failed to update racing incumbent {}: {}", mIncumbentFile, e.getMessage());
+        }
+    }
+
+    private double readIncumbent()
+    {
+        try
+        {
+            RandomAccessFile raf = open();
+            try
+            {
+                FileLock lock = raf.getChannel().lock();
+                try
+                {
+                    return readIncumbent(raf);
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch(IOException e)
+        {
+            log.warn("Failed to read racing incumbent {}: {}", mIncumbentFile, e.getMessage());
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+
+    private double readIncumbent(RandomAccessFile raf) throws IOException
+    {
+        if(raf.length() < 8)
+            return Double.POSITIVE_INFINITY;
+        raf.seek(0);
+        return raf.readDouble();
+    }
+
+    private RandomAccessFile open() throws IOException
+    {
+        File parent = mIncumbentFile.getAbsoluteFile().getParentFile();
+        if(parent != null)
+            parent.mkdirs();
+        return new RandomAccessFile(mIncumbentFile, "rw");
+    }
+}
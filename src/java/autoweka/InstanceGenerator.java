@@ -1,13 +1,23 @@
 package autoweka;
 
 import weka.core.converters.ConverterUtils.DataSource;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.DenseInstance;
 import weka.core.Attribute;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.Enumeration;
@@ -27,8 +37,17 @@ public abstract class InstanceGenerator
 {
     final static Logger log = LoggerFactory.getLogger(InstanceGenerator.class);
 
+    /** The folder in the experiment that index plans get persisted to */
+    public static final String INDEX_PLAN_DIR = "IndexPlans";
+
     private Instances mTraining = null;
     private Instances mTesting = null;
+    //The file that the data came from, persisted index plans older than it don't get used
+    private File mDatasetFile = null;
+    //Where index plans get persisted, if anywhere
+    private File mIndexPlanDir = null;
+    private Map<String, int[]> mIndexPlans = new HashMap<String, int[]>();
+    private String mFingerprint = null;
 
     /**
      * Clones an InstanceGenerator from another
@@ -38,6 +57,8 @@ public abstract class InstanceGenerator
     {
         mTraining = new Instances(generator.mTraining);
         mTesting  = new Instances(generator.mTesting);
+        mDatasetFile = generator.mDatasetFile;
+        mIndexPlanDir = generator.mIndexPlanDir;
     }
 
     /**
@@ -80,6 +101,8 @@ public abstract class InstanceGenerator
                 loadZipFile(props.getProperty("zipFile"), props.getProperty("classIndex", "last"));
             }else if(type.equals("trainTestArff")){
                 loadTrainTestArff(props.getProperty("trainArff"), props.getProperty("testArff"), props.getProperty("classIndex", "last"));
+            }else if(type.equals("binaryCache")){
+                loadBinaryCache(props.getProperty("cacheFile"));
             }else{
                 throw new RuntimeException("Unhandled type data set type '" + type  + "'");
             }
@@ -91,6 +114,7 @@ public abstract class InstanceGenerator
      */
     private void loadZipFile(String zipFileName, String classIndex)
     {
+        mDatasetFile = new File(zipFileName);
         InputStream trainSource = null, testSource = null;
         //The instance file is a zipped file containing a file called 'train' and one called 'test'
         try {
@@ -148,6 +172,7 @@ public abstract class InstanceGenerator
     
     private void loadTrainTestArff(String trainArff, String testArff, String classIndex)
     {
+        mDatasetFile = new File(trainArff);
         //Get the training data
         try {
             mTraining = Util.loadDataSource(new FileInputStream(trainArff));
@@ -180,6 +205,32 @@ public abstract class InstanceGenerator
         }
     }
 
+    /*
+     * Maps in the training and testing data from a DatasetCache file
+     */
+    private void loadBinaryCache(String cacheFile)
+    {
+        if(cacheFile == null)
+            throw new RuntimeException("Dataset string does not contain a cacheFile");
+        mDatasetFile = new File(cacheFile);
+        Instances[] data = DatasetCache.read(mDatasetFile);
+        mTraining = data[0];
+        mTesting = data[1];
+    }
+
+    /**
+     * Writes out the training and testing data to a binary cache file that can be used with a datasetString of 'type=binaryCache:cacheFile=...'
+     * @param cacheFile The file to write.
+     * @return False if the data can't be cached, in which case nothing is written.
+     */
+    public boolean writeBinaryCache(File cacheFile)
+    {
+        if(!DatasetCache.canCache(mTraining) || !DatasetCache.canCache(mTesting))
+            return false;
+        DatasetCache.write(cacheFile, mTraining, mTesting == mTraining ? null : mTesting);
+        return true;
+    }
+
     /**
      * Given a parameter string (generally in the form of a property string), get the training data; if params is 'default', then this method returns the raw training data
      * @param params The parameter string.
@@ -204,6 +255,26 @@ public abstract class InstanceGenerator
         return _getTestingFromParams(params);
     }
 
+    /**
+     * Like getTestingFromParams, but the instances may share their rows with the dataset (see InstancesView) so they must only be read from
+     * @param params The parameter string.
+     * @return The testing instances.
+     */
+    public final Instances getTestingViewFromParams(String params)
+    {
+        if(params.equals("default"))
+            return getTestingView();
+        return _getTestingViewFromParams(params);
+    }
+
+    /*
+     * Subclass implementation for getting a read only view of the testing data, by default this just makes a copy
+     */
+    protected Instances _getTestingViewFromParams(String params)
+    {
+        return _getTestingFromParams(params);
+    }
+
     /*
      * Subclass implementation for getting the training data given the param string
      */
@@ -231,6 +302,214 @@ public abstract class InstanceGenerator
         return new Instances(mTesting);
     }
 
+    /**
+     * Gets a view of the training data that shares its rows with the dataset, rather than copying them
+     * @return The training instances, which must only be read from.
+     */
+    public Instances getTrainingView()
+    {
+        return new InstancesView(mTraining);
+    }
+
+    /**
+     * Gets a view of the testing data that shares its rows with the dataset, rather than copying them
+     * @return The testing instances, which must only be read from.
+     */
+    public Instances getTestingView()
+    {
+        return new InstancesView(mTesting);
+    }
+
+    /**
+     * Gets a hash of the contents of the training and testing data, which is the same no matter where the data was loaded from
+     * @return The fingerprint.
+     */
+    public synchronized String getFingerprint()
+    {
+        if(mFingerprint == null)
+        {
+            try
+            {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                updateFingerprint(digest, mTraining);
+                if(mTesting != mTraining)
+                    updateFingerprint(digest, mTesting);
+                mFingerprint = Util.toHex(digest.digest());
+            }
+            catch(Exception e)
+            {
+                throw new RuntimeException("Failed to fingerprint dataset", e);
+            }
+        }
+        return mFingerprint;
+    }
+
+    private static void updateFingerprint(MessageDigest digest, Instances data) throws IOException
+    {
+        digest.update(new Instances(data, 0).toString().getBytes("UTF-8"));
+        ByteBuffer row = ByteBuffer.allocate(8 * (data.numAttributes() + 1));
+        for(int i = 0; i < data.numInstances(); i++)
+        {
+            Instance inst = data.instance(i);
+            row.clear();
+            row.putDouble(inst.weight());
+            for(int a = 0; a < data.numAttributes(); a++)
+                row.putDouble(inst.value(a));
+            digest.update(row.array(), 0, row.position());
+        }
+    }
+
+    /**
+     * Sets the experiment that this generator is working for, so that index plans can be persisted in it for other processes to pick up.
+     *
+     * Without an experiment, plans are only kept for as long as this generator is around
+     * @param experimentDir The experiment folder, or null.
+     */
+    public void setExperimentDir(File experimentDir)
+    {
+        synchronized(mIndexPlans)
+        {
+            mIndexPlanDir = experimentDir != null ? new File(experimentDir, INDEX_PLAN_DIR) : null;
+        }
+    }
+
+    /**
+     * Builds an index plan (a list of indices into the training data) for a subclass
+     */
+    protected interface IndexPlanBuilder
+    {
+        public int[] build(Instances training);
+    }
+
+    /**
+     * Gets an index plan over the training data, only calling the builder if the plan hasn't already been made in this process, or been persisted in the experiment.
+     *
+     * The name should uniquely identify the plan for this dataset (ie. contain all the seeds and percentages that go into making it)
+     * @param name The name of the plan.
+     * @param builder The builder that makes the plan if we don't have it yet.
+     * @return The indices of the plan.
+     */
+    protected int[] getIndexPlan(String name, IndexPlanBuilder builder)
+    {
+        synchronized(mIndexPlans)
+        {
+            int[] plan = findIndexPlan(name);
+            if(plan == null)
+            {
+                plan = builder.build(mTraining);
+                saveIndexPlan(name, plan);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * Looks for a plan that has already been made in this process, or been persisted in the experiment
+     * @param name The name of the plan.
+     * @return The plan, or null if nobody has made it yet.
+     */
+    protected int[] findIndexPlan(String name)
+    {
+        synchronized(mIndexPlans)
+        {
+            int[] plan = mIndexPlans.get(name);
+            if(plan != null)
+                return plan;
+
+            File planFile = getIndexPlanFile(name);
+            if(planFile != null && planFile.exists() && (mDatasetFile == null || planFile.lastModified() >= mDatasetFile.lastModified()))
+                plan = readIndexPlan(planFile);
+            if(plan != null)
+                mIndexPlans.put(name, plan);
+            return plan;
+        }
+    }
+
+    /**
+     * Remembers a plan, and persists it in the experiment if we know where that is
+     * @param name The name of the plan.
+     * @param plan The plan.
+     */
+    protected void saveIndexPlan(String name, int[] plan)
+    {
+        synchronized(mIndexPlans)
+        {
+            File planFile = getIndexPlanFile(name);
+            if(planFile != null)
+                writeIndexPlan(planFile, plan);
+            mIndexPlans.put(name, plan);
+        }
+    }
+
+    private File getIndexPlanFile(String name)
+    {
+        if(mIndexPlanDir == null)
+            return null;
+        return new File(mIndexPlanDir, name + "-" + mTraining.numInstances() + ".idx");
+    }
+
+    private int[] readIndexPlan(File planFile)
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(planFile), 1 << 16));
+            int[] plan = new int[in.readInt()];
+            for(int i = 0; i < plan.length; i++)
+                plan[i] = in.readInt();
+            in.close();
+            return plan;
+        }
+        catch(IOException e)
+        {
+            log.debug("Failed to read index plan {}", planFile, e);
+            return null;
+        }
+    }
+
+    private void writeIndexPlan(File planFile, int[] plan)
+    {
+        //Write to a temp file first, since other wrappers may be reading the plan at the same time
+        try
+        {
+            planFile.getParentFile().mkdirs();
+            File tmpFile = File.createTempFile(planFile.getName(), ".tmp", planFile.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+            out.writeInt(plan.length);
+            for(int i: plan)
+                out.writeInt(i);
+            out.close();
+            if(!tmpFile.renameTo(planFile))
+                tmpFile.delete();
+        }
+        catch(IOException e)
+        {
+            log.warn("Failed to write index plan {}: {}", planFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Makes a new set of instances containing the given rows of the training data
+     * @param indices The indices of the training instances, in the order that they should appear.
+     * @return The instances.
+     */
+    protected Instances getTrainingSubset(int[] indices)
+    {
+        Instances subset = new Instances(mTraining, indices.length);
+        for(int i: indices)
+            subset.add(mTraining.instance(i));
+        return subset;
+    }
+
+    /**
+     * Makes a view of the given rows of the training data, without copying any of them
+     * @param indices The indices of the training instances, in the order that they should appear.
+     * @return The instances, which must only be read from.
+     */
+    protected Instances getTrainingSubsetView(int[] indices)
+    {
+        return new InstancesView(mTraining, indices);
+    }
+
     /**
      * Gets a list of all the 'params' Strings that can be used with this InstanceGenerator.
      *
@@ -0,0 +1,168 @@
+package autoweka;
+
+import java.util.ArrayList;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A set of instances that shares its Instance objects with another set of instances rather than copying each of them.
+ *
+ * new Instances(data) makes a copy of every single row, which adds up fast when the InstanceGenerators hand out the same data over and over
+ * again. A view just keeps its own list pointing at the rows of the source, so it's only as big as the list itself. Anything that only
+ * shuffles the rows around (randomize, sort, delete, add...) touches the view's own list, so these are always safe. Anything that changes
+ * the shape of the data (adding/removing attributes, renaming them, changing the class) would also change the shared rows, so the view
+ * detaches itself first by making its own copies of the rows, just like new Instances(data) would have done up front.
+ *
+ * Changing the values of the shared rows directly (ie. data.instance(i).setValue()) can't be caught though, so these should only get
+ * handed to code that reads the data - evaluation, filter input and the like. Training data should still be a real copy.
+ */
+public class InstancesView extends Instances
+{
+    static final long serialVersionUID = 880967123533530024L;
+
+    private boolean mShared = true;
+
+    /**
+     * Creates a view over all of the rows of the source
+     * @param source The instances to share.
+     */
+    public InstancesView(Instances source)
+    {
+        super(source, 0);
+        m_Instances = new ArrayList<Instance>(source.numInstances());
+        for(int i = 0; i < source.numInstances(); i++)
+            m_Instances.add(source.instance(i));
+    }
+
+    /**
+     * Creates a view over some of the rows of the source
+     * @param source The instances to share.
+     * @param indices The indices of the rows, in the order that they should appear in the view.
+     */
+    public InstancesView(Instances source, int[] indices)
+    {
+        super(source, 0);
+        m_Instances = new ArrayList<Instance>(indices.length);
+        for(int i: indices)
+            m_Instances.add(source.instance(i));
+    }
+
+    /**
+     * Checks if the view still shares its rows with the source
+     * @return True if the rows haven't been copied yet.
+     */
+    public boolean isShared()
+    {
+        return mShared;
+    }
+
+    /*
+     * Makes our own copies of all the rows, so that we can mess with them without changing the source
+     */
+    protected void detach()
+    {
+        if(!mShared)
+            return;
+        for(int i = 0; i < m_Instances.size(); i++)
+        {
+            Instance copy = (Instance)m_Instances.get(i).copy();
+            copy.setDataset(this);
+            m_Instances.set(i, copy);
+        }
+        mShared = false;
+    }
+
+    @Override
+    public void setClassIndex(int classIndex)
+    {
+        if(classIndex != classIndex())
+            detach();
+        super.setClassIndex(classIndex);
+    }
+
+    @Override
+    public void setClass(Attribute att)
+    {
+        detach();
+        super.setClass(att);
+    }
+
+    @Override
+    public void deleteAttributeAt(int position)
+    {
+        detach();
+        super.deleteAttributeAt(position);
+    }
+
+    @Override
+    public void deleteAttributeType(int attType)
+    {
+        detach();
+        super.deleteAttributeType(attType);
+    }
+
+    @Override
+    public void deleteStringAttributes()
+    {
+        detach();
+        super.deleteStringAttributes();
+    }
+
+    @Override
+    public void insertAttributeAt(Attribute att, int position)
+    {
+        detach();
+        super.insertAttributeAt(att, position);
+    }
+
+    @Override
+    public void replaceAttributeAt(Attribute att, int position)
+    {
+        detach();
+        super.replaceAttributeAt(att, position);
+    }
+
+    @Override
+    public void renameAttribute(int att, String name)
+    {
+        detach();
+        super.renameAttribute(att, name);
+    }
+
+    @Override
+    public void renameAttribute(Attribute att, String name)
+    {
+        detach();
+        super.renameAttribute(att, name);
+    }
+
+    @Override
+    public void renameAttributeValue(int att, int val, String name)
+    {
+        detach();
+        super.renameAttributeValue(att, val, name);
+    }
+
+    @Override
+    public void renameAttributeValue(Attribute att, String val, String name)
+    {
+        detach();
+        super.renameAttributeValue(att, val, name);
+    }
+
+    @Override
+    public void setAttributeWeight(int att, double weight)
+    {
+        detach();
+        super.setAttributeWeight(att, weight);
+    }
+
+    @Override
+    public void setAttributeWeight(Attribute att, double weight)
+    {
+        detach();
+        super.setAttributeWeight(att, weight);
+    }
+}
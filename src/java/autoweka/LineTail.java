@@ -0,0 +1,155 @@
+package autoweka;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Follows a text file that something else is writing to, handing back the lines that have been finished since the last time it was asked.
+ *
+ * Only the bytes past the last complete line get read each time, so following a big file costs about the same as following a small one. A
+ * line that doesn't have its new line yet gets left for next time.
+ */
+public class LineTail
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File mFile;
+    private long mOffset = 0;
+    private byte[] mLastLine = null;
+
+    public LineTail(File file)
+    {
+        mFile = file;
+    }
+
+    public File getFile()
+    {
+        return mFile;
+    }
+
+    /**
+     * Gets how far into the file the lines have been read
+     * @return The offset in bytes.
+     */
+    public long getOffset()
+    {
+        return mOffset;
+    }
+
+    /**
+     * Reads the lines that have been finished since the last call
+     * @return The new lines, without their line endings.
+     * @throws IOException if the file can't be read, or it got shorter than what's been read already.
+     */
+    public List<String> readNewLines() throws IOException
+    {
+        if(!mFile.exists())
+            return new ArrayList<String>();
+
+        byte[] bytes;
+        FileInputStream in = new FileInputStream(mFile);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if(size < mOffset)
+                throw new IOException(mFile + " got shorter while it was being followed");
+            if(size == mOffset)
+                return new ArrayList<String>();
+
+            ByteBuffer buffer = ByteBuffer.allocate((int)(size - mOffset));
+            long position = mOffset;
+            while(buffer.hasRemaining())
+            {
+                int read = channel.read(buffer, position);
+                if(read < 0)
+                    break;
+                position += read;
+            }
+            bytes = Arrays.copyOf(buffer.array(), buffer.position());
+        }
+        finally
+        {
+            in.close();
+        }
+
+        int end = bytes.length;
+        while(end > 0 && bytes[end - 1] != '\n')
+            end--;
+        if(end == 0)
+            return new ArrayList<String>();
+
+        //Remember the last whole line, so that we can tell if a new file carries on from this one
+        int lastStart = end - 1;
+        while(lastStart > 0 && bytes[lastStart - 1] != '\n')
+            lastStart--;
+        mLastLine = Arrays.copyOfRange(bytes, lastStart, end);
+        mOffset += end;
+
+        List<String> lines = new ArrayList<String>();
+        for(String line: new String(bytes, 0, end, UTF8).split("\n", -1))
+        {
+            if(line.endsWith("\r"))
+                line = line.substring(0, line.length() - 1);
+            lines.add(line);
+        }
+        //There's nothing after the last new line
+        lines.remove(lines.size() - 1);
+        return lines;
+    }
+
+    /**
+     * Switches over to a new file, which is something like a newer snapshot of what was being followed.
+     *
+     * If the new file starts off with everything that has been read already, it gets picked up from the same place. Otherwise it gets read
+     * from the start.
+     * @param file The new file.
+     * @return True if it carried on from where the old file was up to, false if it's starting over.
+     * @throws IOException if the new file can't be read.
+     */
+    public boolean follow(File file) throws IOException
+    {
+        boolean continues = mLastLine != null && continues(file);
+        mFile = file;
+        if(!continues)
+        {
+            mOffset = 0;
+            mLastLine = null;
+        }
+        return continues;
+    }
+
+    /*
+     * Checks that the last line we read ends in the same place in the new file, which is good enough to say that it's got the same start
+     */
+    private boolean continues(File file) throws IOException
+    {
+        if(file.length() < mOffset)
+            return false;
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(mLastLine.length);
+            long position = mOffset - mLastLine.length;
+            while(buffer.hasRemaining())
+            {
+                int read = in.getChannel().read(buffer, position);
+                if(read < 0)
+                    return false;
+                position += read;
+            }
+            return Arrays.equals(buffer.array(), mLastLine);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
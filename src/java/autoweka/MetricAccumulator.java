@@ -0,0 +1,238 @@
+package autoweka;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Keeps the running sums that the simple metrics (error rate, MAE, RMSE and friends) need, without holding on to any of the predictions.
+ *
+ * A weka Evaluation stores an object for every single prediction so that it can work out things like the AUC at the end, which costs a lot of
+ * heap on big test sets for metrics that only ever look at a handful of totals. This works the same way that Evaluation does for those totals
+ * (the numbers come out identical), it just doesn't remember anything else. Metrics that can be computed from these implement
+ * ClassifierResult.StreamingMetric.
+ */
+public class MetricAccumulator
+{
+    private boolean mClassIsNominal;
+    private int mNumClasses;
+
+    private double mWithClass = 0;
+    private double mMissingClass = 0;
+    private double mUnclassified = 0;
+    private double mCorrect = 0;
+    private double mIncorrect = 0;
+    private double mSumAbsErr = 0;
+    private double mSumSqrErr = 0;
+
+    /**
+     * Creates an empty accumulator
+     * @param header The instances that are going to be evaluated, only the header is used.
+     */
+    public MetricAccumulator(Instances header)
+    {
+        mClassIsNominal = header.classAttribute().isNominal();
+        mNumClasses = mClassIsNominal ? header.numClasses() : 1;
+    }
+
+    /**
+     * Gets the classifier's prediction for an instance, and adds it to the totals
+     * @param classifier The classifier.
+     * @param instance The instance, which doesn't get changed.
+     * @return The predicted value, or a missing value if there was no prediction.
+     * @throws Exception if the classifier fails.
+     */
+    public double evaluate(Classifier classifier, Instance instance) throws Exception
+    {
+        //Same as Evaluation, the classifier doesn't get to see the answer
+        Instance classMissing = (Instance)instance.copy();
+        classMissing.setDataset(instance.dataset());
+        classMissing.setClassMissing();
+
+        if(mClassIsNominal)
+        {
+            double[] dist = classifier.distributionForInstance(classMissing);
+            addDistribution(dist, instance);
+            int pred = Utils.maxIndex(dist);
+            return dist[pred] <= 0 ? Utils.missingValue() : pred;
+        }
+        double pred = classifier.classifyInstance(classMissing);
+        addPrediction(pred, instance);
+        return pred;
+    }
+
+    /**
+     * Adds the predicted class distribution for an instance with a nominal class
+     * @param dist The distribution.
+     * @param instance The instance, which has the actual class.
+     */
+    public void addDistribution(double[] dist, Instance instance)
+    {
+        double weight = instance.weight();
+        if(instance.classIsMissing())
+        {
+            mMissingClass += weight;
+            return;
+        }
+        mWithClass += weight;
+
+        //The first class with the highest non-zero probability wins
+        int predicted = -1;
+        double bestProb = 0;
+        for(int i = 0; i < mNumClasses; i++)
+        {
+            if(dist[i] > bestProb)
+            {
+                predicted = i;
+                bestProb = dist[i];
+            }
+        }
+        if(predicted < 0)
+        {
+            mUnclassified += weight;
+            return;
+        }
+
+        int actual = (int)instance.classValue();
+        double sumAbsErr = 0;
+        double sumSqrErr = 0;
+        for(int i = 0; i < mNumClasses; i++)
+        {
+            double diff = dist[i] - (i == actual ? 1 : 0);
+            sumAbsErr += Math.abs(diff);
+            sumSqrErr += diff * diff;
+        }
+        mSumAbsErr += weight * sumAbsErr / mNumClasses;
+        mSumSqrErr += weight * sumSqrErr / mNumClasses;
+
+        if(predicted == actual)
+            mCorrect += weight;
+        else
+            mIncorrect += weight;
+    }
+
+    /**
+     * Adds the predicted value for an instance with a numeric class
+     * @param predicted The prediction, which may be missing.
+     * @param instance The instance, which has the actual class.
+     */
+    public void addPrediction(double predicted, Instance instance)
+    {
+        double weight = instance.weight();
+        if(instance.classIsMissing())
+        {
+            mMissingClass += weight;
+            return;
+        }
+        mWithClass += weight;
+        if(Utils.isMissingValue(predicted))
+        {
+            mUnclassified += weight;
+            return;
+        }
+        double diff = predicted - instance.classValue();
+        mSumAbsErr += weight * Math.abs(diff);
+        mSumSqrErr += weight * diff * diff;
+    }
+
+    /**
+     * Adds the totals from another accumulator into this one
+     * @param other The other accumulator, for the same data.
+     */
+    public void merge(MetricAccumulator other)
+    {
+        mWithClass += other.mWithClass;
+        mMissingClass += other.mMissingClass;
+        mUnclassified += other.mUnclassified;
+        mCorrect += other.mCorrect;
+        mIncorrect += other.mIncorrect;
+        mSumAbsErr += other.mSumAbsErr;
+        mSumSqrErr += other.mSumSqrErr;
+    }
+
+    public boolean classIsNominal()
+    {
+        return mClassIsNominal;
+    }
+
+    /**
+     * Gets the weight of all the instances with a class that have been added, same as Evaluation.numInstances()
+     * @return The weight.
+     */
+    public double withClass()
+    {
+        return mWithClass;
+    }
+
+    public double unclassified()
+    {
+        return mUnclassified;
+    }
+
+    public double correct()
+    {
+        return mCorrect;
+    }
+
+    public double incorrect()
+    {
+        return mIncorrect;
+    }
+
+    public double pctCorrect()
+    {
+        return 100 * mCorrect / mWithClass;
+    }
+
+    public double pctIncorrect()
+    {
+        return 100 * mIncorrect / mWithClass;
+    }
+
+    /**
+     * Gets the error rate, which is the RMSE for numeric classes (just like Evaluation.errorRate())
+     * @return The error rate.
+     */
+    public double errorRate()
+    {
+        if(!mClassIsNominal)
+            return rootMeanSquaredError();
+        return mIncorrect / mWithClass;
+    }
+
+    public double meanAbsoluteError()
+    {
+        return mSumAbsErr / (mWithClass - mUnclassified);
+    }
+
+    public double rootMeanSquaredError()
+    {
+        return Math.sqrt(mSumSqrErr / (mWithClass - mUnclassified));
+    }
+
+    /**
+     * Gets the sum of the absolute errors so far, which is what a lower bound on the MAE needs
+     * @return The weighted sum.
+     */
+    public double sumAbsoluteError()
+    {
+        return mSumAbsErr;
+    }
+
+    /**
+     * Gets the sum of the squared errors so far, which is what a lower bound on the RMSE needs
+     * @return The weighted sum.
+     */
+    public double sumSquaredError()
+    {
+        return mSumSqrErr;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "With class: " + mWithClass + " Missing class: " + mMissingClass + " Unclassified: " + mUnclassified + " Correct: " + mCorrect +
+               " Incorrect: " + mIncorrect + " MAE: " + meanAbsoluteError() + " RMSE: " + rootMeanSquaredError();
+    }
+}
@@ -0,0 +1,250 @@
+package autoweka;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+import weka.classifiers.evaluation.output.prediction.CSV;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Writes out predictions as they get made, rather than collecting them all in memory first.
+ *
+ * The format depends on the file name:
+ *   - Anything ending in '.gz' gets gzipped (ie. predictions.csv.gz)
+ *   - '.bin' (or '.bin.gz') is a compact binary format, see BinaryWriter
+ *   - Everything else is the same CSV that weka's CSV prediction output makes, with the distribution
+ */
+public abstract class PredictionsWriter
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Opens up a writer for the given file
+     * @param fileName The file to write to.
+     * @param header The instances that the predictions are for, only the header is used.
+     * @return The writer.
+     */
+    public static PredictionsWriter create(String fileName, Instances header)
+    {
+        try
+        {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), BUFFER_SIZE);
+            String name = fileName;
+            if(name.endsWith(".gz"))
+            {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+                name = name.substring(0, name.length() - 3);
+            }
+            if(name.endsWith(".bin"))
+                return new BinaryWriter(out, header);
+            return new CSVWriter(out, header);
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("Failed to open predictions file " + fileName, e);
+        }
+    }
+
+    /**
+     * Writes out a prediction
+     * @param index The index of the instance in the data that's being evaluated, which can go past what an int holds when it's streamed.
+     * @param prediction The predicted class distribution, or a single predicted value for numeric classes.
+     * @param instance The instance, which has the actual class.
+     * @throws IOException if the write fails.
+     */
+    public abstract void write(long index, double[] prediction, Instance instance) throws IOException;
+
+    /**
+     * Finishes off the file
+     * @throws IOException if the write fails.
+     */
+    public abstract void close() throws IOException;
+
+    /**
+     * The same CSV that weka makes, but each line goes straight out to the file instead of into a StringBuffer
+     */
+    static class CSVWriter extends PredictionsWriter
+    {
+        private Writer mWriter;
+        private StreamingCSV mCSV;
+
+        CSVWriter(OutputStream out, Instances header) throws IOException
+        {
+            mWriter = new BufferedWriter(new OutputStreamWriter(out, UTF8), BUFFER_SIZE);
+            mCSV = new StreamingCSV();
+            mCSV.setHeader(header);
+            mCSV.setOutputDistribution(true);
+            mCSV.printHeader();
+            flushErrors();
+        }
+
+        public void write(long index, double[] prediction, Instance instance) throws IOException
+        {
+            try
+            {
+                mCSV.printClassification(prediction, instance, index);
+            }
+            catch(IOException e)
+            {
+                throw e;
+            }
+            catch(Exception e)
+            {
+                throw new IOException("Failed to print prediction", e);
+            }
+            flushErrors();
+        }
+
+        public void close() throws IOException
+        {
+            try
+            {
+                mCSV.printFooter();
+                flushErrors();
+            }
+            catch(IOException e)
+            {
+                throw e;
+            }
+            catch(Exception e)
+            {
+                throw new IOException("Failed to finish predictions", e);
+            }
+            finally
+            {
+                mWriter.close();
+            }
+        }
+
+        /*
+         * The CSV class can't throw IOExceptions from append, so it holds on to them for us
+         */
+        private void flushErrors() throws IOException
+        {
+            if(mCSV.mError != null)
+                throw mCSV.mError;
+        }
+
+        private class StreamingCSV extends CSV
+        {
+            static final long serialVersionUID = -6010124460404964145L;
+
+            private IOException mError = null;
+            //What the row number that weka writes first gets swapped for, for the rows that weka can't number
+            private String mRowNumber = null;
+
+            StreamingCSV()
+            {
+                //It never gets used, but weka wants to see one
+                setBuffer(new StringBuffer());
+            }
+
+            /*
+             * Weka only numbers rows with an int, so past that the row gets printed as the first one and the number swapped in afterwards
+             */
+            void printClassification(double[] prediction, Instance instance, long index) throws Exception
+            {
+                if(index <= Integer.MAX_VALUE)
+                {
+                    printClassification(prediction, instance, (int)index);
+                    return;
+                }
+                mRowNumber = Long.toString(index + 1);
+                try
+                {
+                    printClassification(prediction, instance, 0);
+                }
+                finally
+                {
+                    mRowNumber = null;
+                }
+            }
+
+            @Override
+            protected void append(String s)
+            {
+                if(mError != null)
+                    return;
+                if(mRowNumber != null)
+                {
+                    if(!s.equals("1"))
+                        mError = new IOException("Unexpected start of prediction row '" + s + "'");
+                    s = mRowNumber;
+                    mRowNumber = null;
+                }
+                try
+                {
+                    mWriter.write(s);
+                }
+                catch(IOException e)
+                {
+                    mError = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary format, which is much quicker to read back than the CSV. All values are big endian:
+     *   int - magic number (0x41575052)
+     *   int - version
+     *   int - number of classes (0 for a numeric class)
+     * Followed by one record per prediction:
+     *   long - index of the instance
+     *   double - the predicted class index or value (NaN if there was no prediction)
+     *   double - the actual class index or value (NaN if it's missing)
+     *   float[number of classes] - the predicted distribution
+     */
+    static class BinaryWriter extends PredictionsWriter
+    {
+        static final int MAGIC = 0x41575052;
+        static final int VERSION = 2;
+
+        private DataOutputStream mOut;
+        private int mNumClasses;
+
+        BinaryWriter(OutputStream out, Instances header) throws IOException
+        {
+            mOut = new DataOutputStream(out);
+            mNumClasses = header.classAttribute().isNominal() ? header.numClasses() : 0;
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(VERSION);
+            mOut.writeInt(mNumClasses);
+        }
+
+        public void write(long index, double[] prediction, Instance instance) throws IOException
+        {
+            double predicted;
+            if(mNumClasses == 0)
+            {
+                predicted = prediction[0];
+            }
+            else
+            {
+                int best = Utils.maxIndex(prediction);
+                predicted = prediction[best] <= 0 ? Double.NaN : best;
+            }
+            mOut.writeLong(index);
+            mOut.writeDouble(Utils.isMissingValue(predicted) ? Double.NaN : predicted);
+            mOut.writeDouble(instance.classIsMissing() ? Double.NaN : instance.classValue());
+            for(int i = 0; i < mNumClasses; i++)
+                mOut.writeFloat((float)prediction[i]);
+        }
+
+        public void close() throws IOException
+        {
+            mOut.close();
+        }
+    }
+}
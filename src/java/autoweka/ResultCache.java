@@ -0,0 +1,345 @@
+package autoweka;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of evaluation results that can be shared between all the wrappers of an experiment (and between experiments on the same data).
+ *
+ * Results are keyed on a fingerprint of the dataset, the classifier arguments (in a canonical order), the instance string and the metric, so
+ * SMAC re-proposing a configuration that it has already tried, or several parallel runs trying the same default, only pays for it once.
+ *
+ * The cache is an append only text file with one result per line, guarded by a file lock so that any number of processes can use it at once.
+ * Each process only reads the part of the file that has been added since the last time that it looked. Hits and misses are counted in a
+ * second file alongside the cache, so that whoever started the experiment can report the hit rate.
+ *
+ * The cache gets turned on with the 'resultCache' property, which is either 'true' (use a file in the temp dir) or the absolute path of the cache file.
+ */
+public class ResultCache
+{
+    final static Logger log = LoggerFactory.getLogger(ResultCache.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static Map<String, ResultCache> msCaches = new HashMap<String, ResultCache>();
+
+    private File mFile;
+    private File mStatsFile;
+    private Map<String, double[]> mResults = new HashMap<String, double[]>();
+    private long mReadOffset = 0;
+
+    /**
+     * Gets the cache that the given properties ask for
+     * @param props The wrapper/experiment properties.
+     * @return The cache, or null if there isn't one.
+     */
+    public static ResultCache get(Properties props)
+    {
+        String path = props.getProperty("resultCache", null);
+        if(path == null || path.isEmpty() || path.equals("false"))
+            return null;
+        if(path.equals("true"))
+            path = new File(System.getProperty("java.io.tmpdir"), "autoweka-results.cache").getAbsolutePath();
+
+        //There can only be one of these per file in a JVM, otherwise the file locks will overlap
+        synchronized(msCaches)
+        {
+            ResultCache cache = msCaches.get(path);
+            if(cache == null)
+            {
+                cache = new ResultCache(new File(path));
+                msCaches.put(path, cache);
+            }
+            return cache;
+        }
+    }
+
+    private ResultCache(File file)
+    {
+        mFile = file;
+        mStatsFile = new File(file.getPath() + ".stats");
+    }
+
+    /**
+     * Builds the key for a result
+     * @param datasetFingerprint The fingerprint of the dataset (see InstanceGenerator.getFingerprint).
+     * @param args The arguments for the ClassifierRunner.
+     * @param instance The instance string.
+     * @param metric The metric.
+     * @return The key.
+     */
+    public static String getKey(String datasetFingerprint, List<String> args, String instance, String metric)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(datasetFingerprint).append('\n');
+        sb.append(getCanonicalArgs(args)).append('\n');
+        sb.append(instance).append('\n');
+        sb.append(metric);
+        return Util.hashString(sb.toString());
+    }
+
+    /*
+     * SMAC doesn't always hand over the parameters in the same order, so we sort the -name value pairs
+     */
+    static String getCanonicalArgs(List<String> args)
+    {
+        if(args.size() % 2 != 0)
+            return Util.joinStrings(" ", args);
+
+        List<String> pairs = new ArrayList<String>(args.size() / 2);
+        for(int i = 0; i < args.size(); i += 2)
+        {
+            if(!args.get(i).startsWith("-"))
+                return Util.joinStrings(" ", args);
+            pairs.add(args.get(i) + " " + args.get(i + 1));
+        }
+        Collections.sort(pairs);
+        return Util.joinStrings(" ", pairs);
+    }
+
+    /**
+     * Looks up a result, and counts the hit or miss
+     * @param key The key from getKey.
+     * @param metric The metric the result is for.
+     * @return The result, or null if we haven't seen it.
+     */
+    public synchronized ClassifierResult lookup(String key, String metric)
+    {
+        double[] values = null;
+        boolean hit = false;
+        try
+        {
+            RandomAccessFile raf = open();
+            try
+            {
+                FileLock lock = raf.getChannel().lock();
+                try
+                {
+                    readNewResults(raf);
+                    values = mResults.get(key);
+                    hit = values != null;
+                    updateStats(hit);
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch(IOException e)
+        {
+            log.warn("Failed to read result cache {}: {}", mFile, e.getMessage());
+            return null;
+        }
+
+        if(!hit)
+            return null;
+
+        ClassifierResult res = new ClassifierResult(metric);
+        res._setRawScore(values[0]);
+        res.setRegularizationPenalty(values[1]);
+        res.setAttributeSelectionTime(values[2]);
+        res.setTrainingTime(values[3]);
+        res.setEvaluationTime(values[4]);
+        res.setPercentEvaluated(values[5]);
+        res.setCompleted(true);
+        return res;
+    }
+
+    /**
+     * Adds a completed result to the cache
+     * @param key The key from getKey.
+     * @param res The result.
+     */
+    public synchronized void store(String key, ClassifierResult res)
+    {
+        if(!res.getCompleted())
+            return;
+
+        //getEvaluationTime hands back the training time, so work it out from the total instead
+        double evaluationTime = res.getTime() - res.getAttributeSelectionTime() - res.getTrainingTime();
+        String line = key + "\t" + res.getRawScore() + "\t" + res.getNormalizationPenalty() + "\t" + res.getAttributeSelectionTime() + "\t" +
+                      res.getTrainingTime() + "\t" + evaluationTime + "\t" + res.getPercentEvaluated() + "\n";
+        try
+        {
+            RandomAccessFile raf = open();
+            try
+            {
+                FileLock lock = raf.getChannel().lock();
+                try
+                {
+                    raf.seek(raf.length());
+                    raf.write(line.getBytes(UTF8));
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch(IOException e)
+        {
+            log.warn("Failed to write result cache {}: {}", mFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the number of hits and misses that have been counted so far, by everyone using this cache
+     * @return An array containing the hits and the misses.
+     */
+    public synchronized long[] getStats()
+    {
+        try
+        {
+            RandomAccessFile raf = open();
+            try
+            {
+                FileLock lock = raf.getChannel().lock();
+                try
+                {
+                    return readStats();
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch(IOException e)
+        {
+            log.warn("Failed to read result cache stats {}: {}", mStatsFile, e.getMessage());
+            return new long[]{0, 0};
+        }
+    }
+
+    /**
+     * Makes a description of the hit rate between two calls to getStats
+     * @param before The stats at the start.
+     * @param after The stats at the end.
+     * @return The description.
+     */
+    public static String describeStats(long[] before, long[] after)
+    {
+        long hits = after[0] - before[0];
+        long lookups = hits + after[1] - before[1];
+        double rate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return String.format("%d hits out of %d lookups (%.1f%%)", hits, lookups, rate);
+    }
+
+    private RandomAccessFile open() throws IOException
+    {
+        File parent = mFile.getAbsoluteFile().getParentFile();
+        if(parent != null)
+            parent.mkdirs();
+        return new RandomAccessFile(mFile, "rw");
+    }
+
+    /*
+     * Pulls in everything that's been appended since we last looked, skipping anything that doesn't parse
+     */
+    private void readNewResults(RandomAccessFile raf) throws IOException
+    {
+        long length = raf.length();
+        if(length < mReadOffset)
+        {
+            //Someone cleared it out from under us
+            mResults.clear();
+            mReadOffset = 0;
+        }
+        if(length == mReadOffset)
+            return;
+
+        byte[] bytes = new byte[(int)(length - mReadOffset)];
+        raf.seek(mReadOffset);
+        raf.readFully(bytes);
+        //Only take complete lines, someone might have died half way through writing one
+        int end = bytes.length - 1;
+        while(end >= 0 && bytes[end] != '\n')
+            end--;
+        if(end < 0)
+            return;
+        mReadOffset += end + 1;
+
+        for(String line: new String(bytes, 0, end, UTF8).split("\n"))
+        {
+            String[] parts = line.split("\t");
+            if(parts.length != 7)
+                continue;
+            try
+            {
+                double[] values = new double[6];
+                for(int i = 0; i < values.length; i++)
+                    values[i] = Double.parseDouble(parts[i + 1]);
+                mResults.put(parts[0], values);
+            }
+            catch(NumberFormatException e)
+            {
+                log.debug("Skipping bad result cache line '{}'", line);
+            }
+        }
+    }
+
+    private long[] readStats() throws IOException
+    {
+        long[] stats = new long[]{0, 0};
+        if(!mStatsFile.exists())
+            return stats;
+        RandomAccessFile raf = new RandomAccessFile(mStatsFile, "r");
+        try
+        {
+            if(raf.length() >= 16)
+            {
+                stats[0] = raf.readLong();
+                stats[1] = raf.readLong();
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+        return stats;
+    }
+
+    /*
+     * Must be called while holding the lock on the cache file
+     */
+    private void updateStats(boolean hit) throws IOException
+    {
+        long[] stats = readStats();
+        stats[hit ? 0 : 1]++;
+        RandomAccessFile raf = new RandomAccessFile(mStatsFile, "rw");
+        try
+        {
+            raf.seek(0);
+            raf.writeLong(stats[0]);
+            raf.writeLong(stats[1]);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
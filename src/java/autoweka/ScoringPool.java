@@ -0,0 +1,312 @@
+package autoweka;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import weka.attributeSelection.AttributeSelection;
+import weka.classifiers.Classifier;
+import weka.classifiers.meta.AutoWEKAClassifier;
+import weka.core.BatchPredictor;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializedObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes predictions with a trained model from as many threads as you like.
+ *
+ * Lots of classifiers (and the attribute selection's filter) keep scratch state while they predict, so a single model has to be used by
+ * one thread at a time. This keeps a number of independent copies of the model - each one deserialized from the same bytes, so they're
+ * exactly the same - in slots that threads claim with a compare and set, so there's no lock for the threads to queue up on. A thread that
+ * finds every replica busy just backs off and tries again, so there should be about as many replicas as there are threads predicting.
+ *
+ * Each replica keeps count of the predictions it made and how long it was busy making them, see getThroughput and describeThroughput.
+ */
+public class ScoringPool
+{
+    final static Logger log = LoggerFactory.getLogger(ScoringPool.class);
+
+    //How many times to go round all the slots before starting to sleep between tries
+    private static final int SPINS_BEFORE_PARKING = 16;
+    private static final long PARK_NANOS = 50000;
+
+    private AtomicReferenceArray<Replica> mSlots;
+    private Replica[] mReplicas;
+    private long mStartTime;
+
+    /*
+     * One copy of the model, which only one thread has at a time
+     */
+    private static class Replica
+    {
+        private int mIndex;
+        private Classifier mClassifier;
+        private AttributeSelection mAttributeSelection;
+        private AttributeProjection mProjection = null;
+        private boolean mProjectionChecked = false;
+        private double[] mBuffer = null;
+        private volatile long mPredictions = 0;
+        private volatile long mBusyNanos = 0;
+
+        public Replica(int index, Classifier classifier, AttributeSelection as)
+        {
+            mIndex = index;
+            mClassifier = classifier;
+            mAttributeSelection = as;
+        }
+
+        /* Applies the attribute selection, using a projection into this replica's buffer if it's just keeping some of the attributes */
+        public Instance reduce(Instance instance) throws Exception
+        {
+            return reduce(instance, false);
+        }
+
+        /*
+         * Same as above, but if keep is set the projected values get an array of their own, so the instance can still be used after the next one
+         * gets reduced (adding it to a batch doesn't copy the values)
+         */
+        public Instance reduce(Instance instance, boolean keep) throws Exception
+        {
+            if(mAttributeSelection == null)
+                return instance;
+            if(!mProjectionChecked && instance.dataset() != null)
+            {
+                mProjection = AttributeProjection.create(mAttributeSelection, instance.dataset());
+                if(mProjection != null)
+                    mBuffer = mProjection.newBuffer();
+                mProjectionChecked = true;
+            }
+            if(mProjection == null)
+                return mAttributeSelection.reduceDimensionality(instance);
+            return mProjection.project(instance, keep ? null : mBuffer);
+        }
+
+        public void record(long predictions, long nanos)
+        {
+            //Only the thread that has the replica writes these
+            mPredictions += predictions;
+            mBusyNanos += nanos;
+        }
+    }
+
+    /**
+     * Makes a pool of replicas of the model that an AutoWEKAClassifier chose
+     * @param trained The AutoWEKAClassifier, which has to have been built.
+     * @param numReplicas How many copies of the model to make.
+     * @throws Exception if the model couldn't be copied.
+     */
+    public ScoringPool(AutoWEKAClassifier trained, int numReplicas) throws Exception
+    {
+        this(trained.getChosenClassifier(), trained.getChosenAttributeSelection(), numReplicas);
+    }
+
+    /**
+     * Makes a pool of replicas of a model
+     * @param classifier The trained classifier.
+     * @param as The attribute selection that the instances go through before the classifier, or null if there isn't one.
+     * @param numReplicas How many copies of the model to make.
+     * @throws Exception if the model couldn't be copied.
+     */
+    public ScoringPool(Classifier classifier, AttributeSelection as, int numReplicas) throws Exception
+    {
+        if(classifier == null)
+            throw new IllegalArgumentException("There's no trained classifier to score with");
+        if(numReplicas < 1)
+            throw new IllegalArgumentException("Need at least one replica");
+
+        //Serialize it just the once, every replica comes out of the same bytes
+        SerializedObject model = new SerializedObject(new Object[]{classifier, as});
+        mReplicas = new Replica[numReplicas];
+        mSlots = new AtomicReferenceArray<Replica>(numReplicas);
+        for(int i = 0; i < numReplicas; i++)
+        {
+            Object[] copy = (Object[])model.getObject();
+            mReplicas[i] = new Replica(i, (Classifier)copy[0], (AttributeSelection)copy[1]);
+            mSlots.set(i, mReplicas[i]);
+        }
+        mStartTime = System.nanoTime();
+        log.debug("Made {} replicas of {}", numReplicas, classifier.getClass().getName());
+    }
+
+    /**
+     * Loads a model that was saved by a run (see TrainedModelPredictionMaker), and makes a pool of replicas of it
+     * @param modelPath The .model file.
+     * @param attributeSelectionPath The .attributeselection file, or null if there isn't one.
+     * @param numReplicas How many copies of the model to make.
+     * @return The pool.
+     * @throws Exception if the model couldn't be loaded.
+     */
+    public static ScoringPool load(String modelPath, String attributeSelectionPath, int numReplicas) throws Exception
+    {
+        AttributeSelection as = null;
+        if(attributeSelectionPath != null)
+            as = (AttributeSelection)weka.core.SerializationHelper.read(attributeSelectionPath);
+        Classifier classifier = (Classifier)weka.core.SerializationHelper.read(modelPath);
+        return new ScoringPool(classifier, as, numReplicas);
+    }
+
+    /**
+     * Gets the number of replicas
+     * @return The number of replicas.
+     */
+    public int getNumReplicas()
+    {
+        return mReplicas.length;
+    }
+
+    /**
+     * Classifies an instance with whichever replica is free
+     * @param instance The instance, with the header that the model was trained on.
+     * @return The prediction.
+     * @throws Exception if the prediction failed.
+     */
+    public double classifyInstance(Instance instance) throws Exception
+    {
+        Replica r = borrow();
+        long start = System.nanoTime();
+        try
+        {
+            return r.mClassifier.classifyInstance(r.reduce(instance));
+        }
+        finally
+        {
+            release(r, 1, start);
+        }
+    }
+
+    /**
+     * Gets the class distribution for an instance with whichever replica is free
+     * @param instance The instance, with the header that the model was trained on.
+     * @return The distribution.
+     * @throws Exception if the prediction failed.
+     */
+    public double[] distributionForInstance(Instance instance) throws Exception
+    {
+        Replica r = borrow();
+        long start = System.nanoTime();
+        try
+        {
+            return r.mClassifier.distributionForInstance(r.reduce(instance));
+        }
+        finally
+        {
+            release(r, 1, start);
+        }
+    }
+
+    /**
+     * Gets the class distributions for a batch of instances, all with the one replica
+     * @param instances The instances, with the header that the model was trained on.
+     * @return The distributions, one for each instance.
+     * @throws Exception if the prediction failed.
+     */
+    public double[][] distributionsForInstances(Instances instances) throws Exception
+    {
+        Replica r = borrow();
+        long start = System.nanoTime();
+        try
+        {
+            double[][] dists = new double[instances.numInstances()][];
+            if(r.mClassifier instanceof BatchPredictor && ((BatchPredictor)r.mClassifier).implementsMoreEfficientBatchPrediction())
+            {
+                Instances batch = null;
+                for(int i = 0; i < instances.numInstances(); i++)
+                {
+                    Instance reduced = r.reduce(instances.instance(i), true);
+                    if(batch == null)
+                        batch = new Instances(reduced.dataset(), instances.numInstances());
+                    batch.add(reduced);
+                }
+                if(batch != null)
+                    dists = ((BatchPredictor)r.mClassifier).distributionsForInstances(batch);
+                return dists;
+            }
+            for(int i = 0; i < instances.numInstances(); i++)
+                dists[i] = r.mClassifier.distributionForInstance(r.reduce(instances.instance(i)));
+            return dists;
+        }
+        finally
+        {
+            release(r, instances.numInstances(), start);
+        }
+    }
+
+    /**
+     * Gets how many predictions each replica has made
+     * @return The counts, by replica.
+     */
+    public long[] getPredictionCounts()
+    {
+        long[] counts = new long[mReplicas.length];
+        for(int i = 0; i < mReplicas.length; i++)
+            counts[i] = mReplicas[i].mPredictions;
+        return counts;
+    }
+
+    /**
+     * Gets how many predictions a second each replica makes while it's busy
+     * @return The throughputs, by replica (0 for the ones that haven't been used).
+     */
+    public double[] getThroughput()
+    {
+        double[] throughput = new double[mReplicas.length];
+        for(int i = 0; i < mReplicas.length; i++)
+        {
+            long busy = mReplicas[i].mBusyNanos;
+            throughput[i] = busy > 0 ? mReplicas[i].mPredictions / (busy * 1e-9) : 0;
+        }
+        return throughput;
+    }
+
+    /**
+     * Describes how much each replica has been used, and how fast it is
+     * @return The description.
+     */
+    public String describeThroughput()
+    {
+        double elapsed = (System.nanoTime() - mStartTime) * 1e-9;
+        double[] throughput = getThroughput();
+        long total = 0;
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < mReplicas.length; i++)
+        {
+            Replica r = mReplicas[i];
+            total += r.mPredictions;
+            sb.append(String.format("Replica %d: %d predictions, %.1f/s while busy, busy %.1f%% of the time\n", i, r.mPredictions, throughput[i],
+                                    elapsed > 0 ? 100 * r.mBusyNanos * 1e-9 / elapsed : 0));
+        }
+        sb.append(String.format("Total: %d predictions, %.1f/s", total, elapsed > 0 ? total / elapsed : 0));
+        return sb.toString();
+    }
+
+    /*
+     * Claims a free replica, starting from a slot that depends on the thread so that they don't all fight over the first one
+     */
+    private Replica borrow()
+    {
+        int n = mReplicas.length;
+        int first = (int)(Thread.currentThread().getId() % n);
+        for(int spins = 0; ; spins++)
+        {
+            for(int k = 0; k < n; k++)
+            {
+                int slot = (first + k) % n;
+                Replica r = mSlots.get(slot);
+                if(r != null && mSlots.compareAndSet(slot, r, null))
+                    return r;
+            }
+            if(spins < SPINS_BEFORE_PARKING)
+                Thread.yield();
+            else
+                LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    private void release(Replica r, long predictions, long startTime)
+    {
+        r.record(predictions, System.nanoTime() - startTime);
+        mSlots.set(r.mIndex, r);
+    }
+}
@@ -8,6 +8,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -21,6 +22,7 @@ public class SubProcessWrapper extends Wrapper
 {
     final static Logger log = LoggerFactory.getLogger(SubProcessWrapper.class);
 
+    private static final String RESULT_PREFIX = "SubProcessWrapper: ";
     private static Pattern mResultPattern = Pattern.compile("SubProcessWrapper: Time\\(([\\.\\d]+)\\) Score\\(([\\.\\deE+-]+)\\)");
 
     /**
@@ -76,7 +78,7 @@ public class SubProcessWrapper extends Wrapper
     @Override
     protected void _processResults(ClassifierResult res)
     {
-        System.out.print("SubProcessWrapper: Time(" + res.getTime() + ") Score(" + res.getScore() + ")");
+        System.out.print(RESULT_PREFIX + "Time(" + res.getTime() + ") Score(" + res.getScore() + ")");
         String outputFilePrefix = mProperties.getProperty("modelOutputFilePrefix", null);
         if(outputFilePrefix != null){
             try{
@@ -183,18 +185,40 @@ public class SubProcessWrapper extends Wrapper
             for(String c : wrapperCmd)
                 log.debug("{}", c);
 
+            //The result comes back over an event channel of our own, the output is only there for the log
+            final AtomicReference<EventChannel.Event> result = new AtomicReference<EventChannel.Event>();
+            final AtomicReference<String> childError = new AtomicReference<String>();
+            EventChannel.Server events = new EventChannel.Server(new EventChannel.Listener(){
+                public void onEvent(EventChannel.Event event)
+                {
+                    if(event.type == EventChannel.Event.EVALUATION)
+                        result.compareAndSet(null, event);
+                    else if(event.type == EventChannel.Event.ERROR)
+                        childError.compareAndSet(null, event.text);
+                }
+            });
+
             ProcessBuilder pb = new ProcessBuilder(wrapperCmd);
             pb.environment().put("AUTOWEKA_EXPERIMENT_SEED", autowekaSeed);
+            pb.environment().put(EventChannel.PORT_ENV_VARIABLE, "" + events.start());
             if(runDir != null)
                 pb.directory(runDir);
             pb.redirectErrorStream(true);
-            Process proc = pb.start();
-            
+            Process proc;
+            try
+            {
+                proc = pb.start();
+            }
+            catch(Exception e)
+            {
+                events.stop();
+                throw e;
+            }
+
             //Register a shutdown hook
             Thread killerHook = new Util.ProcessKillerShutdownHook(proc);
             Runtime.getRuntime().addShutdownHook(killerHook);
 
-            String prevLine = null;
             String line;
             BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
 
@@ -204,26 +228,35 @@ public class SubProcessWrapper extends Wrapper
 
             while ((line = reader.readLine ()) != null) {
                 // fix nested logging...
-                if(line.matches(".*DEBUG.*")) {
-                    log.debug(line);
-                } else if(line.matches(".*WARN.*")) {
-                    log.warn(line);
-                } else if(line.matches(".*ERROR.*")) {
-                    log.error(line);
-                } else {
-                    log.info(line);
-                }
-                Matcher matcher = mResultPattern.matcher(line);
-                if(matcher.matches())
+                Util.logChildOutput(log, line);
+                //In case the result didn't make it over the channel
+                if(line.indexOf(RESULT_PREFIX) >= 0)
                 {
-                    time = Float.parseFloat(matcher.group(1));
-                    error = Float.parseFloat(matcher.group(2));
-                    foundMatch = true;
+                    Matcher matcher = mResultPattern.matcher(line);
+                    if(matcher.matches())
+                    {
+                        time = Float.parseFloat(matcher.group(1));
+                        error = Float.parseFloat(matcher.group(2));
+                        foundMatch = true;
+                    }
                 }
             }
             proc.waitFor();
+            events.stop();
+
+            EventChannel.Event event = result.get();
+            if(event != null)
+            {
+                time = (float)event.time;
+                error = (float)event.score;
+                foundMatch = true;
+            }
             if(!foundMatch)
+            {
+                if(childError.get() != null)
+                    throw new RuntimeException("Subprocess wrapper failed: " + childError.get());
                 throw new RuntimeException("Failed to find output line from subprocess wrapper");
+            }
 
             Runtime.getRuntime().removeShutdownHook(killerHook);
 
@@ -162,12 +162,9 @@ public class Trajectory
      */
     public void addPoint(Point newPoint)
     {
-        for(Point p: mPoints)
-        {
-            if(p.getTime() > newPoint.getTime())
-                throw new RuntimeException("Tried to add a point that occured earlier in time");
-
-        }
+        //The points are always in order, so the last one is the only one that could be later
+        if(!mPoints.isEmpty() && mPoints.get(mPoints.size() - 1).getTime() > newPoint.getTime())
+            throw new RuntimeException("Tried to add a point that occured earlier in time");
         mPoints.add(newPoint);
     }
 
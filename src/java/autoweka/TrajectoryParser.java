@@ -15,6 +15,36 @@ public abstract class TrajectoryParser
     /* Does the work for a specific trajectory */
     public abstract Trajectory parseTrajectory(Experiment experiment, File folder, String seed);
 
+    /**
+     * Follows a trajectory while the SMBO method is still going
+     */
+    public static interface Tail
+    {
+        /**
+         * Reads whatever the SMBO method has written out since the last poll
+         * @return The number of new points on the trajectory.
+         */
+        public int poll();
+
+        /**
+         * Gets the trajectory as of the last poll
+         * @return The trajectory.
+         */
+        public Trajectory getTrajectory();
+    }
+
+    /**
+     * Makes a Tail for a trajectory that's still being written, if this SMBO method can do that
+     * @param experiment The experiment.
+     * @param folder The experiment folder.
+     * @param seed The seed of the run.
+     * @return The tail, or null if the trajectory can only be parsed once the run is done.
+     */
+    public Tail createTail(Experiment experiment, File folder, String seed)
+    {
+        return null;
+    }
+
     final static Logger log = LoggerFactory.getLogger(TrajectoryParser.class);
 
     /** Call this on a specific experiment to automatically create the correct trajectory parser that will
@@ -85,13 +115,37 @@ public abstract class TrajectoryParser
             {
                 //We're only doing a specific seed
                 log.debug("Seed {}", targetSeed);
-                group.addTrajectory(getTrajectory(experiment, folder, targetSeed));
-                group.toXML(experimentPath + File.separator + folder.getName() + ".trajectories." + targetSeed);
+                saveTrajectory(experimentPath, targetSeed, getTrajectory(experiment, folder, targetSeed));
             }
         }
     }
 
+    /**
+     * Writes out the trajectory of a single seed, just like running this in single mode does
+     * @param experimentPath The experiment folder.
+     * @param seed The seed of the run.
+     * @param traj The trajectory.
+     */
+    public static void saveTrajectory(String experimentPath, String seed, Trajectory traj)
+    {
+        File folder = new File(experimentPath);
+        Experiment experiment = Experiment.fromXML(experimentPath + File.separator + folder.getName() + ".experiment");
+        TrajectoryGroup group = new TrajectoryGroup(experiment);
+        group.addTrajectory(traj);
+        group.toXML(experimentPath + File.separator + folder.getName() + ".trajectories." + seed);
+    }
+
     public static Trajectory getTrajectory(Experiment experiment, File folder, String seed)
+    {
+        return create(experiment).parseTrajectory(experiment, folder, seed);
+    }
+
+    /**
+     * Makes the right trajectory parser for an experiment
+     * @param experiment The experiment.
+     * @return The parser.
+     */
+    public static TrajectoryParser create(Experiment experiment)
     {
         //Get a Trajectory parser for this experiment
         TrajectoryParser parser;
@@ -110,7 +164,6 @@ public abstract class TrajectoryParser
             log.error(e.getMessage(), e);
             throw new RuntimeException("Failed to instantiate '" + experiment.trajectoryParserClassName + "': " + e, e);
         }
-
-        return parser.parseTrajectory(experiment, folder, seed);
+        return parser;
     }
 }
@@ -9,8 +9,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.net.URLDecoder;
 import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -746,6 +750,108 @@ public class Util
         return strings;
     }
 
+    /**
+     * Gets the SHA-1 hash of a string
+     * @param str The string.
+     * @return The hash, as hex.
+     */
+    static public String hashString(String str)
+    {
+        try
+        {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(str.getBytes("UTF-8")));
+        }
+        catch(Exception e)
+        {
+            throw new RuntimeException("Failed to hash string", e);
+        }
+    }
+
+    /**
+     * Converts some bytes into a hex string
+     * @param bytes The bytes.
+     * @return The hex string.
+     */
+    static public String toHex(byte[] bytes)
+    {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for(byte b: bytes)
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+    /**
+     * Resets the peak usage of all the heap memory pools, so that getPeakHeapUsage only covers what happens after this call.
+     *
+     * Note that the peaks are shared by the whole JVM, so when there are several evaluations going on at once they all get lumped together
+     */
+    public static void resetPeakHeapUsage()
+    {
+        for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if(pool.getType() == MemoryType.HEAP && pool.isValid())
+                pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * Gets the peak heap usage since the last call to resetPeakHeapUsage (or since the JVM started)
+     * @return The sum of the peak usage of each heap memory pool in bytes.
+     */
+    public static long getPeakHeapUsage()
+    {
+        long peak = 0;
+        for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if(pool.getType() == MemoryType.HEAP && pool.isValid())
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    /**
+     * The log levels that show up in the output of child processes
+     */
+    public static enum LogLevel
+    {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    /**
+     * Works out which level a line of log output from a child process was logged at.
+     *
+     * This is just a search for the level names (checked in the order DEBUG, INFO, WARN, ERROR), which is cheap enough to do on every line.
+     * @param line The line.
+     * @return The level, or null if the line doesn't have one.
+     */
+    public static LogLevel findLogLevel(String line)
+    {
+        for(LogLevel level: LogLevel.values())
+        {
+            if(line.indexOf(level.name()) >= 0)
+                return level;
+        }
+        return null;
+    }
+
+    /**
+     * Passes a line of log output from a child process on to our own log, at the level it was logged at (or info if it doesn't have one)
+     * @param log The log to pass it on to.
+     * @param line The line.
+     */
+    public static void logChildOutput(Logger log, String line)
+    {
+        LogLevel level = findLogLevel(line);
+        if(level == LogLevel.DEBUG)
+            log.debug(line);
+        else if(level == LogLevel.WARN)
+            log.warn(line);
+        else if(level == LogLevel.ERROR)
+            log.error(line);
+        else
+            log.info(line);
+    }
+
     public static class ProcessKillerShutdownHook extends Thread
     {
         private Process mProc;
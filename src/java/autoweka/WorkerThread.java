@@ -1,23 +1,64 @@
 package autoweka;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Generic WorkerThread that runs for a specific amount of time, then sends an interrupt to the work once a timeout has been hit - if the thread still doesn't stop, it gets killed hard
+ * Generic WorkerThread that runs for a specific amount of CPU time, then sends an interrupt to the work once a timeout has been hit - if the thread still doesn't stop, it gets killed hard
+ *
+ * The CPU time is measured for this thread alone (plus any WorkerThreads that it runs in turn), so any number of these can be going at once in the same JVM without
+ * eating into each other's budgets. Rather than polling, the caller sleeps until the work finishes or until the earliest point that the budget could possibly have run
+ * out. Killing the work unwinds its stack with Thread.stop() so that everything it was holding can be collected - on JVMs that don't support that anymore, the thread is
+ * left to die on its own as a daemon.
  */
 abstract class WorkerThread extends Thread
 {
     final Logger log = LoggerFactory.getLogger(WorkerThread.class);
 
-    private com.sun.management.OperatingSystemMXBean mOSBean = (com.sun.management.OperatingSystemMXBean) java.lang.management.ManagementFactory.getOperatingSystemMXBean();
-    private static final int msPollInterval = 5;
+    private static final ThreadMXBean msThreadBean = ManagementFactory.getThreadMXBean();
+    private static final boolean msCpuTimeSupported = enableThreadCpuTime();
     private static final float msTimeoutMultiplyer = 1.5f;
-    private static final float msWalltimeMultiplyer = 2.0f;
+    private static final long msInterruptGracePeriod = 1000;
 
     private volatile Exception mException = null;
     private volatile boolean mCompleted = false;
     private volatile boolean mTerminated = false;
+    private volatile boolean mFinished = false;
+    private volatile long mFinalCpuTime = -1;
+    private volatile long mStartWallTime = -1;
+
+    //WorkerThreads that were started from this one, their CPU time counts towards ours
+    private final List<WorkerThread> mChildren = new ArrayList<WorkerThread>();
+    private long mFinishedChildCpuTime = 0;
+    //Plain threads that the work has farmed some of itself out to
+    private volatile int mNumHelperThreads = 0;
+
+    public WorkerThread()
+    {
+        //If we ever have to abandon one of these, it shouldn't keep the JVM alive
+        setDaemon(true);
+    }
+
+    private static boolean enableThreadCpuTime()
+    {
+        try
+        {
+            if(!msThreadBean.isThreadCpuTimeSupported())
+                return false;
+            if(!msThreadBean.isThreadCpuTimeEnabled())
+                msThreadBean.setThreadCpuTimeEnabled(true);
+            return true;
+        }
+        catch(Exception e)
+        {
+            return false;
+        }
+    }
 
     /** The run method of the thread */
     public void run()
@@ -31,7 +72,13 @@ abstract class WorkerThread extends Thread
         } catch (Exception e) {
             mException = e;
         } catch (Throwable t) {
-            mException = new RuntimeException(t);
+            //If we killed it, the ThreadDeath isn't really a failure of the work
+            if(!mTerminated)
+                mException = new RuntimeException(t);
+        } finally {
+            if(msCpuTimeSupported)
+                mFinalCpuTime = msThreadBean.getCurrentThreadCpuTime();
+            mFinished = true;
         }
     }
 
@@ -65,13 +112,18 @@ abstract class WorkerThread extends Thread
     }
 
     /**
-     * Request that a job be stopped
+     * Request that a job be stopped - it gets interrupted, and if it's still going after a grace period it gets killed
      */
     public void terminate()
     {
-        mTerminated = true;
-        this.suspend();
-        this.setPriority(Thread.MIN_PRIORITY);
+        this.interrupt();
+        try {
+            this.join(msInterruptGracePeriod);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(this.isAlive())
+            kill();
     }
 
     /**
@@ -83,6 +135,110 @@ abstract class WorkerThread extends Thread
         return mTerminated;
     }
 
+    /**
+     * Gets how much CPU time this job (and any jobs it started) has used so far
+     * @return The time in nanoseconds.
+     */
+    public long getCpuTime()
+    {
+        if(mStartWallTime < 0)
+            return 0;
+        //Wall time already covers anything that the children are doing
+        if(!msCpuTimeSupported)
+            return System.nanoTime() - mStartWallTime;
+
+        long time = mFinalCpuTime;
+        if(time < 0)
+            time = Math.max(0, msThreadBean.getThreadCpuTime(getId()));
+        //The thread might have finished between those two checks
+        if(mFinalCpuTime > time)
+            time = mFinalCpuTime;
+
+        synchronized(mChildren)
+        {
+            time += mFinishedChildCpuTime;
+            for(WorkerThread child: mChildren)
+                time += child.getCpuTime();
+        }
+        return time;
+    }
+
+    /*
+     * How many threads might be burning through our budget at once
+     */
+    private int getNumActiveThreads()
+    {
+        int count = 1 + mNumHelperThreads;
+        synchronized(mChildren)
+        {
+            for(WorkerThread child: mChildren)
+                count += child.getNumActiveThreads();
+        }
+        return count;
+    }
+
+    /*
+     * If the work uses its own threads to get things done, it should say how many there are so that we keep a closer eye on the budget
+     */
+    protected void setNumHelperThreads(int numThreads)
+    {
+        mNumHelperThreads = numThreads;
+    }
+
+    /*
+     * Counts CPU time that was used by one of the work's own threads towards our budget
+     */
+    protected void addHelperCpuTime(long nanos)
+    {
+        synchronized(mChildren)
+        {
+            mFinishedChildCpuTime += nanos;
+        }
+    }
+
+    /*
+     * Gets the CPU time of whatever thread calls this, for handing to addHelperCpuTime
+     */
+    protected static long getCurrentThreadCpuTime()
+    {
+        //Without per thread times we're going on wall time, which covers the helpers already
+        return msCpuTimeSupported ? msThreadBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    private void addChild(WorkerThread child)
+    {
+        synchronized(mChildren)
+        {
+            mChildren.add(child);
+        }
+    }
+
+    private void removeChild(WorkerThread child)
+    {
+        synchronized(mChildren)
+        {
+            if(mChildren.remove(child))
+                mFinishedChildCpuTime += child.getCpuTime();
+        }
+    }
+
+    /*
+     * Unwinds the thread so that whatever it was holding onto can be freed
+     */
+    @SuppressWarnings("deprecation")
+    private void kill()
+    {
+        mTerminated = true;
+        try {
+            this.stop();
+            log.debug("{} killed", getOpName());
+        } catch(UnsupportedOperationException e) {
+            //Newer JVMs won't let us do this, so the best we can do is leave it to finish in the background
+            this.setPriority(Thread.MIN_PRIORITY);
+            log.debug("{} abandoned (it's still running - leaks are likely!)", getOpName());
+        }
+    }
+
     /**
      * Main way of using this class - you should tell it how long you want to run for, and it will return within some multiplier of that time
      * @param timeoutSeconds The timeout in seconds.
@@ -91,55 +247,63 @@ abstract class WorkerThread extends Thread
     float runWorker(float timeoutSeconds)
     {
         long timeout = (long)(timeoutSeconds * 1.0e9);
-        long wallTime = 0;
+        long limit = timeout;
+        boolean interrupted = false;
 
-        //Record the start time
-        long startTime = mOSBean.getProcessCpuTime();
-        this.start();
+        //If we're being run from another worker, our time is its time
+        Thread caller = Thread.currentThread();
+        WorkerThread parent = (caller instanceof WorkerThread) ? (WorkerThread)caller : null;
+        if(parent != null)
+            parent.addChild(this);
 
-        boolean interrupted = false;
-        boolean stopped = false;
-        long pollInterval = timeout / 1000000;
+        mStartWallTime = System.nanoTime();
+        this.start();
 
-        while(true)
+        try
         {
-            try {
-                this.join(pollInterval);
-                wallTime += pollInterval;
-                pollInterval = msPollInterval;
-            } catch(InterruptedException e) {
-                //If somehow we get the interrupted exception, we should abort
-                break;
-            }
-
-            //Did the sucker complete?
-            if(this.completed() || this.getException() != null)
+            while(true)
             {
-                log.debug("{} completed", getOpName());
-                break;
-            }
+                long used = getCpuTime();
+                if(mFinished || !this.isAlive())
+                {
+                    log.debug("{} completed", getOpName());
+                    break;
+                }
 
-            //Are we at a point where we need to kill the sucker?
-            if(!interrupted && (mOSBean.getProcessCpuTime() - startTime > timeout /*|| wallTime > timeout * mWalltimeMultiplyer*/))
-            {
-                //Try to interrupt the bugger
-                this.interrupt();
-                pollInterval = (long)(timeout * Math.max(0, (msTimeoutMultiplyer - 1)))/1000000;
-                log.debug("{} interrupted", getOpName());
-                interrupted = true;
-            }
-            else if(!stopped && (mOSBean.getProcessCpuTime() - startTime > timeout * msTimeoutMultiplyer /*|| wallTime > timeout * mWalltimeMultiplyer * mTimeoutMultiplyer*/))
-            {
-                //Try to interrupt the bugger
-                this.terminate();
-                log.debug("{} aborted (it's only been suspended - leaks are likely!)", getOpName());
-                stopped = true;
-                break;
+                if(used >= limit)
+                {
+                    if(!interrupted)
+                    {
+                        //Try to interrupt the bugger
+                        this.interrupt();
+                        limit = (long)(timeout * msTimeoutMultiplyer);
+                        log.debug("{} interrupted", getOpName());
+                        interrupted = true;
+                        continue;
+                    }
+                    //It didn't listen
+                    kill();
+                    this.join(msInterruptGracePeriod);
+                    break;
+                }
+
+                //We can't use CPU faster than wall time (per thread), so there's nothing to check until then
+                long waitMillis = Math.max(1, (limit - used) / 1000000 / getNumActiveThreads());
+                this.join(waitMillis);
             }
         }
-        long stopTime = mOSBean.getProcessCpuTime();
-        return (stopTime - startTime) * 1e-9f;
-    }
+        catch(InterruptedException e)
+        {
+            //Whoever is waiting on us wants us gone, so pass that along to the work (and whatever it's waiting on) before we abort
+            terminate();
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            if(parent != null)
+                parent.removeChild(this);
+        }
 
+        return getCpuTime() * 1e-9f;
+    }
 }
-
@@ -17,7 +17,12 @@ import org.slf4j.LoggerFactory;
  *  The command line arguments for these wrappers consist of two portions, a number of options that specify seeds/properties that relate to the wrapper itself,
  *  followed by the -wrapper argument. Depending on the SMBO method, this is where you specify the datasetString that you want to pass off to the InstanceGenerator,
  *  along with any other options that are required. The remainder of the arguments after the sub classes have processed the -wrapper are going to be passed off to the classifier
- *  runner for evaluation.
+ *  runner for evaluation. Before the -wrapper, '-qualityCap value' (or the 'qualityCap' property) lets the optimizer say that it doesn't care about
+ *  any score above the given value, so the evaluation can be stopped as soon as it's clear that the score will end up above it.
+ *
+ *  Nothing sets the cap on its own for a plain SMACWrapper - SMAC doesn't pass one, and there's no incumbent to work one out from when each
+ *  process only sees one fold. So it only takes effect when a MultiInstanceWrapper is racing (or was given a cap), which hands each fold the cap
+ *  that FoldRacer works out, or when it's set by hand.
  *
  *  There are a number of 'events' that occur during the run of a wrapper - if you need to do something special here you should just be able to override these and inject the correct
  *  behaviour as needed
@@ -30,6 +35,8 @@ public class Wrapper
     protected ClassifierRunner mRunner;
     protected Properties mProperties;
     protected String mResultMetric = null;
+    //Evaluations stop as soon as they can't get a score under this
+    protected double mQualityCap = Double.POSITIVE_INFINITY;
 
     final Logger log = LoggerFactory.getLogger(Wrapper.class);
 
@@ -86,6 +93,11 @@ public class Wrapper
                     wrapperConstructorArgs.add(args.poll());
                     continue;
                 }
+                else if(arg.equals("-qualityCap"))
+                {
+                    mQualityCap = Double.parseDouble(args.poll());
+                    continue;
+                }
                 //Otherwise, ask the subclass if they want this
                 _processParameter(arg, args);
             }
@@ -129,11 +141,15 @@ public class Wrapper
             mResultMetric = "errorRate";
         }
 
+        //The cap can also come in through the properties, which is handy for sub processes
+        if(mProperties.containsKey("qualityCap"))
+            mQualityCap = Math.min(mQualityCap, Double.parseDouble(mProperties.getProperty("qualityCap")));
+
         //Let the wrapper do anything ahead of time that would be good
         _preRun();
 
         //Build the classifier runner
-        mRunner = new ClassifierRunner(mProperties);
+        mRunner = _createRunner(mProperties);
 
         ClassifierResult res = _doRun(wrapperArgs);
 
@@ -144,10 +160,23 @@ public class Wrapper
         //Post event
         _postRun();
 
+        //Let whoever started the run know about it, if they're listening
+        EventChannel.send(EventChannel.Event.evaluation(mExperimentSeed, res.getScore(), res.getTime(), res.getCompleted(), Util.joinStrings(" ", wrapperArgs)));
+
         //Process the result
         _processResults(res);
     }
 
+    /*
+     * Creates the ClassifierRunner that will be used for this invocation.
+     *
+     * Override this if the runner (and the dataset that it loads) can be reused between invocations in the same JVM
+     */
+    protected ClassifierRunner _createRunner(Properties props)
+    {
+        return new ClassifierRunner(props);
+    }
+
     /*
      * Actually does the run of the Classifier Runner.
      *
@@ -165,17 +194,45 @@ public class Wrapper
             log.trace("Adding arg {}", s);
         }
 
+        //Have we already done this one?
+        ResultCache cache = _canUseResultCache() ? ResultCache.get(mProperties) : null;
+        String cacheKey = null;
+        if(cache != null)
+        {
+            cacheKey = ResultCache.getKey(mRunner.getInstanceGenerator().getFingerprint(), runnerArgs, mInstance, mResultMetric);
+            ClassifierResult cached = cache.lookup(cacheKey, mResultMetric);
+            if(cached != null)
+            {
+                log.info("Using cached result for {} on {}: {}", runnerArgs, mInstance, cached.getRawScore());
+                return cached;
+            }
+        }
+
         try {
-            res = mRunner.run(mInstance, mResultMetric, mTimeout, mExperimentSeed, runnerArgs);
+            res = mRunner.run(mInstance, mResultMetric, mTimeout, mExperimentSeed, runnerArgs, mQualityCap);
         } catch (Throwable e) {
             log.error(e.getMessage(), e);
+            EventChannel.send(EventChannel.Event.error(mExperimentSeed, e.toString()));
             long stopTime = OSBean.getProcessCpuTime();
             res.setTrainingTime(1.0f + ((stopTime - startTime) * 1e-9f));
         }
 
+        if(cache != null && res != null)
+            cache.store(cacheKey, res);
+
         return res;
     }
 
+    /*
+     * Checks if a result can come out of the ResultCache - this isn't the case when whoever called us wants the trained model, the fold models or predictions
+     */
+    protected boolean _canUseResultCache()
+    {
+        return !mProperties.containsKey("modelOutputFilePrefix") && !mProperties.containsKey("predictionsFileName") &&
+               !mProperties.containsKey("extraRun0") && !Boolean.valueOf(mProperties.getProperty("onlyTest", "false")) &&
+               !Boolean.valueOf(mProperties.getProperty("foldEnsemble", "false"));
+    }
+
     /*
      * Override this when you want to get at parameters as soon as you hit the -wrapper.
      *
@@ -0,0 +1,352 @@
+package autoweka;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * Compact binary version of what XmlSerializable writes out as XML, for the big files (like trajectory groups) that take a long time to parse.
+ *
+ * It works off the same @XmlElement fields that JAXB uses, so anything that can go to XML can go to this as well. The fields of a class get
+ * written in order of their element names, with nothing but the values themselves. The start of the file has a fingerprint of all the field
+ * names and types that are reachable from the root class, so a file that was written by a different version of the classes gets refused
+ * rather than read back as garbage - the XML is still the format to use for anything that has to last.
+ *
+ * Supported field types are the primitives, String, int[], double[], Lists of those (boxed) and nested classes with @XmlElement fields of
+ * their own.
+ */
+class XmlBinaryCodec
+{
+    /** The first four bytes of every binary file ('AWBX') */
+    static final int MAGIC = 0x41574258;
+    static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Set<Class<?>> msSupported = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+        Integer.class, Double.class, Float.class, String.class));
+
+    private static final ConcurrentHashMap<Class<?>, Field[]> msFields = new ConcurrentHashMap<Class<?>, Field[]>();
+    private static final ConcurrentHashMap<Class<?>, Long> msFingerprints = new ConcurrentHashMap<Class<?>, Long>();
+
+    /**
+     * Checks to see if a stream is in the binary format, without taking anything out of it
+     * @param in The stream, which has to support mark.
+     * @return True if it's binary.
+     * @throws IOException if the stream can't be read.
+     */
+    static boolean isBinary(BufferedInputStream in) throws IOException
+    {
+        in.mark(4);
+        int magic = 0;
+        int i = 0;
+        for(; i < 4; i++)
+        {
+            int b = in.read();
+            if(b < 0)
+                break;
+            magic = (magic << 8) | b;
+        }
+        in.reset();
+        return i == 4 && magic == MAGIC;
+    }
+
+    static void write(Object obj, OutputStream stream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(getFingerprint(obj.getClass()));
+        writeObject(out, obj);
+        out.flush();
+    }
+
+    static <T> T read(InputStream stream, Class<T> c) throws IOException
+    {
+        DataInputStream in = new DataInputStream(stream);
+        if(in.readInt() != MAGIC)
+            throw new IOException("Not a binary " + c.getSimpleName());
+        int version = in.readInt();
+        if(version != VERSION)
+            throw new IOException("Unsupported binary version " + version);
+        if(in.readLong() != getFingerprint(c))
+            throw new IOException("Binary " + c.getSimpleName() + " was written by a different version of the class");
+        return c.cast(readObject(in, c));
+    }
+
+    private static void writeObject(DataOutputStream out, Object obj) throws IOException
+    {
+        out.writeBoolean(obj != null);
+        if(obj == null)
+            return;
+        try
+        {
+            for(Field f: getFields(obj.getClass()))
+                writeValue(out, f.getType(), f.getGenericType(), f.get(obj));
+        }
+        catch(IllegalAccessException e)
+        {
+            throw new RuntimeException("Failed to get field of " + obj.getClass().getName(), e);
+        }
+    }
+
+    private static Object readObject(DataInputStream in, Class<?> c) throws IOException
+    {
+        if(!in.readBoolean())
+            return null;
+        try
+        {
+            Constructor<?> ctor = c.getDeclaredConstructor();
+            ctor.setAccessible(true);
+            Object obj = ctor.newInstance();
+            for(Field f: getFields(c))
+                f.set(obj, readValue(in, f.getType(), f.getGenericType()));
+            return obj;
+        }
+        catch(IOException e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new RuntimeException("Failed to create a " + c.getName(), e);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Class<?> type, Type genericType, Object value) throws IOException
+    {
+        //Boxed numbers get a flag for null, and then go the same way as the primitives
+        if(type == Integer.class || type == Double.class || type == Float.class)
+        {
+            out.writeBoolean(value != null);
+            if(value == null)
+                return;
+            type = type == Integer.class ? int.class : type == Double.class ? double.class : float.class;
+        }
+
+        if(type == int.class)
+        {
+            out.writeInt((Integer)value);
+        }
+        else if(type == double.class)
+        {
+            out.writeDouble((Double)value);
+        }
+        else if(type == float.class)
+        {
+            out.writeFloat((Float)value);
+        }
+        else if(type == long.class)
+        {
+            out.writeLong((Long)value);
+        }
+        else if(type == short.class)
+        {
+            out.writeShort((Short)value);
+        }
+        else if(type == boolean.class)
+        {
+            out.writeBoolean((Boolean)value);
+        }
+        else if(type == String.class)
+        {
+            if(value == null)
+            {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = ((String)value).getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if(type == int[].class)
+        {
+            int[] array = (int[])value;
+            out.writeInt(array == null ? -1 : array.length);
+            for(int i = 0; array != null && i < array.length; i++)
+                out.writeInt(array[i]);
+        }
+        else if(type == double[].class)
+        {
+            double[] array = (double[])value;
+            out.writeInt(array == null ? -1 : array.length);
+            for(int i = 0; array != null && i < array.length; i++)
+                out.writeDouble(array[i]);
+        }
+        else if(List.class.isAssignableFrom(type))
+        {
+            List<?> list = (List<?>)value;
+            out.writeInt(list == null ? -1 : list.size());
+            if(list == null)
+                return;
+            Class<?> elementType = getElementType(genericType);
+            for(Object o: list)
+                writeValue(out, elementType, elementType, o);
+        }
+        else
+        {
+            writeObject(out, value);
+        }
+    }
+
+    private static Object readValue(DataInputStream in, Class<?> type, Type genericType) throws IOException
+    {
+        if(type == int.class)
+            return in.readInt();
+        if(type == double.class)
+            return in.readDouble();
+        if(type == float.class)
+            return in.readFloat();
+        if(type == long.class)
+            return in.readLong();
+        if(type == short.class)
+            return in.readShort();
+        if(type == boolean.class)
+            return in.readBoolean();
+        if(type == Integer.class)
+            return in.readBoolean() ? in.readInt() : null;
+        if(type == Double.class)
+            return in.readBoolean() ? in.readDouble() : null;
+        if(type == Float.class)
+            return in.readBoolean() ? in.readFloat() : null;
+        if(type == String.class)
+        {
+            int length = in.readInt();
+            if(length < 0)
+                return null;
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, UTF8);
+        }
+        if(type == int[].class)
+        {
+            int length = in.readInt();
+            if(length < 0)
+                return null;
+            int[] array = new int[length];
+            for(int i = 0; i < length; i++)
+                array[i] = in.readInt();
+            return array;
+        }
+        if(type == double[].class)
+        {
+            int length = in.readInt();
+            if(length < 0)
+                return null;
+            double[] array = new double[length];
+            for(int i = 0; i < length; i++)
+                array[i] = in.readDouble();
+            return array;
+        }
+        if(List.class.isAssignableFrom(type))
+        {
+            int size = in.readInt();
+            if(size < 0)
+                return null;
+            Class<?> elementType = getElementType(genericType);
+            ArrayList<Object> list = new ArrayList<Object>(size);
+            for(int i = 0; i < size; i++)
+                list.add(readValue(in, elementType, elementType));
+            return list;
+        }
+        return readObject(in, type);
+    }
+
+    private static Class<?> getElementType(Type genericType)
+    {
+        if(!(genericType instanceof ParameterizedType))
+            throw new RuntimeException("Can't encode a list without knowing what's in it: " + genericType);
+        return (Class<?>)((ParameterizedType)genericType).getActualTypeArguments()[0];
+    }
+
+    /*
+     * All the @XmlElement fields of a class (and its parents), sorted by their element name
+     */
+    private static Field[] getFields(Class<?> c)
+    {
+        Field[] fields = msFields.get(c);
+        if(fields != null)
+            return fields;
+
+        List<Field> list = new ArrayList<Field>();
+        for(Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass())
+        {
+            for(Field f: k.getDeclaredFields())
+            {
+                if(Modifier.isStatic(f.getModifiers()) || f.getAnnotation(XmlElement.class) == null)
+                    continue;
+                Class<?> type = List.class.isAssignableFrom(f.getType()) ? getElementType(f.getGenericType()) : f.getType();
+                if(List.class.isAssignableFrom(f.getType()) && !f.getType().isAssignableFrom(ArrayList.class) ||
+                   type.getName().startsWith("java.") && !msSupported.contains(type))
+                    throw new RuntimeException("Can't encode a " + f.getGenericType() + " in " + c.getName());
+                f.setAccessible(true);
+                list.add(f);
+            }
+        }
+        fields = list.toArray(new Field[list.size()]);
+        Arrays.sort(fields, new Comparator<Field>(){
+            public int compare(Field a, Field b)
+            {
+                return a.getAnnotation(XmlElement.class).name().compareTo(b.getAnnotation(XmlElement.class).name());
+            }
+        });
+        msFields.put(c, fields);
+        return fields;
+    }
+
+    private static long getFingerprint(Class<?> c)
+    {
+        Long fingerprint = msFingerprints.get(c);
+        if(fingerprint == null)
+        {
+            StringBuilder sb = new StringBuilder();
+            describe(c, sb, new HashSet<Class<?>>());
+            //A 64 bit FNV-1a of the description
+            long hash = 0xcbf29ce484222325L;
+            for(byte b: sb.toString().getBytes(UTF8))
+            {
+                hash ^= (b & 0xff);
+                hash *= 0x100000001b3L;
+            }
+            fingerprint = hash;
+            msFingerprints.put(c, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private static void describe(Class<?> c, StringBuilder sb, Set<Class<?>> seen)
+    {
+        sb.append(c.getName()).append('{');
+        if(seen.add(c))
+        {
+            for(Field f: getFields(c))
+            {
+                Class<?> type = f.getType();
+                if(List.class.isAssignableFrom(type))
+                    type = getElementType(f.getGenericType());
+                sb.append(f.getAnnotation(XmlElement.class).name()).append(':').append(f.getGenericType()).append(';');
+                if(!type.isPrimitive() && !type.isArray() && !type.getName().startsWith("java."))
+                    describe(type, sb, seen);
+            }
+        }
+        sb.append('}');
+    }
+}
@@ -1,13 +1,16 @@
 package autoweka;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintStream;
 
 import javax.xml.bind.annotation.*;
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.Marshaller;
 import java.lang.reflect.Field;
@@ -21,26 +24,61 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Helper class to make objects easily be read to/from XML, as well as specifying them on the command line
+ *
+ * The JAXB contexts are expensive to make, so there's only ever one for each class, and each thread keeps its own marshallers for them.
+ * Files that end in '.bin' get written in a compact binary format instead of XML (see XmlBinaryCodec), which is a lot faster to load for big
+ * things like trajectory groups. Either format can be read back by any of the fromXML methods.
  */
 public class XmlSerializable
 {
     final static Logger log = LoggerFactory.getLogger(XmlSerializable.class);
 
+    /** The file extension that gets the binary format */
+    public static final String BINARY_EXTENSION = ".bin";
+
+    private static final Map<Class<?>, JAXBContext> msContexts = new ConcurrentHashMap<Class<?>, JAXBContext>();
+
+    private static final ThreadLocal<Map<Class<?>, Marshaller>> msMarshallers = new ThreadLocal<Map<Class<?>, Marshaller>>(){
+        protected Map<Class<?>, Marshaller> initialValue()
+        {
+            return new HashMap<Class<?>, Marshaller>();
+        }
+    };
+
+    private static final ThreadLocal<Map<Class<?>, Unmarshaller>> msUnmarshallers = new ThreadLocal<Map<Class<?>, Unmarshaller>>(){
+        protected Map<Class<?>, Unmarshaller> initialValue()
+        {
+            return new HashMap<Class<?>, Unmarshaller>();
+        }
+    };
+
     /**
-     * Spits out the class to the given XML file
+     * Spits out the class to the given XML file, or a binary file if the name ends in BINARY_EXTENSION
      * @param filename The name of the file to write.
      */
     public void toXML(String filename)
     {
         try
         {
-            toXML(new PrintStream(new java.io.File(filename)));
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(filename));
+            try
+            {
+                if(filename.endsWith(BINARY_EXTENSION))
+                    XmlBinaryCodec.write(this, stream);
+                else
+                    toXML(stream);
+            }
+            finally
+            {
+                stream.close();
+            }
         }
         catch (Exception e)
         {
@@ -56,10 +94,7 @@ public class XmlSerializable
     {
         try
         {
-            JAXBContext context = JAXBContext.newInstance(this.getClass());
-            Marshaller m = context.createMarshaller();
-            m.setProperty("jaxb.formatted.output", Boolean.TRUE);
-            m.marshal(this, stream);
+            getMarshaller(this.getClass()).marshal(this, stream);
         }
         catch (Exception e)
         {
@@ -78,7 +113,15 @@ public class XmlSerializable
     {
         try
         {
-            return XmlSerializable.<T>fromXML(new FileInputStream(new File(filename)), c);
+            InputStream stream = new FileInputStream(new File(filename));
+            try
+            {
+                return XmlSerializable.<T>fromXML(stream, c);
+            }
+            finally
+            {
+                stream.close();
+            }
         }
         catch(Exception e)
         {
@@ -89,7 +132,7 @@ public class XmlSerializable
     
     /**
      * Spits out an object from the given XML file with the given class
-     * @param xml The input stream to read.
+     * @param xml The input stream to read, which can be XML or binary.
      * @param c The class.
      * @param <T> The type of the class.
      * @return The read object.
@@ -98,9 +141,10 @@ public class XmlSerializable
     {
         try
         {
-            JAXBContext context = JAXBContext.newInstance(c);
-            Unmarshaller um = context.createUnmarshaller();
-            return (T)um.unmarshal(xml);
+            BufferedInputStream stream = new BufferedInputStream(xml);
+            if(XmlBinaryCodec.isBinary(stream))
+                return XmlBinaryCodec.read(stream, c);
+            return (T)getUnmarshaller(c).unmarshal(stream);
         }
         catch (Exception e)
         {
@@ -108,6 +152,49 @@ public class XmlSerializable
         }
     }
 
+    /**
+     * Gets the JAXB context for a class, which gets made the first time it's asked for
+     * @param c The class.
+     * @return The context.
+     * @throws JAXBException if the class can't be bound.
+     */
+    public static JAXBContext getContext(Class<?> c) throws JAXBException
+    {
+        JAXBContext context = msContexts.get(c);
+        if(context == null)
+        {
+            //Two threads might both make one, which doesn't hurt anything
+            context = JAXBContext.newInstance(c);
+            msContexts.put(c, context);
+        }
+        return context;
+    }
+
+    private static Marshaller getMarshaller(Class<?> c) throws JAXBException
+    {
+        Map<Class<?>, Marshaller> marshallers = msMarshallers.get();
+        Marshaller m = marshallers.get(c);
+        if(m == null)
+        {
+            m = getContext(c).createMarshaller();
+            m.setProperty("jaxb.formatted.output", Boolean.TRUE);
+            marshallers.put(c, m);
+        }
+        return m;
+    }
+
+    private static Unmarshaller getUnmarshaller(Class<?> c) throws JAXBException
+    {
+        Map<Class<?>, Unmarshaller> unmarshallers = msUnmarshallers.get();
+        Unmarshaller um = unmarshallers.get(c);
+        if(um == null)
+        {
+            um = getContext(c).createUnmarshaller();
+            unmarshallers.put(c, um);
+        }
+        return um;
+    }
+
     /**
      * Given a list of command line arguments which have the same name as the XML nodes, populate me an object with the values filled in
      * @param obj The object to populate.
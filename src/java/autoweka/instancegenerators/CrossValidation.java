@@ -12,7 +12,7 @@ import weka.core.Instances;
  * Splits the training data up into CV folds with a given seed.
  *
  * instanceGeneratorArguments: A property string with:
- *   seed - The seed to use for splitting up the training data
+ *   seed - The seed to use for splitting up the training data, or {SEED} to use the seed of the experiment run
  *   numFolds - The number of folds to make
  *
  * instance string format:
@@ -51,10 +51,23 @@ public class CrossValidation extends InstanceGenerator
         return getInstances(false,  Util.parsePropertyString(paramString));
     }
 
+    protected Instances _getTestingViewFromParams(String paramString)
+    {
+        return getTrainingSubsetView(getFoldIndices(false, Util.parsePropertyString(paramString)));
+    }
+
     //protected Instances getInstances(boolean trainingFold, Instances instances, Properties params)
     protected Instances getInstances(boolean trainingFold, Properties params)
     {
-        int seed = Integer.parseInt(params.getProperty("seed", "0"));
+        return getTrainingSubset(getFoldIndices(trainingFold, params));
+    }
+
+    /*
+     * Gets the indices of the training data that are in the training or testing part of a fold
+     */
+    private int[] getFoldIndices(boolean trainingFold, Properties params)
+    {
+        final int seed = Integer.parseInt(params.getProperty("seed", "0"));
         int numFolds = Integer.parseInt(params.getProperty("numFolds", "-1"));
         int currentFold = Integer.parseInt(params.getProperty("fold", "-1"));
 
@@ -64,23 +77,66 @@ public class CrossValidation extends InstanceGenerator
         if(currentFold < 0|| numFolds <= currentFold)
             throw new RuntimeException("fold must be set to something in [0," + (numFolds - 1) + "]");
 
-        Random rand = new Random(seed);
-        Instances randData = getTraining(); //@TODO Looks fishy. Take a peek later.
-        randData.randomize(rand);
+        //The order that the training data would be in after calling randomize with the seed
+        int[] order = getIndexPlan("cv-seed" + seed, new IndexPlanBuilder(){
+            public int[] build(Instances training)
+            {
+                return getRandomizedOrder(training.numInstances(), new Random(seed));
+            }
+        });
 
-        if(trainingFold)
-            return randData.trainCV(numFolds, currentFold);
-        else
-            return randData.testCV(numFolds, currentFold);
+        //Same split as trainCV/testCV
+        int numInstances = order.length;
+        int numInstForFold = numInstances / numFolds;
+        int offset;
+        if(currentFold < numInstances % numFolds){
+            numInstForFold++;
+            offset = currentFold;
+        }else{
+            offset = numInstances % numFolds;
+        }
+        int first = currentFold * (numInstances / numFolds) + offset;
+
+        int[] indices;
+        if(trainingFold){
+            indices = new int[numInstances - numInstForFold];
+            System.arraycopy(order, 0, indices, 0, first);
+            System.arraycopy(order, first + numInstForFold, indices, first, numInstances - first - numInstForFold);
+        }else{
+            indices = new int[numInstForFold];
+            System.arraycopy(order, first, indices, 0, numInstForFold);
+        }
+        return indices;
+    }
+
+    /*
+     * Gets the permutation that Instances.randomize would apply with the given random
+     */
+    static int[] getRandomizedOrder(int numInstances, Random rand)
+    {
+        int[] order = new int[numInstances];
+        for(int i = 0; i < numInstances; i++)
+            order[i] = i;
+        for(int j = numInstances - 1; j > 0; j--)
+        {
+            int k = rand.nextInt(j + 1);
+            int tmp = order[j];
+            order[j] = order[k];
+            order[k] = tmp;
+        }
+        return order;
     }
 
     public List<String> getAllInstanceStrings(String paramStr)
     {
         Properties params = Util.parsePropertyString(paramStr);
 
-        int seed, numFolds;
+        //The seed can be left as {SEED}, which the wrapper fills in with the experiment seed
+        String seed = params.getProperty("seed", "0");
+        int numFolds;
         try{
-            seed = Integer.parseInt(params.getProperty("seed", "0"));
+            if(!"{SEED}".equals(seed))
+                Integer.parseInt(seed);
         }catch(Exception e){
             throw new RuntimeException("Failed to parse seed", e);
         }
@@ -28,6 +28,10 @@ public class Default extends InstanceGenerator
     {
         return getTesting();
     }
+    protected Instances _getTestingViewFromParams(String params)
+    {
+        return getTestingView();
+    }
     public List<String> getAllInstanceStrings(String paramStr)
     {
         return Collections.singletonList("default");
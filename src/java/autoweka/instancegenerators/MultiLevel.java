@@ -1,6 +1,7 @@
 package autoweka.instancegenerators;
 
 import autoweka.InstanceGenerator;
+import weka.core.Attribute;
 import weka.core.Instances;
 import weka.filters.supervised.instance.Resample;
 import autoweka.Util;
@@ -61,17 +62,28 @@ public class MultiLevel extends RandomSubSampling
     {
         InstanceGenerator.NestedArgs args = new InstanceGenerator.NestedArgs(params);
         InstanceGenerator child = InstanceGenerator.create(args.child, getInstancesFromParamsForSubClass(args.current, false), getInstancesFromParamsForSubClass(args.current, true));
-        log.debug("{} {} {}", getTraining().numInstances(), child.getTrainingFromParams(args.instance).numInstances(), child.getTestingFromParams(args.instance).numInstances());
+        if(log.isDebugEnabled())
+            log.debug("{} {} {}", getTrainingView().numInstances(), child.getTrainingFromParams(args.instance).numInstances(), child.getTestingViewFromParams(args.instance).numInstances());
         return child.getTestingFromParams(args.instance);
     }
 
+    protected Instances _getTestingViewFromParams(String params)
+    {
+        InstanceGenerator.NestedArgs args = new InstanceGenerator.NestedArgs(params);
+        InstanceGenerator child = InstanceGenerator.create(args.child, getInstancesFromParamsForSubClass(args.current, false), getInstancesFromParamsForSubClass(args.current, true));
+        return child.getTestingViewFromParams(args.instance);
+    }
+
     private Instances getInstancesFromParamsForSubClass(String params, boolean invert)
     {
         Resample filter = newFilter();
         filter.setInvertSelection(false);
         int level = setFilterParams(filter, params);
 
-        Instances instances = getTraining();
+        //The filter only reads its input, so there's no need to copy the training data (unless it needs to fix up string/relational values in place)
+        Instances instances = getTrainingView();
+        if(instances.checkForStringAttributes() || instances.checkForAttributeType(Attribute.RELATIONAL))
+            instances = getTraining();
         for(int i = 0; i <= level-1; i++)
             instances = getInstances(instances, filter);
 
@@ -4,6 +4,8 @@ import autoweka.InstanceGenerator;
 
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.filters.supervised.instance.Resample;
@@ -124,26 +126,72 @@ public class RandomSubSampling extends InstanceGenerator
 
     public Instances _getTrainingFromParams(String params)
     {
-        Resample filter = newFilter();
-        filter.setInvertSelection(false);
-        setFilterParams(filter, params);
-        return getInstances(getTraining(), filter);
+        return getTrainingSubset(getSubsamplePlan(params, false));
     }
 
     public Instances _getTestingFromParams(String params)
     {
         //Get the instances filtered (Not we use the training data here)
-        Resample filter = newFilter();
-        filter.setInvertSelection(true);
-        setFilterParams(filter, params);
+        return getTrainingSubset(getSubsamplePlan(params, true));
+    }
+
+    protected Instances _getTestingViewFromParams(String params)
+    {
+        return getTrainingSubsetView(getSubsamplePlan(params, true));
+    }
 
-        return getInstances(getTraining(), filter);
+    /*
+     * Gets the indices that the Resample filter would pick out of the training data.
+     *
+     * Rather than pushing the whole dataset through the filter, we run it over a copy that only contains the row index and the class, since that's all that the filter looks at
+     */
+    private int[] getSubsamplePlan(final String params, final boolean invert)
+    {
+        Properties props = Util.parsePropertyString(params);
+        String name = "rss-seed" + props.getProperty("seed", "0") + "-percent" + props.getProperty("percent", "70") + "-base" + props.getProperty("base", "0") + (invert ? "-test" : "-train");
+        return getIndexPlan(name, new IndexPlanBuilder(){
+            public int[] build(Instances training)
+            {
+                Instances indexed = getIndexedClassProjection(training);
+                Resample filter = newFilter(indexed);
+                filter.setInvertSelection(invert);
+                setFilterParams(filter, params);
+                Instances selected = getInstances(indexed, filter);
+
+                int[] plan = new int[selected.numInstances()];
+                for(int i = 0; i < plan.length; i++)
+                    plan[i] = (int)selected.instance(i).value(0);
+                return plan;
+            }
+        });
+    }
+
+    /*
+     * Makes a copy of the data that just contains the index of each row along with its class and weight
+     */
+    private static Instances getIndexedClassProjection(Instances data)
+    {
+        ArrayList<Attribute> atts = new ArrayList<Attribute>(2);
+        atts.add(new Attribute("__index__"));
+        atts.add((Attribute)data.classAttribute().copy());
+        Instances indexed = new Instances(data.relationName(), atts, data.numInstances());
+        indexed.setClassIndex(1);
+        for(int i = 0; i < data.numInstances(); i++)
+        {
+            Instance inst = data.instance(i);
+            indexed.add(new DenseInstance(inst.weight(), new double[]{i, inst.classValue()}));
+        }
+        return indexed;
     }
 
     protected final Resample newFilter(){
+        return newFilter(getTrainingView());
+    }
+
+    protected final Resample newFilter(Instances data){
         Resample filter = new Resample();
         try{
-            filter.setInputFormat(getTraining());
+            filter.setInputFormat(data);
         }catch(Exception e){
             filter = new RegressionResample();
         }
@@ -0,0 +1,208 @@
+package autoweka.smac;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ca.ubc.cs.beta.aeatk.algorithmrunconfiguration.AlgorithmRunConfiguration;
+import ca.ubc.cs.beta.aeatk.algorithmrunresult.AlgorithmRunResult;
+import ca.ubc.cs.beta.aeatk.algorithmrunresult.ExistingAlgorithmRunResult;
+import ca.ubc.cs.beta.aeatk.algorithmrunresult.RunStatus;
+import ca.ubc.cs.beta.aeatk.parameterconfigurationspace.ParameterConfiguration;
+import ca.ubc.cs.beta.aeatk.targetalgorithmevaluator.AbstractSyncTargetAlgorithmEvaluator;
+import ca.ubc.cs.beta.aeatk.targetalgorithmevaluator.TargetAlgorithmEvaluatorRunObserver;
+
+import autoweka.ClassifierResult;
+import autoweka.ClassifierRunner;
+import autoweka.Util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A SMAC TargetAlgorithmEvaluator that runs the Auto-WEKA evaluations inside the SMAC JVM, rather than forking off a SMACWrapper for every run.
+ *
+ * The 'algo' line of the scenario is still parsed exactly like SMAC would, and all of the arguments after the wrapper class name are handed to a
+ * SMACWrapper that passes the ClassifierResult straight back, rather than printing it out so that SMAC can parse it again. ClassifierRunners
+ * are shared between runs, so the dataset only gets loaded once.
+ *
+ * Classifiers that aren't safe to run in process (ie. ones that leak memory or threads when they get terminated) can be listed in the
+ * --autoweka-subprocess-classifiers option, these get run through the 'algo' command line just like the regular SMAC evaluator would do.
+ */
+public class AutoWEKATargetAlgorithmEvaluator extends AbstractSyncTargetAlgorithmEvaluator
+{
+    final static Logger log = LoggerFactory.getLogger(AutoWEKATargetAlgorithmEvaluator.class);
+
+    private static Pattern mResultPattern = Pattern.compile(".*Result for ParamILS: ([A-Z]+), ([^,]+), ([^,]+), ([^,]+), ([^,]+)(, (.*))?");
+
+    private Set<String> mSubProcessClassifiers = new HashSet<String>();
+
+    public AutoWEKATargetAlgorithmEvaluator(AutoWEKATargetAlgorithmEvaluatorOptions options)
+    {
+        super(options.threads);
+        for(String cls: options.subProcessClassifiers.split(","))
+        {
+            if(!cls.trim().isEmpty())
+                mSubProcessClassifiers.add(cls.trim());
+        }
+    }
+
+    @Override
+    public List<AlgorithmRunResult> evaluateRun(List<AlgorithmRunConfiguration> runConfigs, TargetAlgorithmEvaluatorRunObserver obs)
+    {
+        List<AlgorithmRunResult> results = new ArrayList<AlgorithmRunResult>(runConfigs.size());
+        for(AlgorithmRunConfiguration rc: runConfigs)
+        {
+            results.add(evaluate(rc));
+        }
+        return results;
+    }
+
+    private AlgorithmRunResult evaluate(AlgorithmRunConfiguration rc)
+    {
+        List<String> command = getCommand(rc);
+        String targetClass = rc.getParameterConfiguration().get("targetclass");
+        if(targetClass != null && mSubProcessClassifiers.contains(targetClass))
+            return evaluateInSubProcess(rc, command);
+
+        //Everything after the wrapper class name is for the wrapper
+        int wrapperIndex = command.indexOf("-cp") + 2;
+        if(wrapperIndex < 2 || wrapperIndex >= command.size())
+            throw new RuntimeException("Failed to find the wrapper class in the algo command line");
+
+        InProcessWrapper wrapper = new InProcessWrapper();
+        try
+        {
+            List<String> wrapperArgs = command.subList(wrapperIndex + 1, command.size());
+            wrapper.run(wrapperArgs.toArray(new String[0]));
+        }
+        catch(Throwable e)
+        {
+            log.error("In process evaluation failed: " + e.getMessage(), e);
+            return new ExistingAlgorithmRunResult(rc, RunStatus.CRASHED, 0, 0, 0, rc.getProblemInstanceSeedPair().getSeed(), "" + e.getMessage());
+        }
+        return wrapper.getRunResult(rc);
+    }
+
+    /*
+     * Builds the full command line that SMAC would have called for this run
+     */
+    private List<String> getCommand(AlgorithmRunConfiguration rc)
+    {
+        List<String> command = Util.splitQuotedString(rc.getAlgorithmExecutionConfiguration().getAlgorithmExecutable());
+        command.add(rc.getProblemInstanceSeedPair().getProblemInstance().getInstanceName());
+        command.add(rc.getProblemInstanceSeedPair().getProblemInstance().getInstanceSpecificInformation());
+        command.add(String.valueOf(rc.getCutoffTime()));
+        command.add(String.valueOf(Integer.MAX_VALUE));
+        command.add(String.valueOf(rc.getProblemInstanceSeedPair().getSeed()));
+
+        ParameterConfiguration config = rc.getParameterConfiguration();
+        for(String key: config.getActiveParameters())
+        {
+            command.add("-" + key);
+            command.add(config.get(key));
+        }
+        return command;
+    }
+
+    /*
+     * Runs the 'algo' command as a sub process and parses out the result just like SMAC would
+     */
+    private AlgorithmRunResult evaluateInSubProcess(AlgorithmRunConfiguration rc, List<String> command)
+    {
+        long seed = rc.getProblemInstanceSeedPair().getSeed();
+        try
+        {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.directory(new File(rc.getAlgorithmExecutionConfiguration().getAlgorithmExecutionDirectory()));
+            pb.redirectErrorStream(true);
+            Process proc = pb.start();
+
+            Thread killerHook = new Util.ProcessKillerShutdownHook(proc);
+            Runtime.getRuntime().addShutdownHook(killerHook);
+
+            AlgorithmRunResult result = null;
+            String line;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+            while((line = reader.readLine()) != null)
+            {
+                log.debug(line);
+                Matcher matcher = mResultPattern.matcher(line);
+                if(matcher.matches())
+                {
+                    String extra = matcher.group(7) != null ? matcher.group(7) : "";
+                    result = new ExistingAlgorithmRunResult(rc, RunStatus.getAutomaticConfiguratorResultForKey(matcher.group(1)), Double.parseDouble(matcher.group(2).trim()),
+                                                            Double.parseDouble(matcher.group(3).trim()), Double.parseDouble(matcher.group(4).trim()), seed, extra);
+                }
+            }
+            proc.waitFor();
+            Runtime.getRuntime().removeShutdownHook(killerHook);
+
+            if(result == null)
+                return new ExistingAlgorithmRunResult(rc, RunStatus.CRASHED, 0, 0, 0, seed, "No result from sub process");
+            return result;
+        }
+        catch(Exception e)
+        {
+            log.error("Sub process evaluation failed: " + e.getMessage(), e);
+            return new ExistingAlgorithmRunResult(rc, RunStatus.CRASHED, 0, 0, 0, seed, "" + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isRunFinal()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean areRunsPersisted()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean areRunsObservable()
+    {
+        return false;
+    }
+
+    @Override
+    protected void subtypeShutdown()
+    {
+        //Nothing to clean up
+    }
+
+    /**
+     * A SMACWrapper that hands its result back to the evaluator instead of printing it
+     */
+    private static class InProcessWrapper extends SMACWrapper
+    {
+        private ClassifierResult mResult = null;
+
+        @Override
+        protected ClassifierRunner _createRunner(Properties props)
+        {
+            return getSharedRunner(props);
+        }
+
+        @Override
+        protected void _processResults(ClassifierResult res)
+        {
+            mResult = res;
+        }
+
+        public AlgorithmRunResult getRunResult(AlgorithmRunConfiguration rc)
+        {
+            RunStatus status = mResult.getCompleted() ? RunStatus.SAT : RunStatus.TIMEOUT;
+            return new ExistingAlgorithmRunResult(rc, status, mResult.getTime(), 0, getReportedScore(mResult), rc.getProblemInstanceSeedPair().getSeed(), "EXTRA " + getExtraResultString(mResult));
+        }
+    }
+}
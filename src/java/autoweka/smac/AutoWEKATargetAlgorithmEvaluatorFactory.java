@@ -0,0 +1,34 @@
+package autoweka.smac;
+
+import ca.ubc.cs.beta.aeatk.options.AbstractOptions;
+import ca.ubc.cs.beta.aeatk.targetalgorithmevaluator.AbstractTargetAlgorithmEvaluatorFactory;
+import ca.ubc.cs.beta.aeatk.targetalgorithmevaluator.TargetAlgorithmEvaluator;
+
+/**
+ * Lets SMAC find the AutoWEKATargetAlgorithmEvaluator when it is run with '--tae AUTOWEKA'
+ */
+public class AutoWEKATargetAlgorithmEvaluatorFactory extends AbstractTargetAlgorithmEvaluatorFactory
+{
+    /**
+     * The name that SMAC knows the evaluator by
+     */
+    public static final String NAME = "AUTOWEKA";
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public TargetAlgorithmEvaluator getTargetAlgorithmEvaluator(AbstractOptions options)
+    {
+        return new AutoWEKATargetAlgorithmEvaluator((AutoWEKATargetAlgorithmEvaluatorOptions)options);
+    }
+
+    @Override
+    public AbstractOptions getOptionObject()
+    {
+        return new AutoWEKATargetAlgorithmEvaluatorOptions();
+    }
+}
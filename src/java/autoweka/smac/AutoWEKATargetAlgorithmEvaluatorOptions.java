@@ -0,0 +1,22 @@
+package autoweka.smac;
+
+import com.beust.jcommander.Parameter;
+
+import ca.ubc.cs.beta.aeatk.misc.options.OptionLevel;
+import ca.ubc.cs.beta.aeatk.misc.options.UsageTextField;
+import ca.ubc.cs.beta.aeatk.options.AbstractOptions;
+
+/**
+ * Options for the AutoWEKATargetAlgorithmEvaluator
+ */
+@UsageTextField(title="Auto-WEKA Target Algorithm Evaluator", description="Evaluates Auto-WEKA configurations inside the SMAC JVM", level=OptionLevel.INTERMEDIATE)
+public class AutoWEKATargetAlgorithmEvaluatorOptions extends AbstractOptions
+{
+    static final long serialVersionUID = 486326606635040732L;
+
+    @Parameter(names={"--autoweka-threads"}, description="Number of evaluations to run at the same time inside the SMAC JVM")
+    public int threads = 1;
+
+    @Parameter(names={"--autoweka-subprocess-classifiers"}, description="Comma separated list of classifier class names that are not safe to run in process, these get evaluated in their own JVM")
+    public String subProcessClassifiers = "";
+}
@@ -1,19 +1,47 @@
 package autoweka.smac;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import autoweka.ClassifierResult;
+import autoweka.FoldRacer;
 import autoweka.Util;
 import autoweka.SubProcessWrapper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Wrapper that evaluates a configuration on all of the instances (ie. every fold) at once, rather than letting SMAC pick them one at a time.
+ *
+ * By default each instance is run in a SubProcessWrapper, one after another. If the 'inProcessFolds' property is set to a number greater than
+ * zero, the instances are instead run in this JVM on that many threads, all sharing the dataset that's already been loaded.
+ *
+ * If the 'racing' property is set, the configuration is raced against the best one that has finished so far (see FoldRacer) - once the
+ * instances that are done show that it can't win, the rest are skipped and the result is reported as censored (ie. not completed) with the
+ * mean of the instances that did get done. The same goes for a quality cap from the optimizer, which also gets split up into a cap for each
+ * instance so that the evaluation of an instance can stop part way through.
+ */
 public class MultiInstanceWrapper extends SMACWrapper
 {
     final Logger log = LoggerFactory.getLogger(MultiInstanceWrapper.class);
 
+    //Only used if the experiment didn't tell us how much memory it gets
+    private static final String DEFAULT_MEMORY = "3000m";
+    //How many failed instances it takes to give up on a configuration
+    private static final int MAX_FAILURES = 3;
+    //Any score above this counts as a failed instance
+    private static final float FAILED_SCORE = 99.99f;
+
     public String mParams;
 
     public static void main(String[] args)
@@ -27,15 +55,20 @@ public class MultiInstanceWrapper extends SMACWrapper
     {
         //Figure out what instances we're using
         List<String> instances = mRunner.getInstanceGenerator().getAllInstanceStrings(mInstance);
-        
+        FoldRacer racer = FoldRacer.create(mProperties, mResultMetric, instances.size(), mQualityCap);
+
+        int threads = Integer.parseInt(mProperties.getProperty("inProcessFolds", "0"));
+        if(threads > 0)
+            return runInProcess(instances, runnerArgs, Math.min(threads, instances.size()), racer);
+
         ClassifierResult res = new ClassifierResult(mResultMetric);
         res.setCompleted(false);
 
-        //TODO: not hack this
-        String memory = "3000m";
+        String memory = mProperties.getProperty("memory", DEFAULT_MEMORY);
 
         int executedCount = 0;
         int failedCount = 0;
+        List<Double> scores = new ArrayList<Double>();
 
         for(String instance : instances){
             log.debug("Instance: {}", instance);
@@ -44,21 +77,137 @@ public class MultiInstanceWrapper extends SMACWrapper
             props.put("instanceGenerator", mProperties.getProperty("instanceGenerator"));
             props.put("instanceGeneratorArgs", mInstance);
             props.put("resultMetric", mResultMetric);
+            if(racer != null)
+                props.put("qualityCap", Double.toString(racer.getFoldCap(scores)));
             SubProcessWrapper.ErrorAndTime errTime = SubProcessWrapper.getErrorAndTime(null, memory, props, mTimeout, instance, Util.joinStrings(" ", runnerArgs), mExperimentSeed);
             //Update the res's time and estimate
             res._setRawScore((res.getRawScore()*executedCount + errTime.error)/(executedCount+1));
             res.setTrainingTime(res.getTrainingTime() + errTime.time);
 
             //TODO: Make this robust and check to see if we've hit the global timeout?
-            if(errTime.error > 99.99){
+            if(errTime.error > FAILED_SCORE){
                 failedCount++;
-                if(failedCount >= 3){
+                if(failedCount >= MAX_FAILURES){
                     return res;
                 }
             }
             executedCount++;
+
+            scores.add((double)errTime.error);
+            if(racer != null && racer.canReject(scores)){
+                log.debug("Rejected after {} of {} instances", executedCount, instances.size());
+                res.setCapped(true);
+                return res;
+            }
         }
         res.setCompleted(true);
+        if(racer != null)
+            racer.offer(res.getRawScore());
         return res;
     }
+
+    /*
+     * Runs all the instances on a bounded pool of threads, using our own ClassifierRunner so that the dataset only gets loaded once.
+     *
+     * The results are folded in as they complete, and as soon as we've seen enough failures (or the racer says it can't win) everything that's still going gets cancelled.
+     * The instances are queued up in order, so with fewer threads than instances the racer gets to see the early ones before the later ones get started.
+     */
+    private ClassifierResult runInProcess(List<String> instances, final List<String> runnerArgs, int threads, final FoldRacer racer)
+    {
+        ClassifierResult res = new ClassifierResult(mResultMetric);
+        res.setCompleted(false);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+            private int mCount = 0;
+            public synchronized Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "MultiInstanceWrapper-fold-" + (mCount++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        CompletionService<ClassifierResult> completion = new ExecutorCompletionService<ClassifierResult>(executor);
+        final List<Double> scores = new ArrayList<Double>();
+        List<Future<ClassifierResult>> futures = new ArrayList<Future<ClassifierResult>>();
+        for(final String instance : instances){
+            futures.add(completion.submit(new Callable<ClassifierResult>(){
+                public ClassifierResult call()
+                {
+                    log.debug("Instance: {}", instance);
+                    double cap = Double.POSITIVE_INFINITY;
+                    if(racer != null)
+                    {
+                        //The instances that are still going don't count yet, which just makes the cap a bit looser
+                        synchronized(scores)
+                        {
+                            cap = racer.getFoldCap(scores);
+                        }
+                    }
+                    return mRunner.run(instance, mResultMetric, mTimeout, mExperimentSeed, runnerArgs, cap);
+                }
+            }));
+        }
+
+        int executedCount = 0;
+        int failedCount = 0;
+        try
+        {
+            for(int i = 0; i < futures.size(); i++){
+                //A fold that blows up takes the whole run down with it, just like a sub process that fails does, rather than getting
+                //averaged in as an infinite score
+                ClassifierResult foldRes;
+                try
+                {
+                    foldRes = completion.take().get();
+                }
+                catch(ExecutionException e)
+                {
+                    throw new RuntimeException("Instance evaluation failed: " + e.getCause().getMessage(), e.getCause());
+                }
+                if(foldRes == null)
+                    throw new RuntimeException("Instance evaluation didn't return a result");
+                double score = foldRes.getScore();
+                //Each fold's time only covers its own threads, so these add up just like the sub process times do
+                res.setTrainingTime(res.getTrainingTime() + foldRes.getTime());
+                res._setRawScore((res.getRawScore()*executedCount + score)/(executedCount+1));
+                executedCount++;
+
+                if(score > FAILED_SCORE){
+                    failedCount++;
+                    if(failedCount >= MAX_FAILURES){
+                        log.debug("{} instances failed, cancelling the rest", failedCount);
+                        return res;
+                    }
+                }
+
+                boolean reject;
+                synchronized(scores)
+                {
+                    scores.add(score);
+                    reject = racer != null && racer.canReject(scores);
+                }
+                if(reject){
+                    log.debug("Rejected after {} of {} instances, cancelling the rest", executedCount, futures.size());
+                    res.setCapped(true);
+                    return res;
+                }
+            }
+            res.setCompleted(true);
+            if(racer != null)
+                racer.offer(res.getRawScore());
+            return res;
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return res;
+        }
+        finally
+        {
+            //Interrupting the pool threads cascades down into the workers for any instance that's still going
+            for(Future<ClassifierResult> f : futures)
+                f.cancel(true);
+            executor.shutdownNow();
+        }
+    }
 }
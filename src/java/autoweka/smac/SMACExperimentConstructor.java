@@ -80,7 +80,22 @@ public class SMACExperimentConstructor extends ExperimentConstructor
         f.setExecutable(true);
 
         List<String> args = new ArrayList<String>();
-        args.add(smac);
+        boolean inProcess = Boolean.parseBoolean(props.getProperty("inProcessEvaluation", "false"));
+        if(inProcess)
+        {
+            //Run SMAC's JVM directly, with Auto-WEKA on the classpath so that it can find our evaluator
+            String smacLib = f.getParentFile().getAbsolutePath() + File.separator + "lib" + File.separator + "*";
+            args.add(Util.getJavaExecutable());
+            args.add("-Dautoweka.infinity=" + autoweka.ClassifierResult.getInfinity());
+            args.add("-Xmx" + mExperiment.memory);
+            args.add("-cp");
+            args.add(smacLib + File.pathSeparator + Util.getAbsoluteClasspath());
+            args.add("ca.ubc.cs.beta.smac.executors.SMACExecutor");
+        }
+        else
+        {
+            args.add(smac);
+        }
 
         // seeds
         args.add("--seed");
@@ -170,6 +185,19 @@ public class SMACExperimentConstructor extends ExperimentConstructor
             args.add(props.getProperty("executionMode"));
         }
 
+        if(inProcess)
+        {
+            args.add("--tae");
+            args.add(AutoWEKATargetAlgorithmEvaluatorFactory.NAME);
+            args.add("--autoweka-threads");
+            args.add(props.getProperty("inProcessThreads", "1"));
+            if(props.containsKey("subProcessClassifiers"))
+            {
+                args.add("--autoweka-subprocess-classifiers");
+                args.add(props.getProperty("subProcessClassifiers"));
+            }
+        }
+
         return args;
     }
 
@@ -236,6 +264,9 @@ public class SMACExperimentConstructor extends ExperimentConstructor
 
         Properties props = autoweka.Util.parsePropertyString(mExperiment.extraPropsString);
         String wrapper = props.getProperty("wrapper", "autoweka.smac.SMACWrapper");
+        //The pool client just forwards everything to a warm SMACPoolWorker
+        if(autoweka.EvaluatorPool.isEnabled(mExperiment.extraPropsString))
+            wrapper = "autoweka.smac.SMACPoolClient";
 
         out.println("algo = \"" + autoweka.Util.getJavaExecutable() + "\" -Dautoweka.infinity=" + autoweka.ClassifierResult.getInfinity() + " -Xmx" + mExperiment.memory + " -cp \"" + autoweka.Util.getAbsoluteClasspath() + "\" " + wrapper + " -prop " + getWrapperPropString() + extraProps + " -wrapper");
         out.println("execdir = ./");
@@ -0,0 +1,57 @@
+package autoweka.smac;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import autoweka.EvaluatorPool;
+
+/**
+ * The thin client that SMAC calls when the experiment is using an EvaluatorPool.
+ *
+ * Takes exactly the same arguments as the SMACWrapper, but just sends them off to the pool named by the AUTOWEKA_EVALUATOR_POOL_PORT environment
+ * variable and prints out whatever comes back. If there isn't a pool around, the evaluation is done in this process with a regular SMACWrapper.
+ */
+public class SMACPoolClient
+{
+    public static void main(String[] args)
+    {
+        String port = System.getenv(EvaluatorPool.PORT_ENV_VARIABLE);
+        if(port == null)
+        {
+            SMACWrapper.main(args);
+            return;
+        }
+
+        int exitCode = 1;
+        try
+        {
+            Socket socket = new Socket(InetAddress.getByName(null), Integer.parseInt(port));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            out.write(EvaluatorPool.encodeArgs(args) + "\n");
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                if(line.startsWith(EvaluatorPool.DONE_MARKER))
+                {
+                    exitCode = Integer.parseInt(line.substring(EvaluatorPool.DONE_MARKER.length()).trim());
+                    break;
+                }
+                System.out.println(line);
+            }
+            socket.close();
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace();
+        }
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,72 @@
+package autoweka.smac;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.Properties;
+
+import autoweka.ClassifierResult;
+import autoweka.ClassifierRunner;
+import autoweka.EvaluatorPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A long lived SMACWrapper that lives inside an EvaluatorPool.
+ *
+ * Reads one encoded set of wrapper arguments per line from stdin, runs it exactly like the SMACWrapper would, and then prints the DONE_MARKER so that the
+ * pool knows it can hand the result back to SMAC. The ClassifierRunners (and so the datasets) are kept around between evaluations.
+ */
+public class SMACPoolWorker extends SMACWrapper
+{
+    final static Logger log = LoggerFactory.getLogger(SMACPoolWorker.class);
+
+    //Set when an evaluation got terminated, since that can leave threads behind
+    private static boolean msDirty = false;
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                int exitCode = 0;
+                try
+                {
+                    new SMACPoolWorker().run(EvaluatorPool.decodeArgs(line));
+                }
+                catch(Throwable e)
+                {
+                    log.error(e.getMessage(), e);
+                    exitCode = 1;
+                }
+
+                Runtime rt = Runtime.getRuntime();
+                System.out.println(EvaluatorPool.DONE_MARKER + " " + exitCode + " " + (rt.totalMemory() - rt.freeMemory()) + " " + rt.maxMemory() + " " + msDirty);
+                System.out.flush();
+            }
+        }
+        catch(Exception e)
+        {
+            log.error(e.getMessage(), e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    @Override
+    protected ClassifierRunner _createRunner(Properties props)
+    {
+        return getSharedRunner(props);
+    }
+
+    @Override
+    protected void _processResults(ClassifierResult res)
+    {
+        if(!res.getCompleted())
+            msDirty = true;
+        System.out.println(getResultString(res));
+    }
+}
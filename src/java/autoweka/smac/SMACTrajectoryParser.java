@@ -1,18 +1,19 @@
 package autoweka.smac;
 
 import autoweka.ClassParams;
+import autoweka.LineTail;
 import autoweka.Parameter;
 import autoweka.Trajectory;
 import autoweka.TrajectoryParser;
 import autoweka.Experiment;
-import java.io.FileInputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.URLDecoder;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Scanner;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,46 +30,105 @@ public class SMACTrajectoryParser extends TrajectoryParser
 
     public Trajectory parseTrajectory(Experiment experiment, File folder, String seed)
     {
-        //Load up the conditional params
-        ClassParams params = new ClassParams(URLDecoder.decode(folder.getAbsolutePath()) + File.separator + "autoweka.params");
+        SMACTail tail = new SMACTail(experiment, folder, seed);
+        tail.poll();
+        if(tail.mTrajTail == null)
+            throw new RuntimeException("Failed to parse trajectory", new FileNotFoundException("No trajectory file for seed " + seed));
+        if(tail.mRunsTail == null)
+            log.warn("Could not find runs_and_results file");
+        return tail.getTrajectory();
+    }
+
+    @Override
+    public TrajectoryParser.Tail createTail(Experiment experiment, File folder, String seed)
+    {
+        return new SMACTail(experiment, folder, seed);
+    }
+
+    /*
+     * Follows the trajectory file and the runs and results of a SMAC run while it's still going.
+     *
+     * The trajectory file only ever gets added to. The runs and results are different - SMAC writes out a whole new runs_and_results-itN.csv
+     * every so often - but each one starts with everything that was in the last one, so we just carry on from the same place in the new file.
+     */
+    private class SMACTail implements TrajectoryParser.Tail
+    {
+        private Experiment mExperiment;
+        private String mOutDir;
+        private String mSeed;
+        private ClassParams mParams;
+        private Trajectory mTraj;
+
+        private LineTail mTrajTail = null;
+        private LineTail mRunsTail = null;
+        private int mRunsIteration = -1;
+        private boolean mSkipHeader = true;
+        private int mNumEvals = 0;
+        private int mNumMemOut = 0;
+        private int mNumTimeOut = 0;
+
+        SMACTail(Experiment experiment, File folder, String seed)
+        {
+            mExperiment = experiment;
+            mSeed = seed;
+            //Load up the conditional params
+            mParams = new ClassParams(URLDecoder.decode(folder.getAbsolutePath()) + File.separator + "autoweka.params");
+            mOutDir = URLDecoder.decode(folder.getAbsolutePath()) + File.separator + "out" + File.separator + "autoweka";
+            mTraj = new Trajectory(seed);
+        }
 
-        Trajectory traj = new Trajectory(seed);
+        public synchronized Trajectory getTrajectory()
+        {
+            return mTraj;
+        }
+
+        public synchronized int poll()
+        {
+            try
+            {
+                int points = pollTrajectory();
+                pollRunsAndResults();
+                return points;
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException("Failed to parse trajectory", e);
+            }
+        }
 
-        try
+        private int pollTrajectory() throws IOException
         {
-            //We need to go get this trajectory file
-            String trajFileName = "";
-            File[] files = new File(URLDecoder.decode(folder.getAbsolutePath()) + File.separator + "out" + File.separator + "autoweka").listFiles();
-            for(File f: files)
+            //We need to go get this trajectory file, which isn't there until SMAC gets going
+            if(mTrajTail == null)
             {
-                String s = f.getName();
-                if(s.startsWith("traj") && s.endsWith("-" + seed + ".txt"))
+                File[] files = new File(mOutDir).listFiles();
+                for(int i = 0; files != null && i < files.length; i++)
                 {
-                    trajFileName = URLDecoder.decode(f.getAbsolutePath());
-                    break;
+                    String s = files[i].getName();
+                    if(s.startsWith("traj") && s.endsWith("-" + mSeed + ".txt"))
+                    {
+                        log.debug("Trajectory file name: {}", files[i]);
+                        mTrajTail = new LineTail(new File(URLDecoder.decode(files[i].getAbsolutePath())));
+                        break;
+                    }
                 }
+                if(mTrajTail == null)
+                    return 0;
             }
-            log.debug("Trajectory file name: {}", trajFileName);
-            Scanner scanner = new Scanner(new FileInputStream(trajFileName));
-
-            String line;
-            Matcher matcher;
-            String argString = null;
-            double time = 0;
-            double score = Float.MAX_VALUE;
-            while(scanner.hasNextLine())
+
+            int points = 0;
+            for(String line: mTrajTail.readNewLines())
             {
-                line = scanner.nextLine();
-                matcher = mTrajPattern.matcher(line);
+                Matcher matcher = mTrajPattern.matcher(line);
                 if(matcher.matches())
                 {
-                    time = Float.parseFloat(matcher.group(1));
-                    score = Float.parseFloat(matcher.group(2));
+                    double time = Float.parseFloat(matcher.group(1));
+                    double score = Float.parseFloat(matcher.group(2));
 
                     log.debug("Time: {}, score: {}", time, score);
-                    argString = filterArgString(params, matcher.group(3));
-                    traj.addPoint(new Trajectory.Point(time, score, argString));
-
+                    String argString = filterArgString(mParams, matcher.group(3));
+                    mTraj.addPoint(new Trajectory.Point(time, score, argString));
+                    points++;
                 }
                 else
                 {
@@ -76,71 +136,75 @@ public class SMACTrajectoryParser extends TrajectoryParser
                     log.debug("Could not match {}", line);
                 }
             }
+            return points;
+        }
 
-            //Now, we need to parse the runs_and_results file to get some other statistics
-            String runsAndResultsFileName = null;
-            int runsAndResultsIteration = -1;
-            files = new File(URLDecoder.decode(folder.getAbsolutePath()) + File.separator + "out" + File.separator + "autoweka" + File.separator + "state-run" + seed + File.separator).listFiles();
-            for(File f: files)
+        private void pollRunsAndResults() throws IOException
+        {
+            //Find the newest one
+            File latest = null;
+            int latestIteration = mRunsIteration;
+            File[] files = new File(mOutDir + File.separator + "state-run" + mSeed + File.separator).listFiles();
+            for(int i = 0; files != null && i < files.length; i++)
             {
-                String s = f.getName();
-                matcher = mRunsAndResultFileNamePattern.matcher(s);
+                Matcher matcher = mRunsAndResultFileNamePattern.matcher(files[i].getName());
                 if(matcher.matches())
                 {
                     int itr = Integer.parseInt(matcher.group(1));
-                    if(itr > runsAndResultsIteration){
-                        runsAndResultsFileName = URLDecoder.decode(f.getAbsolutePath());
-                        runsAndResultsIteration = itr;
+                    if(itr > latestIteration){
+                        latest = new File(URLDecoder.decode(files[i].getAbsolutePath()));
+                        latestIteration = itr;
                     }
                 }
             }
 
-            //We actually found something
-            if(runsAndResultsFileName != null)
+            //SMAC might still be writing the new one out, in which case we stick with the old one for now
+            if(latest != null && (mRunsTail == null || latest.length() >= mRunsTail.getOffset()))
             {
-                int numEvals = 0;
-                int numMemOut = 0;
-                int numTimeOut = 0;
-                log.debug("Run results file: {}", runsAndResultsFileName);
-                scanner = new Scanner(new FileInputStream(runsAndResultsFileName));
-
-                //Skip the header
-                scanner.nextLine();
-                String[] row;
-                while(scanner.hasNextLine())
+                log.debug("Run results file: {}", latest);
+                if(mRunsTail == null)
+                    mRunsTail = new LineTail(latest);
+                if(!mRunsTail.follow(latest))
                 {
-                    //Split the line
-                    row = scanner.nextLine().split(",");
-                    try {
-                        //We've got an eval, ++ that number
-                        numEvals++;
-
-                        //Figure out if this one timed out
-                        if(Float.parseFloat(row[7]) >= 1.1 * experiment.trainTimeout) {
-                            numTimeOut++;
-                        }
-
-                        //Did we get a timeout
-                        if(row[14].contains("MEMOUT")) {
-                            numMemOut++;
-                        }
-                    } catch (Exception e) {
-                        //Whatevs... it's wrong
-                        log.error(e.getMessage(), e);
-                    }
+                    mSkipHeader = true;
+                    mNumEvals = 0;
+                    mNumMemOut = 0;
+                    mNumTimeOut = 0;
                 }
-                traj.setEvaluationCounts(numEvals, numMemOut, numTimeOut);
+                mRunsIteration = latestIteration;
             }
-            else
+            if(mRunsTail == null)
+                return;
+
+            for(String line: mRunsTail.readNewLines())
             {
-                log.warn("Could not find runs_and_results file");
+                if(mSkipHeader)
+                {
+                    mSkipHeader = false;
+                    continue;
+                }
+                //Split the line
+                String[] row = line.split(",");
+                try {
+                    //We've got an eval, ++ that number
+                    mNumEvals++;
+
+                    //Figure out if this one timed out
+                    if(Float.parseFloat(row[7]) >= 1.1 * mExperiment.trainTimeout) {
+                        mNumTimeOut++;
+                    }
+
+                    //Did we get a timeout
+                    if(row[14].contains("MEMOUT")) {
+                        mNumMemOut++;
+                    }
+                } catch (Exception e) {
+                    //Whatevs... it's wrong
+                    log.error(e.getMessage(), e);
+                }
             }
+            mTraj.setEvaluationCounts(mNumEvals, mNumMemOut, mNumTimeOut);
         }
-        catch(Exception e)
-        {
-            throw new RuntimeException("Failed to parse trajectory", e);
-        }
-        return traj;
     }
 
     private String filterArgString(ClassParams params, String args)
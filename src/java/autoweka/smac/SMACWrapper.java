@@ -10,13 +10,18 @@ import java.util.Queue;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import autoweka.Wrapper;
 import autoweka.ClassifierResult;
+import autoweka.ClassifierRunner;
 import autoweka.Util;
 
 public class SMACWrapper extends Wrapper
 {
+    private static Map<String, ClassifierRunner> msRunners = new HashMap<String, ClassifierRunner>();
+
     private boolean mRawEval = false;
 
     public static void main(String[] args)
@@ -55,13 +60,16 @@ public class SMACWrapper extends Wrapper
     @Override
     protected void _processResults(ClassifierResult res)
     {
-        //Get the score
-        double score = res.getScore();
-        if(mRawEval)
-        {
-            score = res.getRawScore();
-        }
+        //Print the result string
+        System.out.println(getResultString(res));
+        System.exit(0);
+    }
 
+    /*
+     * Builds the line that SMAC parses to get the result of this run
+     */
+    protected String getResultString(ClassifierResult res)
+    {
         //Did we complete?
         String resultStr = "SAT";
         if(!res.getCompleted())
@@ -69,6 +77,26 @@ public class SMACWrapper extends Wrapper
             resultStr = "TIMEOUT";
         }
 
+        return "Result for ParamILS: " + resultStr + ", " + res.getTime() + ", 0, " + getReportedScore(res) + ", " + mExperimentSeed + ", EXTRA " + getExtraResultString(res);
+    }
+
+    /*
+     * Gets the score that should be handed back to SMAC
+     */
+    protected double getReportedScore(ClassifierResult res)
+    {
+        if(mRawEval)
+        {
+            return res.getRawScore();
+        }
+        return res.getScore();
+    }
+
+    /*
+     * Gets the extra data that gets tacked onto the end of the result (extra runs, penalties, memouts and how much was evaluated)
+     */
+    protected String getExtraResultString(ClassifierResult res)
+    {
         StringBuilder extraResultsSB = new StringBuilder();
         int i = 0;
         while(mProperties.containsKey("extraRun" + i))
@@ -92,11 +120,29 @@ public class SMACWrapper extends Wrapper
         if(res.getMemOut()){
             extraResultsSB.append("MEMOUT ");
         }
+        if(res.getCapped()){
+            extraResultsSB.append("CAPPED ");
+        }
 
         extraResultsSB.append(res.getPercentEvaluated());
+        return extraResultsSB.toString();
+    }
 
-        //Print the result string
-        System.out.println("Result for ParamILS: " + resultStr + ", " + res.getTime() + ", 0, " + score + ", " + mExperimentSeed + ", EXTRA " + extraResultsSB.toString());
-        System.exit(0);
+    /*
+     * Gets a ClassifierRunner that is shared between all the wrappers in this JVM with the same properties, so the dataset only gets loaded once
+     */
+    protected static ClassifierRunner getSharedRunner(Properties props)
+    {
+        String key = Util.propertiesToString(props);
+        synchronized(msRunners)
+        {
+            ClassifierRunner runner = msRunners.get(key);
+            if(runner == null)
+            {
+                runner = new ClassifierRunner(props);
+                msRunners.put(key, runner);
+            }
+            return runner;
+        }
     }
 }
@@ -4,7 +4,6 @@ import java.io.File;
 import java.net.URLDecoder;
 
 import autoweka.Experiment;
-import autoweka.TrajectoryParser;
 import autoweka.TrajectoryPointPredictionRunner;
 
 import org.slf4j.Logger;
@@ -46,14 +45,10 @@ class ExperimentRunner
                 tmpFile.delete();
         }
 
-        //Run the experiment
+        //Run the experiment, which extracts the trajectory as well
         String[] expArgs = new String[]{"-noexit", expFolder, seed};
         Experiment.main(expArgs);
 
-        //Extract the trajectory
-        String[] trajParseArgs = new String[]{"-single", expFolder, seed};
-        TrajectoryParser.main(trajParseArgs);
-
         //And get some predictions/train the model
         String[] runnerArgs = new String[]{expFolder + File.separator + expName + ".trajectories." + seed, "-savemodel"};
         TrajectoryPointPredictionRunner.main(runnerArgs);
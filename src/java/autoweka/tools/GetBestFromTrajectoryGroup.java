@@ -67,9 +67,30 @@ public class GetBestFromTrajectoryGroup
                 errorEstimate = (float)bestPt.mErrorEstimate; 
             }
         }
-        rawArgs = bestPt.mArgs;
+        setArgs(bestPt.mArgs);
 
-        WekaArgumentConverter.Arguments wekaArgs = WekaArgumentConverter.convert(Arrays.asList(bestPt.mArgs.split(" ")));
+        numEval = bestTraj.getNumEvaluations();
+        numTimeOut = bestTraj.getNumTimedOutEvaluations();
+        numMemOut = bestTraj.getNumMemOutEvaluations();
+    }
+
+    /**
+     * Gets the classifier and attribute selection that a single point of a trajectory stands for, such as an incumbent that was just found
+     * @param seed The seed of the trajectory that the point came from.
+     * @param point The point.
+     */
+    public GetBestFromTrajectoryGroup(String seed, Trajectory.Point point)
+    {
+        this.seed = seed;
+        errorEstimate = (float)point.mErrorEstimate;
+        setArgs(point.mArgs);
+    }
+
+    private void setArgs(String args)
+    {
+        rawArgs = args;
+
+        WekaArgumentConverter.Arguments wekaArgs = WekaArgumentConverter.convert(Arrays.asList(args.split(" ")));
 
         classifierClass = wekaArgs.propertyMap.get("targetclass");
         classifierArgs  = Util.joinStrings(" ", Util.quoteStrings(wekaArgs.argMap.get("classifier")));
@@ -82,10 +103,6 @@ public class GetBestFromTrajectoryGroup
             attributeEvalClass = wekaArgs.propertyMap.get("attributeeval");
             attributeEvalArgs  = Util.joinStrings(" ", Util.quoteStrings(wekaArgs.argMap.get("attributeeval")));
         }
-
-        numEval = bestTraj.getNumEvaluations();
-        numTimeOut = bestTraj.getNumTimedOutEvaluations();
-        numMemOut = bestTraj.getNumMemOutEvaluations();
     }
 
     public Experiment experiment = null;
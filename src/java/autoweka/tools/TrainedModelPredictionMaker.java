@@ -3,23 +3,44 @@ package autoweka.tools;
 import java.io.FileInputStream;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import weka.attributeSelection.AttributeSelection;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Evaluation;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.converters.ConverterUtils.DataSource;
 
 import autoweka.ClassifierRunner;
+import autoweka.MetricAccumulator;
+import autoweka.PredictionsWriter;
+import autoweka.ScoringPool;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Makes predictions on a dataset with a model that was saved by a run.
+ *
+ * Normally the whole dataset gets loaded and evaluated in one go. With '-stream', the dataset (ARFF or CSV, going by the extension) is read
+ * a batch at a time instead and the batches are predicted on a pool of threads (see '-threads' and '-batchsize'), each with its own copy of
+ * the model. The predictions are written out in order as soon as they're done, and only a couple of batches per thread are ever held in
+ * memory, so the dataset can be much bigger than the heap. The summary at the end only has the simple metrics (see MetricAccumulator).
+ */
 public class TrainedModelPredictionMaker
 {
 
     final static Logger log = LoggerFactory.getLogger(TrainedModelPredictionMaker.class);
 
+    //How often to say how fast the streaming is going
+    private static final long PROGRESS_INTERVAL_NANOS = 10000000000L;
+
     public static void main(String[] argsArray)
     {
         String attributeSelectionObjPath = null;
@@ -27,6 +48,9 @@ public class TrainedModelPredictionMaker
         String instancesPath = null;
         String classIndex = "last";
         String predictionPath = "null";
+        boolean stream = false;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        int batchSize = 1000;
 
         //Start reading in arguments
         LinkedList<String> args = new LinkedList<String>(Arrays.asList(argsArray));
@@ -38,10 +62,16 @@ public class TrainedModelPredictionMaker
                 modelObjPath = args.poll();
             }else if(arg.equals("-dataset")){
                 instancesPath = args.poll();
-            }else if(args.equals("-classindex")){
+            }else if(arg.equals("-classindex")){
                 classIndex = args.poll();
             }else if(arg.equals("-predictionpath")){
                 predictionPath = args.poll();
+            }else if(arg.equals("-stream")){
+                stream = true;
+            }else if(arg.equals("-threads")){
+                numThreads = Integer.parseInt(args.poll());
+            }else if(arg.equals("-batchsize")){
+                batchSize = Integer.parseInt(args.poll());
             }else{
                 throw new RuntimeException("Unknown argument '" + arg + "'");
             }
@@ -52,13 +82,19 @@ public class TrainedModelPredictionMaker
         if(instancesPath == null)
             throw new RuntimeException("No dataset arff provided");
 
+        if(stream){
+            MetricAccumulator acc = stream(attributeSelectionObjPath, modelObjPath, instancesPath, classIndex, predictionPath, numThreads, batchSize);
+            log.info("Results: {}", acc);
+            return;
+        }
+
         TrainedModelPredictionMaker tmpm = new TrainedModelPredictionMaker(attributeSelectionObjPath, modelObjPath, instancesPath, classIndex, predictionPath);
-        
+
         log.info(tmpm.eval.toSummaryString("\nResults\n======\n", false));
     }
 
     public Evaluation eval;
-    
+
     public TrainedModelPredictionMaker(String attributeSelectionObjPath, String modelObjPath, String instancesPath, String classIndex, String predictionPath)
     {
         //Go forth and load some instances
@@ -67,13 +103,8 @@ public class TrainedModelPredictionMaker
             DataSource dataSource = new DataSource(new FileInputStream(instancesPath));
             Instances instances = dataSource.getDataSet();
 
-            //Make sure to 
-            if (instances.classIndex() == -1){
-                if(classIndex.equals("last"))
-                    instances.setClassIndex(instances.numAttributes() - 1);
-                else
-                    instances.setClassIndex(Integer.parseInt(classIndex));
-            }
+            //Make sure that there's a class, if the dataset doesn't say which one it is
+            setClassIndex(instances, classIndex);
 
             //Load up the attribute selection if we need to
             if(attributeSelectionObjPath != null){
@@ -83,7 +114,7 @@ public class TrainedModelPredictionMaker
 
             //Load up yonder classifier
             AbstractClassifier classifier = (AbstractClassifier)weka.core.SerializationHelper.read(modelObjPath);
-            
+
             //Make the evaluation
             eval = new Evaluation(instances);
             ClassifierRunner.EvaluatorThread thrd = new ClassifierRunner.EvaluatorThread(eval, classifier, instances, predictionPath);
@@ -92,4 +123,131 @@ public class TrainedModelPredictionMaker
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Makes predictions on a dataset that gets read in a batch at a time, so it doesn't have to fit in memory - see the class description
+     * @param attributeSelectionObjPath The saved attribute selection, or null if there isn't one.
+     * @param modelObjPath The saved model.
+     * @param instancesPath The dataset, which can be anything that weka can read incrementally (like ARFF or CSV).
+     * @param classIndex The index of the class, or 'last', if the dataset doesn't say.
+     * @param predictionPath Where to write the predictions (see PredictionsWriter for the formats).
+     * @param numThreads How many threads (and copies of the model) to predict with.
+     * @param batchSize How many instances each thread predicts at a time.
+     * @return The running totals for the simple metrics.
+     */
+    public static MetricAccumulator stream(String attributeSelectionObjPath, String modelObjPath, String instancesPath, String classIndex, String predictionPath, int numThreads, int batchSize)
+    {
+        try
+        {
+            DataSource source = new DataSource(instancesPath);
+            Instances structure = source.getStructure();
+            setClassIndex(structure, classIndex);
+
+            final ScoringPool pool = ScoringPool.load(modelObjPath, attributeSelectionObjPath, numThreads);
+            MetricAccumulator acc = new MetricAccumulator(structure);
+            PredictionsWriter predictions = PredictionsWriter.create(predictionPath, structure);
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory(){
+                private int mCount = 0;
+                public synchronized Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "TrainedModelPredictionMaker-predict-" + (mCount++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+            //The batches that are being predicted, in the order that they were read
+            LinkedList<Instances> batches = new LinkedList<Instances>();
+            LinkedList<Future<double[][]>> pending = new LinkedList<Future<double[][]>>();
+            long numRows = 0;
+            long startTime = System.nanoTime();
+            long lastProgress = startTime;
+            try
+            {
+                Instances batch = new Instances(structure, batchSize);
+                boolean more = true;
+                while(more || !pending.isEmpty())
+                {
+                    //Keep reading until there's enough work queued up for all the threads
+                    while(more && pending.size() < 2 * numThreads)
+                    {
+                        more = source.hasMoreElements(structure);
+                        if(more)
+                            batch.add(source.nextElement(structure));
+                        if(batch.numInstances() >= batchSize || (!more && batch.numInstances() > 0))
+                        {
+                            final Instances toPredict = batch;
+                            batches.add(toPredict);
+                            pending.add(executor.submit(new Callable<double[][]>(){
+                                public double[][] call() throws Exception
+                                {
+                                    return pool.distributionsForInstances(toPredict);
+                                }
+                            }));
+                            batch = new Instances(structure, batchSize);
+                        }
+                    }
+                    if(pending.isEmpty())
+                        break;
+
+                    //Then write out the oldest batch, once it's done
+                    Instances done = batches.removeFirst();
+                    double[][] dists;
+                    try
+                    {
+                        dists = pending.removeFirst().get();
+                    }
+                    catch(ExecutionException e)
+                    {
+                        if(e.getCause() instanceof Exception)
+                            throw (Exception)e.getCause();
+                        throw new RuntimeException(e.getCause());
+                    }
+                    for(int i = 0; i < dists.length; i++)
+                    {
+                        Instance instance = done.instance(i);
+                        predictions.write(numRows + i, dists[i], instance);
+                        if(acc.classIsNominal())
+                            acc.addDistribution(dists[i], instance);
+                        else
+                            acc.addPrediction(dists[i][0], instance);
+                    }
+                    numRows += dists.length;
+
+                    long now = System.nanoTime();
+                    if(now - lastProgress > PROGRESS_INTERVAL_NANOS)
+                    {
+                        log.info("Predicted {} rows, {} rows/sec", numRows, String.format("%.1f", numRows / ((now - startTime) * 1e-9)));
+                        lastProgress = now;
+                    }
+                }
+            }
+            finally
+            {
+                for(Future<double[][]> f : pending)
+                    f.cancel(true);
+                executor.shutdownNow();
+                predictions.close();
+            }
+
+            double seconds = (System.nanoTime() - startTime) * 1e-9;
+            log.info("Predicted {} rows in {} seconds, {} rows/sec", numRows, String.format("%.1f", seconds), String.format("%.1f", seconds > 0 ? numRows / seconds : 0));
+            log.debug(pool.describeThroughput());
+            return acc;
+        }
+        catch(Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void setClassIndex(Instances instances, String classIndex)
+    {
+        if (instances.classIndex() == -1){
+            if(classIndex.equals("last"))
+                instances.setClassIndex(instances.numAttributes() - 1);
+            else
+                instances.setClassIndex(Integer.parseInt(classIndex));
+        }
+    }
 }
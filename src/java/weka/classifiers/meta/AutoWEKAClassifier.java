@@ -26,6 +26,7 @@ import weka.classifiers.Evaluation;
 
 import weka.core.Attribute;
 import weka.core.AdditionalMeasureProducer;
+import weka.core.BatchPredictor;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.converters.ArffSaver;
@@ -43,6 +44,8 @@ import weka.core.Utils;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.io.FileNotFoundException;
 
@@ -51,20 +54,33 @@ import java.nio.file.Files;
 
 import java.net.URLDecoder;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Queue;
 import java.util.Vector;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,6 +88,7 @@ import org.slf4j.LoggerFactory;
 import autoweka.Experiment;
 import autoweka.ExperimentConstructor;
 import autoweka.InstanceGenerator;
+import autoweka.ResultCache;
 import autoweka.instancegenerators.CrossValidation;
 import autoweka.Util;
 import autoweka.Trajectory;
@@ -82,7 +99,12 @@ import autoweka.tools.GetBestFromTrajectoryGroup;
 
 import autoweka.Configuration;
 import autoweka.ConfigurationCollection;
+import autoweka.ConfigurationLeaderboard;
 import autoweka.ConfigurationRanker;
+import autoweka.AttributeProjection;
+import autoweka.ClassifierRunner;
+import autoweka.EventChannel;
+import autoweka.FoldEnsemble;
 
 /**
  * Auto-WEKA interface for WEKA.
@@ -191,6 +213,15 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
     public static final String configurationRankingPath = "ConfigurationLogging" + File.separator + "configuration_ranking.xml";
     /** The path for the log with the hashcodes for the configs we have **/
     public static final String configurationHashSetPath = "ConfigurationLogging" + File.separator + "configuration_hashes.txt";
+    /** The path for the append only log of every configuration evaluation **/
+    public static final String configurationLogPath = "ConfigurationLogging" + File.separator + "configuration_log.txt";
+    /** The path for the append only log of the configuration evaluations of the run with the given seed (or configurationLogPath if there's no seed) **/
+    public static String getConfigurationLogPath(String seed) {
+        if(seed == null) {
+            return configurationLogPath;
+        }
+        return "ConfigurationLogging" + File.separator + "configuration_log." + seed + ".txt";
+    }
     /** The path for the directory with the configuration data and score **/
     public static final String configurationInfoDirPath = "ConfigurationLogging" + File.separator + "configurations/";
 
@@ -229,6 +260,8 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
     protected int nBestConfigs = DEFAULT_N_BEST;
     /** The best configurations. */
     protected ConfigurationCollection bestConfigsCollection;
+    /** The best configurations so far, across all the parallel runs, while the search is going. */
+    protected transient volatile ConfigurationLeaderboard leaderboard;
 
     /** The internal evaluation method. */
     protected Resampling resampling = DEFAULT_RESAMPLING;
@@ -245,8 +278,12 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
     /** The estimated metric value of the method chosen out of the parallel runs. */
     protected double estimatedMetricValue = -1;
 
-    /** The evaluation for the best classifier. */
+    /** The evaluation for the best classifier, on the training data. Only worked out once something asks for it. */
     protected Evaluation eval;
+    /** A copy of the training data that eval gets worked out on, until it's been done (null if the evaluation is being dropped). */
+    protected transient Instances evalData;
+    /** Whether to leave the evaluation on the training data out of the serialized model. */
+    protected boolean dropTrainingEvaluation = false;
 
     /** The default number of parallel threads. */
     protected final int DEFAULT_PARALLEL_RUNS = 1;
@@ -259,6 +296,18 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
 
     private transient weka.gui.Logger wLog;
 
+    /* Trains the final model in the background while the search is still going, if that's been asked for. */
+    private transient volatile FinalFitSpeculator speculator;
+
+    /* What the attribute selection does to an instance, worked out on the first prediction (null if it's more than a projection). */
+    private transient volatile AttributeProjection projection;
+    private transient volatile boolean projectionChecked;
+    /* The copies of the classifier that aren't predicting a chunk right now, for when the classifier can't be shared between threads. */
+    private transient volatile Queue<Classifier> predictionReplicas;
+
+    /* The threads that batches of predictions get spread over. There's only one lot for every classifier, and they go away when idle. */
+    private static ThreadPoolExecutor msPredictionPool;
+
     /* Don't ask. */
     public int totalTried;
 
@@ -303,49 +352,56 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
     public void buildClassifier(Instances is) throws Exception {
         getCapabilities().testWithFail(is);
 
+        //All the parallel runs share one experiment (and one copy of the data), the only thing that sets them apart is their seed
         estimatedMetricValues = new double[parallelRuns];
         msExperimentPaths = new String[parallelRuns];
-        for(int i = 0; i < parallelRuns; i++) {
-            estimatedMetricValues[i] = -1;
-            msExperimentPaths[i] = Files.createTempDirectory("autoweka").toString() + File.separator;
-            Experiment exp = new Experiment();
-            exp.name = expName;
-
-            exp.resultMetric = metric.toString();
-
-            Properties props = Util.parsePropertyString("type=trainTestArff:testArff=__dummy__");
-            ArffSaver saver = new ArffSaver();
-            saver.setInstances(is);
-            File fp = new File(msExperimentPaths[i] + expName + File.separator + expName + ".arff");
-            saver.setFile(fp);
-            saver.writeBatch();
-            props.setProperty("trainArff", URLDecoder.decode(fp.getAbsolutePath()));
-            props.setProperty("classIndex", String.valueOf(is.classIndex()));
-            exp.datasetString = Util.propertiesToString(props);
-            exp.instanceGenerator = "autoweka.instancegenerators." + String.valueOf(resampling);
-            exp.instanceGeneratorArgs = "seed=" + (seed + 1) + ":" + resamplingArgs + ":seed=" + (seed + i);
-            exp.attributeSelection = true;
-
-            exp.attributeSelectionTimeout = timeLimit * 1;
-            exp.tunerTimeout = timeLimit * 50;
-            exp.trainTimeout = timeLimit * 5;
-
-            exp.memory = memLimit + "m";
-            exp.extraPropsString = extraArgs;
-
-            //Setup all the extra args
-            List<String> args = new LinkedList<String>();
-            args.add("-experimentpath");
-            args.add(msExperimentPaths[i]);
-            //Make the thing
-
-            ExperimentConstructor.buildSingle("autoweka.smac.SMACExperimentConstructor", exp, args);
-
-            if(nBestConfigs > 1) {
-                String temporaryDirPath = msExperimentPaths[i] + expName + File.separator; //TODO make this a global
-                Util.makePath(temporaryDirPath + configurationInfoDirPath);
-                Util.initializeFile(temporaryDirPath + configurationRankingPath);
-                Util.initializeFile(temporaryDirPath + configurationHashSetPath);
+        Arrays.fill(estimatedMetricValues, -1);
+        Arrays.fill(msExperimentPaths, Files.createTempDirectory("autoweka").toString() + File.separator);
+
+        Experiment exp = new Experiment();
+        exp.name = expName;
+
+        exp.resultMetric = metric.toString();
+
+        Properties props = Util.parsePropertyString("type=trainTestArff:testArff=__dummy__");
+        ArffSaver saver = new ArffSaver();
+        saver.setInstances(is);
+        File fp = new File(msExperimentPaths[0] + expName + File.separator + expName + ".arff");
+        saver.setFile(fp);
+        saver.writeBatch();
+        props.setProperty("trainArff", URLDecoder.decode(fp.getAbsolutePath()));
+        props.setProperty("classIndex", String.valueOf(is.classIndex()));
+        exp.datasetString = Util.propertiesToString(props);
+        exp.instanceGenerator = "autoweka.instancegenerators." + String.valueOf(resampling);
+        //The wrappers fill in {SEED} with the seed of their run, so each run still gets its own folds
+        exp.instanceGeneratorArgs = "seed=" + (seed + 1) + ":" + resamplingArgs + ":seed={SEED}";
+        exp.attributeSelection = true;
+
+        exp.attributeSelectionTimeout = timeLimit * 1;
+        exp.tunerTimeout = timeLimit * 50;
+        exp.trainTimeout = timeLimit * 5;
+
+        exp.memory = memLimit + "m";
+        exp.extraPropsString = extraArgs;
+
+        //Setup all the extra args
+        List<String> args = new LinkedList<String>();
+        args.add("-experimentpath");
+        args.add(msExperimentPaths[0]);
+        //Make the thing
+
+        ExperimentConstructor.buildSingle("autoweka.smac.SMACExperimentConstructor", exp, args);
+
+        ConfigurationLeaderboard board = null;
+        if(nBestConfigs > 1) {
+            board = new ConfigurationLeaderboard(nBestConfigs);
+            String temporaryDirPath = msExperimentPaths[0] + expName + File.separator; //TODO make this a global
+            Util.makePath(temporaryDirPath + "ConfigurationLogging");
+            Util.initializeFile(temporaryDirPath + configurationRankingPath);
+            for(int i = 0; i < parallelRuns; i++) {
+                String logPath = temporaryDirPath + getConfigurationLogPath("" + (seed + i));
+                Util.initializeFile(logPath);
+                board.addLog(logPath);
             }
         }
 
@@ -356,6 +412,25 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
             throw new Exception("Java executable could not be found. Please refer to \"Known Issues\" in the Auto-WEKA manual.");
         }
 
+        leaderboard = board;
+
+        Properties extraProps = Util.parsePropertyString(extraArgs);
+        ResultCache resultCache = ResultCache.get(extraProps);
+        //Put the final model together out of the ones that were trained on the folds during the search
+        boolean foldEnsemble = Boolean.valueOf(extraProps.getProperty("foldEnsemble", "false"));
+        //Start training the final model once an incumbent hasn't changed for this many seconds
+        int speculativeFinalFit = Integer.parseInt(extraProps.getProperty("speculativeFinalFit", "-1"));
+        speculator = null;
+        if(speculativeFinalFit >= 0) {
+            //Each run keeps about one core busy, there's no point in fighting them for it
+            if(Runtime.getRuntime().availableProcessors() > parallelRuns) {
+                speculator = new FinalFitSpeculator(new Instances(is), speculativeFinalFit * 1000L);
+            } else {
+                log.info("No spare cores for a speculative final fit, the final model will be trained after the search");
+            }
+        }
+        long[] resultCacheStats = resultCache != null ? resultCache.getStats() : null;
+
         Thread[] workers = new Thread[parallelRuns];
 
         for(int i = 0; i < parallelRuns; i++) {
@@ -363,8 +438,12 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
             workers[i] = new Thread(new Runnable() {
                 public void run() {
                     Process mProc = null;
+                    EventChannel.Server events = null;
                     try {
+                        //Results come in over the event channel, the output is only there for the log
+                        events = new EventChannel.Server(new RunProgress(index));
                         ProcessBuilder pb = new ProcessBuilder(javaExecutable, "-Xmx128m", "-cp", autoweka.Util.getAbsoluteClasspath(), "autoweka.tools.ExperimentRunner", msExperimentPaths[index] + expName, "" + (seed + index));
+                        pb.environment().put(EventChannel.PORT_ENV_VARIABLE, "" + events.start());
                         pb.redirectErrorStream(true);
 
                         mProc = pb.start();
@@ -374,47 +453,18 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
 
                         BufferedReader reader = new BufferedReader(new InputStreamReader(mProc.getInputStream()));
                         String line;
-                        Pattern p = Pattern.compile(".*Estimated mean quality of final incumbent config .* on test set: (-?[0-9.]+).*");
-                        Pattern pint = Pattern.compile(".*mean quality of.*: (-?[0-9E.]+);.*");
-                        int tried = 0;
-                        double bestMetricValue = -1;
                         while((line = reader.readLine()) != null) {
-                            Matcher m = p.matcher(line);
-                            if(m.matches()) {
-                                estimatedMetricValues[index] = Double.parseDouble(m.group(1));
-                                if(Arrays.asList(metricsToMax).contains(metric)) {
-                                    estimatedMetricValues[index] *= -1;
-                                }
-                            }
-                            m = pint.matcher(line);
-                            if(m.matches()) {
-                                bestMetricValue = Double.parseDouble(m.group(1));
-                                if(Arrays.asList(metricsToMax).contains(metric)) {
-                                    bestMetricValue *= -1;
-                                }
-                            }
                             // fix nested logging...
-                            if(line.matches(".*DEBUG.*") || line.matches(".*Variance is less than.*")) {
+                            Util.LogLevel level = Util.findLogLevel(line);
+                            if(level == Util.LogLevel.DEBUG || level == Util.LogLevel.INFO || line.indexOf("Variance is less than") >= 0) {
                                 //log.debug(line);
-                            } else if(line.matches(".*INFO.*")) {
-                                if(line.matches(".*ClassifierRunner - weka.classifiers.*")) {
-                                    tried++;
-                                    totalTried++;
-                                    if(wLog != null) {
-                                        String msg = "Thread " + index + ": performed " + tried + " evaluations, estimated " + metric + " " + bestMetricValue + "...";
-                                        wLog.statusMessage(msg);
-                                        if(tried % 10 == 0)
-                                            wLog.logMessage(msg);
-                                    }
-                                }
-                                //log.info(line);
-                            } else if(line.matches(".*WARN.*")) {
+                            } else if(level == Util.LogLevel.WARN) {
                                 // filter out noisy warning message
-                                if (line.matches(".*Picked up _JAVA_OPTIONS:.*")) {
+                                if (line.indexOf("Picked up _JAVA_OPTIONS:") >= 0) {
                                     continue;
                                 }
                                 log.warn(line);
-                            } else if(line.matches(".*ERROR.*")) {
+                            } else if(level == Util.LogLevel.ERROR) {
                                 log.error(line);
                             } else {
                                 log.info(line);
@@ -424,9 +474,11 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
                                 break;
                             }
                         }
+                        events.stop();
                         Runtime.getRuntime().removeShutdownHook(killerHook);
                     } catch (Exception e) {
                         if(mProc != null) mProc.destroy();
+                        if(events != null) events.stop();
                         log.error(e.getMessage(), e);
                     }
                 } });
@@ -440,14 +492,19 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
             for(int i = 0; i < parallelRuns; i++) {
                 workers[i].interrupt();
             }
+            if(speculator != null) speculator.stop();
             throw new InterruptedException("Auto-WEKA run interrupted!");
         }
 
         // get results
         TrajectoryGroup[] groups = new TrajectoryGroup[parallelRuns];
         GetBestFromTrajectoryGroup[] bests = new GetBestFromTrajectoryGroup[parallelRuns];
+        TrajectoryGroup merged = TrajectoryMerger.mergeExperimentFolder(msExperimentPaths[0] + expName);
         for(int i = 0; i < parallelRuns; i++) {
-            groups[i] = TrajectoryMerger.mergeExperimentFolder(msExperimentPaths[i] + expName);
+            groups[i] = new TrajectoryGroup(merged.getExperiment());
+            if(merged.getSeeds().contains("" + (seed + i))) {
+                groups[i].addTrajectory(merged.getTrajectory("" + (seed + i)));
+            }
 
             log.debug("Optimization trajectory {}:", i);
             for(Trajectory t: groups[i].getTrajectories()) {
@@ -458,11 +515,16 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
             log.info("Thread {}, best configuration estimate {}", i, estimatedMetricValues[i]);
         }
 
+        if(resultCache != null) {
+            log.info("Result cache: {}", ResultCache.describeStats(resultCacheStats, resultCache.getStats()));
+        }
+
         boolean allFailed = true;
         for(int i = 0; i < parallelRuns; i++) {
             allFailed &= bests[i].errorEstimate == autoweka.ClassifierResult.getInfinity();
         }
         if(allFailed) {
+            if(speculator != null) speculator.stop();
             throw new Exception("All runs timed out, unable to find good configuration. Please allow more time and rerun.");
         }
 
@@ -488,7 +550,7 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         //Print log of best configurations
         if(nBestConfigs > 1) {
             try{
-                ConfigurationRanker.rank(nBestConfigs, msExperimentPaths[bestIndex] + expName + File.separator, mBest.rawArgs);
+                ConfigurationRanker.rank(nBestConfigs, msExperimentPaths[bestIndex] + expName + File.separator, "" + (seed + bestIndex), mBest.rawArgs);
                 bestConfigsCollection = ConfigurationCollection.fromXML(msExperimentPaths[bestIndex] + expName + File.separator + configurationRankingPath,ConfigurationCollection.class);
             }catch(Exception e){
                 if (e instanceof FileNotFoundException || e instanceof NoSuchElementException){
@@ -513,29 +575,133 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         log.info("classifier: {}, arguments: {}, attribute search: {}, attribute search arguments: {}, attribute evaluation: {}, attribute evaluation arguments: {}",
             classifierClass, classifierArgs, attributeSearchClass, attributeSearchArgs, attributeEvalClass, attributeEvalArgs);
 
-        // train model on entire dataset and save
-        as = new AttributeSelection();
+        // get the model for the entire dataset, if it's not already there then train it
+        FinalModel model = null;
+        if(foldEnsemble) {
+            FoldEnsemble ensemble = FoldEnsemble.load(msExperimentPaths[bestIndex] + expName, "" + (seed + bestIndex), mBest.rawArgs);
+            if(ensemble != null) {
+                log.info("Using the {} fold models of the best configuration as the final model", ensemble.getNumMembers());
+                model = new FinalModel(null, ensemble, 0);
+            } else {
+                log.info("No fold models were saved for the best configuration, training it on the entire dataset");
+            }
+        }
+        if(speculator != null) {
+            if(model == null) {
+                model = speculator.get(mBest.rawArgs);
+                if(model != null) {
+                    log.info("Using the final model that was trained during the search");
+                }
+            } else {
+                speculator.stop();
+            }
+            speculator = null;
+        }
+        if(model == null) {
+            model = fitFinalModel(mBest, is);
+        }
+        setFinalModel(model.as, model.classifier, model.trainTime, is);
+    }
+
+    /*
+     * Puts the final model in place. Scoring the training data can take as long as training did, so it waits until somebody wants the summary,
+     * and the data only gets hung on to (as a copy, since the caller might change theirs) if the evaluation isn't being dropped
+     */
+    synchronized void setFinalModel(AttributeSelection as, Classifier classifier, double trainTime, Instances is) throws Exception {
+        this.as = as;
+        this.classifier = classifier;
+        finalTrainTime = trainTime;
+
+        eval = null;
+        evalData = null;
+        if(!dropTrainingEvaluation) {
+            evalData = as != null ? as.reduceDimensionality(is) : new Instances(is);
+        }
+        resetPredictionState();
+    }
+
+    /**
+     * Gets the evaluation of the best classifier on the training data, working it out the first time that it's asked for.
+     *
+     * @return The evaluation, or null if there isn't a model, or the evaluation was dropped.
+     * @throws Exception if the evaluation failed.
+     */
+    public synchronized Evaluation getTrainingEvaluation() throws Exception {
+        if(eval == null && evalData != null) {
+            Evaluation e = new Evaluation(evalData);
+            e.evaluateModel(classifier, evalData);
+            eval = e;
+            evalData = null;
+        }
+        return eval;
+    }
+
+    /*
+     * The training data doesn't get saved with the model, so the evaluation has to be worked out now if it's going along with it
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        if(dropTrainingEvaluation) {
+            Evaluation kept = eval;
+            eval = null;
+            try {
+                out.defaultWriteObject();
+            } finally {
+                eval = kept;
+            }
+            return;
+        }
+        try {
+            getTrainingEvaluation();
+        } catch(Exception e) {
+            throw new IOException("Failed to evaluate the model on the training data: " + e.getMessage(), e);
+        }
+        out.defaultWriteObject();
+    }
+
+    /*
+     * The attribute selection and classifier that get used for predictions, and how long they took to train
+     */
+    private static class FinalModel {
+        AttributeSelection as;
+        Classifier classifier;
+        double trainTime;
+
+        FinalModel(AttributeSelection as, Classifier classifier, double trainTime) {
+            this.as = as;
+            this.classifier = classifier;
+            this.trainTime = trainTime;
+        }
+    }
+
+    /*
+     * Does the attribute selection and trains the classifier of a configuration on the entire dataset, without touching the data that it's given
+     */
+    private static FinalModel fitFinalModel(GetBestFromTrajectoryGroup config, Instances is) throws Exception {
+        String[] searchArgs = config.attributeSearchArgs != null ? Util.splitQuotedString(config.attributeSearchArgs).toArray(new String[0]) : new String[0];
+        String[] evalArgs = config.attributeEvalArgs != null ? Util.splitQuotedString(config.attributeEvalArgs).toArray(new String[0]) : new String[0];
 
-        if(attributeSearchClass != null) {
-            ASSearch asSearch = ASSearch.forName(attributeSearchClass, attributeSearchArgs.clone());
+        AttributeSelection as = new AttributeSelection();
+        if(config.attributeSearchClass != null) {
+            ASSearch asSearch = ASSearch.forName(config.attributeSearchClass, searchArgs);
             as.setSearch(asSearch);
         }
-        if(attributeEvalClass != null) {
-            ASEvaluation asEval = ASEvaluation.forName(attributeEvalClass, attributeEvalArgs.clone());
+        if(config.attributeEvalClass != null) {
+            ASEvaluation asEval = ASEvaluation.forName(config.attributeEvalClass, evalArgs);
             as.setEvaluator(asEval);
         }
         as.SelectAttributes(is);
+        //Speculative fits get abandoned when a better incumbent turns up
+        if(Thread.interrupted()) {
+            throw new InterruptedException("Final fit abandoned");
+        }
 
-        classifier = AbstractClassifier.forName(classifierClass, classifierArgs.clone());
+        Classifier classifier = AbstractClassifier.forName(config.classifierClass, Util.splitQuotedString(config.classifierArgs).toArray(new String[0]));
 
         long startTime = System.currentTimeMillis();
         is = as.reduceDimensionality(is);
         classifier.buildClassifier(is);
         long stopTime = System.currentTimeMillis();
-        finalTrainTime = (stopTime - startTime) / 1000.0;
-
-        eval = new Evaluation(is);
-        eval.evaluateModel(classifier, is);
+        return new FinalModel(as, classifier, (stopTime - startTime) / 1000.0);
     }
 
     /**
@@ -549,8 +715,7 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         if(classifier == null) {
             throw new Exception("Auto-WEKA has not been run yet to get a model!");
         }
-        i = as.reduceDimensionality(i);
-        return classifier.classifyInstance(i);
+        return classifier.classifyInstance(reduce(i, null));
     }
 
     /**
@@ -564,8 +729,172 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         if(classifier == null) {
             throw new Exception("Auto-WEKA has not been run yet to get a model!");
         }
-        i = as.reduceDimensionality(i);
-        return classifier.distributionForInstance(i);
+        return classifier.distributionForInstance(reduce(i, null));
+    }
+
+    /**
+    * Calculates the class membership probabilities for a batch of instances. The attribute selection is applied by copying the values
+    * it keeps straight out of each instance. If the chosen classifier can predict from several threads at once, the batch is split into
+    * chunks of the batch size and spread over the cores.
+    *
+    * @param insts the instances to be classified
+    * @return the predicted class probability distributions, one for each instance
+    * @throws Exception if the instances could not be classified successfully.
+    */
+    @Override
+    public double[][] distributionsForInstances(Instances insts) throws Exception {
+        if(classifier == null) {
+            throw new Exception("Auto-WEKA has not been run yet to get a model!");
+        }
+        final Instances data = insts;
+        final double[][] dists = new double[data.numInstances()][];
+        int chunkSize = Math.max(1, Integer.parseInt(getBatchSize()));
+        int numChunks = (data.numInstances() + chunkSize - 1) / chunkSize;
+
+        //The projection is safe to use from several threads, the attribute selection's filter isn't
+        boolean reduceConcurrently = as == null || getProjection(data) != null;
+        final boolean shared = ClassifierRunner.EvaluatorThread.canSharePredictions(classifier);
+        boolean concurrent = reduceConcurrently && (shared || ClassifierRunner.EvaluatorThread.canReplicatePredictions(classifier));
+        if(numChunks < 2 || !concurrent || Runtime.getRuntime().availableProcessors() < 2) {
+            predictChunk(classifier, data, 0, data.numInstances(), dists);
+            return dists;
+        }
+
+        ExecutorService pool = getPredictionPool();
+        final Classifier model = classifier;
+        final Queue<Classifier> replicas = getPredictionReplicas();
+        List<Future<Void>> chunks = new ArrayList<Future<Void>>(numChunks);
+        for(int c = 0; c < numChunks; c++) {
+            final int start = c * chunkSize;
+            final int end = Math.min(data.numInstances(), start + chunkSize);
+            chunks.add(pool.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    if(shared) {
+                        predictChunk(model, data, start, end, dists);
+                        return null;
+                    }
+                    //There are never more copies than there are threads, since each chunk hands its copy back when it's done
+                    Classifier replica = replicas.poll();
+                    if(replica == null) {
+                        replica = AbstractClassifier.makeCopy(model);
+                    }
+                    predictChunk(replica, data, start, end, dists);
+                    replicas.offer(replica);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for(Future<Void> f: chunks) {
+                f.get();
+            }
+        } catch(ExecutionException e) {
+            for(Future<Void> f: chunks) {
+                f.cancel(true);
+            }
+            if(e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        return dists;
+    }
+
+    /**
+    * Returns true, since batches skip the attribute selection's filter and can be predicted on several threads.
+    *
+    * @return true
+    */
+    @Override
+    public boolean implementsMoreEfficientBatchPrediction() {
+        return true;
+    }
+
+    /*
+     * Predicts instances start to end with the given copy of the classifier, using its own batch prediction if that's any better
+     */
+    private void predictChunk(Classifier c, Instances data, int start, int end, double[][] dists) throws Exception {
+        AttributeProjection p = as != null ? getProjection(data) : null;
+        double[] buffer = p != null ? p.newBuffer() : null;
+
+        if(c instanceof BatchPredictor && ((BatchPredictor)c).implementsMoreEfficientBatchPrediction()) {
+            Instances header = p != null ? p.getHeader() : (as != null ? as.reduceDimensionality(new Instances(data, 0)) : data);
+            //Adding an instance only makes a shallow copy that still points at the projected values, so each row needs an array of its own
+            Instances batch = new Instances(header, end - start);
+            for(int i = start; i < end; i++) {
+                batch.add(reduce(data.instance(i), null));
+            }
+            double[][] batchDists = ((BatchPredictor)c).distributionsForInstances(batch);
+            System.arraycopy(batchDists, 0, dists, start, end - start);
+            return;
+        }
+
+        for(int i = start; i < end; i++) {
+            dists[i] = c.distributionForInstance(reduce(data.instance(i), buffer));
+        }
+    }
+
+    /*
+     * Applies the attribute selection to an instance, copying the values it keeps into the buffer (or a new one, if that's null) if all it
+     * does is keep some of the attributes
+     */
+    private Instance reduce(Instance i, double[] buffer) throws Exception {
+        if(as == null) {
+            return i;
+        }
+        AttributeProjection p = getProjection(i.dataset());
+        if(p == null) {
+            return as.reduceDimensionality(i);
+        }
+        return p.project(i, buffer);
+    }
+
+    /*
+     * Works out the projection the first time there's a header to work it out from
+     */
+    private AttributeProjection getProjection(Instances header) throws Exception {
+        if(!projectionChecked && header != null) {
+            synchronized(this) {
+                if(!projectionChecked) {
+                    projection = AttributeProjection.create(as, header);
+                    projectionChecked = true;
+                }
+            }
+        }
+        return projection;
+    }
+
+    private static synchronized ExecutorService getPredictionPool() {
+        if(msPredictionPool == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            msPredictionPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private int count = 0;
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "AutoWEKAClassifier-predict-" + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            msPredictionPool.allowCoreThreadTimeOut(true);
+        }
+        return msPredictionPool;
+    }
+
+    private synchronized Queue<Classifier> getPredictionReplicas() {
+        if(predictionReplicas == null) {
+            predictionReplicas = new ConcurrentLinkedQueue<Classifier>();
+        }
+        return predictionReplicas;
+    }
+
+    /*
+     * Forgets everything that was worked out for the last model's predictions
+     */
+    private synchronized void resetPredictionState() {
+        projection = null;
+        projectionChecked = false;
+        //Chunks of the old model that are still going hand their copies back to the old queue, which nothing looks at any more
+        predictionReplicas = null;
     }
 
     /**
@@ -594,6 +923,9 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         result.addElement(
             new Option("\tThe number of parallel runs. EXPERIMENTAL.\n" + "\t(default: " + DEFAULT_PARALLEL_RUNS + ")",
                 "parallelRuns", 1, "-parallelRuns <runs>"));
+        result.addElement(
+            new Option("\tLeave the evaluation on the training data out of the saved model, and don't work it out at all.\n" + "\t(default: off)",
+                "dropTrainingEvaluation", 0, "-dropTrainingEvaluation"));
         //result.addElement(
         //    new Option("\tThe type of resampling used.\n" + "\t(default: " + String.valueOf(DEFAULT_RESAMPLING) + ")",
         //        "resampling", 1, "-resampling <resampling>"));
@@ -633,6 +965,9 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         result.add("" + metric);
         result.add("-parallelRuns");
         result.add("" + parallelRuns);
+        if(dropTrainingEvaluation) {
+            result.add("-dropTrainingEvaluation");
+        }
         //result.add("-resampling");
         //result.add("" + resampling);
         //result.add("-resamplingArgs");
@@ -694,6 +1029,8 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
             parallelRuns = DEFAULT_PARALLEL_RUNS;
         }
 
+        dropTrainingEvaluation = Utils.getFlag("dropTrainingEvaluation", options);
+
         //tmpStr = Utils.getOption("resampling", options);
         //if (tmpStr.length() != 0) {
         //    resampling = Resampling.valueOf(tmpStr);
@@ -766,6 +1103,31 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         return "the number of runs to perform in parallel EXPERIMENTAL";
     }
 
+    /**
+     * Set whether the evaluation on the training data is left out of the saved model. If it's set before the model is built, the evaluation
+     * is never worked out at all and the training data isn't kept for it.
+     * @param drop Whether to leave it out.
+     */
+    public void setDropTrainingEvaluation(boolean drop) {
+        dropTrainingEvaluation = drop;
+    }
+
+    /**
+     * Get whether the evaluation on the training data is left out of the saved model.
+     * @return Whether it's left out.
+     */
+    public boolean getDropTrainingEvaluation() {
+        return dropTrainingEvaluation;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property
+     */
+    public String dropTrainingEvaluationTipText() {
+        return "leave the evaluation on the training data out of the saved model, which makes it smaller; if set before building, the evaluation is never worked out";
+    }
+
     /**
      * Set the metric.
      * @param m The metric.
@@ -862,6 +1224,36 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         return "How many of the best configurations should be returned as output";
     }
 
+    /**
+     * Get the best configurations found so far, which can be called from another thread while buildClassifier is still running.
+     * The configurations from all of the parallel runs are ranked together, by the number of folds they've been evaluated on and then by their average score.
+     * @return Up to nBestConfigs configurations, best first, or an empty list if nBestConfigs isn't more than one or the search hasn't started.
+     */
+    public List<Configuration> getCurrentBestConfigs() {
+        ConfigurationLeaderboard board = leaderboard;
+        if(board == null) {
+            return new ArrayList<Configuration>();
+        }
+        board.refresh();
+        return board.getLeaders();
+    }
+
+    /**
+     * Get the classifier that was chosen and trained, which expects instances that have been through getChosenAttributeSelection.
+     * @return The classifier, or null if Auto-WEKA hasn't been run yet.
+     */
+    public Classifier getChosenClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Get the attribute selection that was chosen and run on the training data.
+     * @return The attribute selection, or null if there isn't one (such as when the model is made out of the fold models).
+     */
+    public AttributeSelection getChosenAttributeSelection() {
+        return as;
+    }
+
     //public void setResampling(Resampling r) {
     //    resampling = r;
     //    resamplingArgs = resamplingArgsMap.get(r);
@@ -920,6 +1312,138 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         this.wLog = log;
     }
 
+    /*
+     * Keeps track of how one of the parallel runs is doing, from the events that its processes send back
+     */
+    private class RunProgress implements EventChannel.Listener {
+        private int index;
+        private int tried = 0;
+        private double bestMetricValue = -1;
+
+        RunProgress(int index) {
+            this.index = index;
+        }
+
+        public synchronized void onEvent(EventChannel.Event event) {
+            boolean maximize = Arrays.asList(metricsToMax).contains(metric);
+            if(event.type == EventChannel.Event.EVALUATION) {
+                tried++;
+                synchronized(AutoWEKAClassifier.this) {
+                    totalTried++;
+                }
+                if(wLog != null) {
+                    String msg = "Thread " + index + ": performed " + tried + " evaluations, estimated " + metric + " " + bestMetricValue + "...";
+                    wLog.statusMessage(msg);
+                    if(tried % 10 == 0)
+                        wLog.logMessage(msg);
+                }
+            } else if(event.type == EventChannel.Event.INCUMBENT) {
+                bestMetricValue = maximize ? -event.score : event.score;
+                FinalFitSpeculator s = speculator;
+                if(s != null)
+                    s.incumbent(index, event.seed, event.score, event.text);
+            } else if(event.type == EventChannel.Event.FINAL_ESTIMATE) {
+                estimatedMetricValues[index] = maximize ? -event.score : event.score;
+            } else if(event.type == EventChannel.Event.ERROR) {
+                if(wLog != null)
+                    wLog.logMessage("Thread " + index + ": " + event.text);
+            }
+        }
+    }
+
+    /*
+     * Trains the final model in the background once one of the runs has had the same incumbent for a while, on the bet that it's going to win,
+     * so that the model is usually there by the time that the search is done. Each fit gets a daemon thread of its own at the lowest priority.
+     * When a better incumbent has been stable for long enough the old fit is interrupted and its model thrown away, and the new one starts
+     * straight away on a new thread. Most classifiers don't look at the interrupt while they train though, so an abandoned fit can keep its
+     * core until it finishes, even after the search is done.
+     */
+    private class FinalFitSpeculator implements Runnable {
+        private Instances data;
+        private long stableMillis;
+        private String[] incumbentSeeds = new String[parallelRuns];
+        private String[] incumbentArgs = new String[parallelRuns];
+        private double[] incumbentScores = new double[parallelRuns];
+        private long[] incumbentSince = new long[parallelRuns];
+        private String fitArgs = null;
+        private Future<FinalModel> fit = null;
+        private ThreadFactory factory;
+        private ScheduledExecutorService checker;
+
+        FinalFitSpeculator(Instances data, long stableMillis) {
+            this.data = data;
+            this.stableMillis = stableMillis;
+            factory = new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "FinalFitSpeculator");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            };
+            checker = Executors.newSingleThreadScheduledExecutor(factory);
+            checker.scheduleWithFixedDelay(this, 1, 1, TimeUnit.SECONDS);
+        }
+
+        synchronized void incumbent(int index, String seed, double score, String args) {
+            if(args == null) return;
+            args = args.trim();
+            if(!args.equals(incumbentArgs[index])) {
+                incumbentArgs[index] = args;
+                incumbentSince[index] = System.currentTimeMillis();
+            }
+            incumbentSeeds[index] = seed;
+            incumbentScores[index] = score;
+        }
+
+        /* Looks for the best incumbent that's been around for long enough, and starts fitting it if that's not already happening */
+        public synchronized void run() {
+            long now = System.currentTimeMillis();
+            int best = -1;
+            for(int i = 0; i < parallelRuns; i++) {
+                if(incumbentArgs[i] == null || now - incumbentSince[i] < stableMillis) continue;
+                if(best < 0 || incumbentScores[i] < incumbentScores[best]) best = i;
+            }
+            if(best < 0 || incumbentArgs[best].equals(fitArgs)) return;
+
+            if(fit != null) fit.cancel(true);
+            fitArgs = incumbentArgs[best];
+            final GetBestFromTrajectoryGroup config = new GetBestFromTrajectoryGroup(incumbentSeeds[best], new Trajectory.Point(0, incumbentScores[best], fitArgs));
+            log.debug("Starting speculative final fit of {}", fitArgs);
+            //Not a pool, since the fit that's being given up on can hang on to its thread for a good while yet
+            FutureTask<FinalModel> task = new FutureTask<FinalModel>(new Callable<FinalModel>() {
+                public FinalModel call() throws Exception {
+                    return fitFinalModel(config, data);
+                }
+            });
+            factory.newThread(task).start();
+            fit = task;
+        }
+
+        /* Waits for the fit of the given configuration, if that's the one that was started, otherwise gives up on it and returns null */
+        FinalModel get(String args) {
+            Future<FinalModel> f;
+            synchronized(this) {
+                checker.shutdownNow();
+                f = fit != null && args.trim().equals(fitArgs) ? fit : null;
+            }
+            try {
+                if(f == null) return null;
+                return f.get();
+            } catch(Exception e) {
+                log.warn("Speculative final fit failed: {}", e.getMessage());
+                return null;
+            } finally {
+                stop();
+            }
+        }
+
+        synchronized void stop() {
+            checker.shutdownNow();
+            if(fit != null) fit.cancel(true);
+        }
+    }
+
     /**
      * Returns default capabilities of the classifier.
      *
@@ -1035,11 +1559,16 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         res += "classifier.buildClassifier(instances);\n\n";
 
         try {
-            res += eval.toSummaryString();
-            res += "\n";
-            res += eval.toMatrixString();
-            res += "\n";
-            res += eval.toClassDetailsString();
+            Evaluation trainingEval = getTrainingEvaluation();
+            if(trainingEval != null) {
+                res += trainingEval.toSummaryString();
+                res += "\n";
+                res += trainingEval.toMatrixString();
+                res += "\n";
+                res += trainingEval.toClassDetailsString();
+            } else if(classifier != null) {
+                res += "The evaluation on the training data was dropped from this model.\n";
+            }
         } catch(Exception e) { /*TODO treat*/ }
 
 
@@ -1073,8 +1602,8 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
 
         if(msExperimentPaths != null) {
             res += "\nTemporary run directories:\n";
-            for(int i = 0; i < msExperimentPaths.length; i++) {
-                res += msExperimentPaths[i] + "\n";
+            for(String path: new LinkedHashSet<String>(Arrays.asList(msExperimentPaths))) {
+                res += path + "\n";
             }
         }
 
@@ -1093,6 +1622,20 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
         return estimatedMetricValue;
     }
 
+    /**
+     * Returns the error rate of the chosen method on the training data, which gets worked out the first time it's asked for. It isn't in
+     * enumerateMeasures, since the Experimenter asks for every measure there after every run, which would always force the evaluation.
+     * @return The error rate, or NaN if there's no evaluation.
+     */
+    public double measureTrainingErrorRate() {
+        try {
+            Evaluation trainingEval = getTrainingEvaluation();
+            return trainingEval != null ? trainingEval.errorRate() : Double.NaN;
+        } catch(Exception e) {
+            throw new RuntimeException("Failed to evaluate the model on the training data", e);
+        }
+    }
+
     /**
     * Returns an enumeration of the additional measure names
     * @return an enumeration of the measure names
@@ -1112,6 +1655,8 @@ public class AutoWEKAClassifier extends AbstractClassifier implements Additional
     public double getMeasure(String additionalMeasureName) {
         if (additionalMeasureName.compareToIgnoreCase("measureEstimatedMetricValue") == 0) {
             return measureEstimatedMetricValue();
+        } else if (additionalMeasureName.compareToIgnoreCase("measureTrainingErrorRate") == 0) {
+            return measureTrainingErrorRate();
         } else {
             throw new IllegalArgumentException(additionalMeasureName
                     + " not supported (Auto-WEKA)");
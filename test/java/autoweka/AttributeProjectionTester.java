@@ -0,0 +1,47 @@
+package autoweka;
+
+import java.io.FileReader;
+
+import org.junit.Test;
+
+import weka.attributeSelection.AttributeSelection;
+import weka.attributeSelection.CfsSubsetEval;
+import weka.attributeSelection.GreedyStepwise;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import static org.junit.Assert.*;
+
+public class AttributeProjectionTester
+{
+    private Instances loadIris() throws Exception
+    {
+        Instances data = new Instances(new FileReader("test/iris.arff"));
+        data.setClassIndex(data.numAttributes() - 1);
+        data.instance(3).setMissing(2);
+        return data;
+    }
+
+    @Test
+    public void matchesReduceDimensionality() throws Exception
+    {
+        Instances iris = loadIris();
+        AttributeSelection as = new AttributeSelection();
+        as.setEvaluator(new CfsSubsetEval());
+        as.setSearch(new GreedyStepwise());
+        as.SelectAttributes(iris);
+
+        AttributeProjection projection = AttributeProjection.create(as, iris);
+        assertNotNull(projection);
+        assertTrue(projection.getHeader().numAttributes() < iris.numAttributes());
+
+        double[] buffer = projection.newBuffer();
+        for(int i = 0; i < iris.numInstances(); i++)
+        {
+            Instance expected = as.reduceDimensionality(iris.instance(i));
+            Instance actual = projection.project(iris.instance(i), buffer);
+            assertArrayEquals(expected.toDoubleArray(), actual.toDoubleArray(), 0);
+            assertEquals(expected.classIndex(), actual.classIndex());
+        }
+    }
+}
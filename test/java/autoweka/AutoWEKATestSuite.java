@@ -5,14 +5,27 @@ import org.junit.runners.Suite;
 import autoweka.instancegenerators.*;
 
 import autoweka.smac.SMACTrajectoryParserTester;
+import autoweka.tools.TrainedModelPredictionMakerTester;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
     UtilTester.class,
     MultiLevelTester.class,
+    IndexPlanTester.class,
     WekaArgumentConverterTester.class,
     ConfigurationTester.class,
-    SMACTrajectoryParserTester.class
+    SMACTrajectoryParserTester.class,
+    DatasetCacheTester.class,
+    ResultCacheTester.class,
+    FoldRacerTester.class,
+    MetricAccumulatorTester.class,
+    EvaluatorThreadTester.class,
+    XmlSerializableTester.class,
+    EventChannelTester.class,
+    FoldEnsembleTester.class,
+    AttributeProjectionTester.class,
+    ScoringPoolTester.class,
+    TrainedModelPredictionMakerTester.class
 })
 
 public class AutoWEKATestSuite
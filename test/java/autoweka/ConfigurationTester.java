@@ -160,4 +160,121 @@ public class ConfigurationTester{
     }
   }
 
+  @Test
+  public void logRankerTest() throws Exception{
+
+    File dir = File.createTempFile("configlog", "");
+    dir.delete();
+    String dirPath = dir.getPath() + File.separator;
+    Util.makePath(dirPath + "ConfigurationLogging");
+    String logFilename = dirPath + weka.classifiers.meta.AutoWEKAClassifier.configurationLogPath;
+    String rankFilename = dirPath + weka.classifiers.meta.AutoWEKAClassifier.configurationRankingPath;
+
+    //An empty log means nothing got evaluated
+    Util.initializeFile(logFilename);
+    boolean caught=false;
+    try{
+      ConfigurationRanker.rank(10, dirPath, "IGNORE");
+    }catch(NoSuchElementException e){
+      caught=true;
+    }
+    assertTrue(caught);
+
+    String a = Configuration.toArgStrings(Arrays.asList("-a", "1"));
+    String b = Configuration.toArgStrings(Arrays.asList("-b", "2"));
+    String c = "-c 3 ";
+    for(int i = 0; i < 3; i++){
+      ConfigurationLog.append(logFilename, a, i, 10+i);
+      ConfigurationLog.append(logFilename, b, i, 5);
+    }
+    ConfigurationLog.append(logFilename, b, 3, 1);
+    ConfigurationLog.append(logFilename, c, 0, 0);
+
+    ConfigurationRanker.rank(2, dirPath, "IGNORE");
+    ConfigurationCollection cc = ConfigurationCollection.fromXML(rankFilename, ConfigurationCollection.class);
+    assertEquals(2, cc.size());
+
+    //More folds wins, even over a better score
+    assertEquals(b, cc.get(0).getArgStrings());
+    assertEquals(Arrays.asList("0", "1", "2", "3"), cc.get(0).getFolds());
+    assertEquals(4, cc.get(0).getAmtFolds());
+    assertEquals(4, cc.get(0).getScoreValues().length);
+    assertEquals(4, cc.get(0).getAverageScore(), 1e-9);
+    assertEquals(a, cc.get(1).getArgStrings());
+    assertEquals(11, cc.get(1).getAverageScore(), 1e-9);
+
+    new File(rankFilename).delete();
+    new File(logFilename).delete();
+    new File(dirPath + "ConfigurationLogging").delete();
+    dir.delete();
+  }
+
+  @Test
+  public void leaderboardTest() throws Exception{
+
+    //The bounded board has to come up with the same leaders as sorting everything
+    Random rg = new Random(7);
+    ConfigurationLeaderboard board = new ConfigurationLeaderboard(5);
+    Map<String, Configuration> all = new HashMap<String, Configuration>();
+    for(int i = 0; i < 2000; i++){
+      String args = "-c " + rg.nextInt(50);
+      int fold = rg.nextInt(10);
+      double score = rg.nextInt(1000);
+      board.record(args, fold, score);
+      if(!all.containsKey(args)){
+        all.put(args, new Configuration(args));
+      }
+      all.get(args).setEvaluationValues(score, fold);
+
+      if(i % 100 == 99){
+        List<Configuration> sorted = new ArrayList<Configuration>(all.values());
+        Collections.sort(sorted);
+        Collections.reverse(sorted);
+        List<Configuration> leaders = board.getLeaders();
+        assertEquals(5, leaders.size());
+        for(int j = 0; j < leaders.size(); j++){
+          assertEquals(0, sorted.get(j).compareTo(leaders.get(j)));
+        }
+      }
+    }
+    assertEquals(all.size(), board.getNumConfigurations());
+
+    //Following a log only picks up what's new
+    File log = File.createTempFile("configlog", ".txt");
+    ConfigurationLeaderboard live = new ConfigurationLeaderboard(2);
+    live.addLog(log.getPath());
+    assertEquals(0, live.refresh());
+    ConfigurationLog.append(log.getPath(), "-a ", 0, 5);
+    ConfigurationLog.append(log.getPath(), "-b ", 0, 3);
+    assertEquals(2, live.refresh());
+    assertEquals("-b ", live.getLeaders().get(0).getArgStrings());
+    ConfigurationLog.append(log.getPath(), "-a ", 1, 5);
+    assertEquals(1, live.refresh());
+    assertEquals("-a ", live.getLeaders().get(0).getArgStrings());
+    assertEquals(2, live.get("-a ").getAmtFolds());
+    log.delete();
+  }
+
+  @Test
+  public void forceFirstTest() throws Exception{
+
+    //All tied, so -c never makes it past the two that got there first
+    ConfigurationLeaderboard board = new ConfigurationLeaderboard(2);
+    board.record("-a ", 0, 3);
+    board.record("-b ", 0, 3);
+    board.record("-c ", 0, 3);
+    String oldLeader = board.getLeaders().get(0).getArgStrings();
+    assertFalse("-c ".equals(oldLeader));
+    assertNotNull(board.get("-c "));
+
+    //The incumbent goes in front and the old leader moves down rather than getting dropped
+    File rank = File.createTempFile("ranking", ".xml");
+    ConfigurationRanker.rank(board, "-c ", rank.getPath());
+    ConfigurationCollection cc = ConfigurationCollection.fromXML(rank.getPath(), ConfigurationCollection.class);
+    assertEquals(2, cc.size());
+    assertEquals("-c ", cc.get(0).getArgStrings());
+    assertEquals(oldLeader, cc.get(1).getArgStrings());
+    rank.delete();
+  }
+
 }
@@ -0,0 +1,86 @@
+package autoweka;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import static org.junit.Assert.*;
+
+public class DatasetCacheTester
+{
+    @Test
+    public void roundTrip() throws Exception
+    {
+        Instances training = Util.createDummyInstances(100, 3, 1, 1, 1, 1, 4, 0);
+        Instances testing = Util.createDummyInstances(40, 3, 1, 1, 1, 1, 4, 1);
+        training.instance(3).setMissing(0);
+        training.instance(5).setWeight(2.5);
+
+        File cacheFile = File.createTempFile("autoweka", ".dataset");
+        cacheFile.deleteOnExit();
+        DatasetCache.write(cacheFile, training, testing);
+        Instances[] cached = DatasetCache.read(cacheFile);
+
+        assertInstancesEqual(training, cached[0]);
+        assertInstancesEqual(testing, cached[1]);
+    }
+
+    @Test
+    public void sharedTestingAndStrings() throws Exception
+    {
+        ArrayList<Attribute> atts = new ArrayList<Attribute>();
+        atts.add(new Attribute("text", (java.util.List<String>)null));
+        atts.add(new Attribute("value"));
+        ArrayList<String> classValues = new ArrayList<String>();
+        classValues.add("a");
+        classValues.add("b");
+        atts.add(new Attribute("class", classValues));
+        Instances data = new Instances("strings", atts, 3);
+        data.setClassIndex(2);
+        for(int i = 0; i < 3; i++)
+        {
+            Instance inst = new DenseInstance(3);
+            inst.setDataset(data);
+            inst.setValue(0, "string " + i);
+            inst.setValue(1, i * 0.5);
+            inst.setValue(2, i % 2);
+            data.add(inst);
+        }
+
+        File cacheFile = File.createTempFile("autoweka", ".dataset");
+        cacheFile.deleteOnExit();
+        DatasetCache.write(cacheFile, data, null);
+        Instances[] cached = DatasetCache.read(cacheFile);
+
+        assertSame(cached[0], cached[1]);
+        assertInstancesEqual(data, cached[0]);
+        assertEquals("string 2", cached[0].instance(2).stringValue(0));
+
+        InstanceGenerator generator = InstanceGenerator.create("autoweka.instancegenerators.Default", "type=binaryCache:cacheFile=" + cacheFile.getAbsolutePath());
+        assertInstancesEqual(data, generator.getTraining());
+    }
+
+    private void assertInstancesEqual(Instances expected, Instances actual)
+    {
+        assertEquals(expected.numInstances(), actual.numInstances());
+        assertEquals(expected.numAttributes(), actual.numAttributes());
+        assertEquals(expected.classIndex(), actual.classIndex());
+        assertNull(expected.equalHeadersMsg(actual));
+        for(int i = 0; i < expected.numInstances(); i++)
+        {
+            assertEquals(expected.instance(i).weight(), actual.instance(i).weight(), 0);
+            for(int a = 0; a < expected.numAttributes(); a++)
+            {
+                double e = expected.instance(i).value(a);
+                double v = actual.instance(i).value(a);
+                assertTrue(Utils.isMissingValue(e) ? Utils.isMissingValue(v) : e == v);
+            }
+        }
+    }
+}
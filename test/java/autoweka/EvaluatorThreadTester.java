@@ -0,0 +1,127 @@
+package autoweka;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.evaluation.output.prediction.CSV;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.REPTree;
+import weka.core.Instances;
+
+import static org.junit.Assert.*;
+
+public class EvaluatorThreadTester
+{
+    private Instances loadIris(int classIndex) throws Exception
+    {
+        Instances iris = new Instances(new FileReader("test/iris.arff"));
+        //Make it big enough to get split up into a few chunks
+        Instances data = new Instances(iris, iris.numInstances() * 8);
+        for(int copy = 0; copy < 8; copy++)
+        {
+            for(int i = 0; i < iris.numInstances(); i++)
+                data.add(iris.instance(i));
+        }
+        data.setClassIndex(classIndex);
+        data.instance(7).setWeight(2.5);
+        data.instance(11).setClassMissing();
+        return data;
+    }
+
+    private void checkParallelMatchesSerial(AbstractClassifier classifier, Instances data, String metric) throws Exception
+    {
+        classifier.buildClassifier(data);
+
+        Evaluation serialEval = new Evaluation(data);
+        new ClassifierRunner.EvaluatorThread(serialEval, classifier, data).runWorker(60);
+        Evaluation parallelEval = new Evaluation(data);
+        ClassifierRunner.EvaluatorThread parallel = new ClassifierRunner.EvaluatorThread(parallelEval, classifier, data);
+        parallel.setNumThreads(3);
+        parallel.runWorker(60);
+        assertNull(parallel.getException());
+        assertEquals(data.numInstances(), parallel.getNumEvaluated());
+
+        ClassifierResult serialRes = new ClassifierResult(metric);
+        serialRes.setScoreFromEval(serialEval, data);
+        ClassifierResult parallelRes = new ClassifierResult(metric);
+        parallelRes.setScoreFromEval(parallelEval, data);
+        assertEquals(serialRes.getRawScore(), parallelRes.getRawScore(), 1e-12);
+
+        MetricAccumulator acc = new MetricAccumulator(data);
+        parallel = new ClassifierRunner.EvaluatorThread(acc, classifier, data);
+        parallel.setNumThreads(3);
+        parallel.runWorker(60);
+        assertNull(parallel.getException());
+        assertEquals(serialEval.errorRate(), acc.errorRate(), 1e-12);
+        assertEquals(serialEval.meanAbsoluteError(), acc.meanAbsoluteError(), 1e-12);
+    }
+
+    @Test
+    public void sharedModel() throws Exception
+    {
+        checkParallelMatchesSerial(new J48(), loadIris(4), "areaUnderROC");
+        checkParallelMatchesSerial(new REPTree(), loadIris(3), "correlationCoefficient");
+    }
+
+    @Test
+    public void replicatedModel() throws Exception
+    {
+        checkParallelMatchesSerial(new IBk(3), loadIris(4), "areaUnderROC");
+        checkParallelMatchesSerial(new IBk(3), loadIris(3), "correlationCoefficient");
+    }
+
+    @Test
+    public void streamedPredictionsMatchWeka() throws Exception
+    {
+        Instances data = loadIris(4);
+        J48 classifier = new J48();
+        classifier.buildClassifier(data);
+
+        //What weka would have written out
+        StringBuffer buffer = new StringBuffer();
+        CSV out = new CSV();
+        out.setBuffer(buffer);
+        out.setHeader(data);
+        out.setOutputDistribution(true);
+        out.printHeader();
+        new Evaluation(data).evaluateModel(classifier, data, out);
+        out.printFooter();
+
+        File csvFile = File.createTempFile("autoweka", ".csv");
+        csvFile.deleteOnExit();
+        ClassifierRunner.EvaluatorThread thread = new ClassifierRunner.EvaluatorThread(new MetricAccumulator(data), classifier, data, csvFile.getPath());
+        thread.setNumThreads(2);
+        thread.runWorker(60);
+        assertNull(thread.getException());
+        assertEquals(buffer.toString(), new String(java.nio.file.Files.readAllBytes(csvFile.toPath()), "UTF-8"));
+
+        File binFile = File.createTempFile("autoweka", ".bin.gz");
+        binFile.deleteOnExit();
+        thread = new ClassifierRunner.EvaluatorThread(new MetricAccumulator(data), classifier, data, binFile.getPath());
+        thread.runWorker(60);
+        assertNull(thread.getException());
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(binFile)));
+        assertEquals(PredictionsWriter.BinaryWriter.MAGIC, in.readInt());
+        assertEquals(PredictionsWriter.BinaryWriter.VERSION, in.readInt());
+        assertEquals(3, in.readInt());
+        for(int i = 0; i < data.numInstances(); i++)
+        {
+            assertEquals(i, in.readInt());
+            assertEquals(classifier.classifyInstance(data.instance(i)), in.readDouble(), 0);
+            in.readDouble();
+            double[] dist = classifier.distributionForInstance(data.instance(i));
+            for(int c = 0; c < 3; c++)
+                assertEquals(dist[c], in.readFloat(), 1e-6);
+        }
+        assertEquals(-1, in.read());
+        in.close();
+    }
+}
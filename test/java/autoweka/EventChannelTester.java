@@ -0,0 +1,88 @@
+package autoweka;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EventChannelTester
+{
+    @Test
+    public void roundTrip() throws Exception
+    {
+        final List<EventChannel.Event> received = Collections.synchronizedList(new ArrayList<EventChannel.Event>());
+        EventChannel.Server server = new EventChannel.Server(new EventChannel.Listener(){
+            public void onEvent(EventChannel.Event event)
+            {
+                received.add(event);
+            }
+        });
+        int port = server.start();
+
+        EventChannel.Client first = new EventChannel.Client(port);
+        EventChannel.Client second = new EventChannel.Client(port);
+        first.send(EventChannel.Event.evaluation("3", 0.25, 1.5, true, "-targetclass weka.classifiers.rules.ZeroR"));
+        first.send(EventChannel.Event.incumbent("3", 0.25, 2.0, "-targetclass weka.classifiers.rules.ZeroR"));
+        second.send(EventChannel.Event.error("4", "Ran out of m\u00e9mory"));
+        second.send(EventChannel.Event.finalEstimate("4", -0.5));
+        first.close();
+        second.close();
+        server.stop();
+
+        assertEquals(4, received.size());
+        EventChannel.Event eval = null;
+        EventChannel.Event error = null;
+        EventChannel.Event estimate = null;
+        for(EventChannel.Event e: received)
+        {
+            if(e.type == EventChannel.Event.EVALUATION)
+                eval = e;
+            else if(e.type == EventChannel.Event.ERROR)
+                error = e;
+            else if(e.type == EventChannel.Event.FINAL_ESTIMATE)
+                estimate = e;
+        }
+        assertEquals("3", eval.seed);
+        assertEquals(0.25, eval.score, 0);
+        assertEquals(1.5, eval.time, 0);
+        assertTrue(eval.completed);
+        assertEquals("-targetclass weka.classifiers.rules.ZeroR", eval.text);
+        assertEquals("Ran out of m\u00e9mory", error.text);
+        assertEquals(-0.5, estimate.score, 0);
+        assertNull(estimate.text);
+    }
+
+    @Test
+    public void finishedConnectionsAreDropped() throws Exception
+    {
+        EventChannel.Server server = new EventChannel.Server(new EventChannel.Listener(){
+            public void onEvent(EventChannel.Event event)
+            {
+            }
+        });
+        int port = server.start();
+
+        for(int i = 0; i < 20; i++)
+        {
+            EventChannel.Client client = new EventChannel.Client(port);
+            client.send(EventChannel.Event.error(Integer.toString(i), "Nothing much"));
+            client.close();
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while(server.getNumConnections() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, server.getNumConnections());
+        server.stop();
+    }
+
+    @Test
+    public void logLevels()
+    {
+        assertEquals(Util.LogLevel.DEBUG, Util.findLogLevel("[DEBUG] Something"));
+        assertEquals(Util.LogLevel.WARN, Util.findLogLevel("12:00 WARN autoweka.Wrapper - careful"));
+        assertNull(Util.findLogLevel("Result for ParamILS: SAT, 1.0, 0, 0.5, 0"));
+    }
+}
@@ -0,0 +1,59 @@
+package autoweka;
+
+import java.io.File;
+import java.io.FileReader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.REPTree;
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Remove;
+
+import static org.junit.Assert.*;
+
+public class FoldEnsembleTester
+{
+    @Test
+    public void averagesFoldModels() throws Exception
+    {
+        Instances iris = new Instances(new FileReader("test/iris.arff"));
+        iris.setClassIndex(iris.numAttributes() - 1);
+        String experimentDir = Files.createTempDirectory("foldensemble").toString();
+        List<String> args = Arrays.asList("-targetclass", "weka.classifiers.trees.J48", "-attributesearch", "NONE");
+        String dir = experimentDir + File.separator + FoldEnsemble.getFoldModelDir("3", args);
+
+        //One fold has every attribute, the other only kept the petal ones
+        J48 full = new J48();
+        full.buildClassifier(iris);
+        FoldEnsemble.saveFold(dir, "fold=0", iris, null, full);
+
+        int[] selected = new int[]{2, 3, 4};
+        Remove remove = new Remove();
+        remove.setAttributeIndicesArray(selected);
+        remove.setInvertSelection(true);
+        remove.setInputFormat(iris);
+        Instances reduced = Filter.useFilter(iris, remove);
+        REPTree petal = new REPTree();
+        petal.buildClassifier(reduced);
+        FoldEnsemble.saveFold(dir, "fold=1", iris, selected, petal);
+
+        assertNull(FoldEnsemble.load(experimentDir, "4", "-targetclass weka.classifiers.trees.J48 -attributesearch NONE "));
+        //The arguments can come in any order
+        FoldEnsemble ensemble = FoldEnsemble.load(experimentDir, "3", "-attributesearch NONE -targetclass weka.classifiers.trees.J48 ");
+        assertEquals(2, ensemble.getNumMembers());
+
+        for(int i = 0; i < iris.numInstances(); i += 7)
+        {
+            double[] a = full.distributionForInstance(iris.instance(i));
+            double[] b = petal.distributionForInstance(reduced.instance(i));
+            double[] dist = ensemble.distributionForInstance(iris.instance(i));
+            for(int c = 0; c < dist.length; c++)
+                assertEquals((a[c] + b[c]) / 2, dist[c], 1e-9);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package autoweka;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FoldRacerTester
+{
+    @Test
+    public void boundRejection() throws Exception
+    {
+        File incumbentFile = File.createTempFile("autoweka", ".incumbent");
+        incumbentFile.delete();
+        incumbentFile.deleteOnExit();
+
+        FoldRacer racer = new FoldRacer(incumbentFile, 0, 10, 0, 3);
+        //Nothing to race against yet
+        assertFalse(racer.canReject(Arrays.asList(0.9, 0.9, 0.9)));
+        racer.offer(0.2);
+        assertEquals(0.2, racer.getIncumbent(), 0);
+
+        //The incumbent is shared through the file
+        racer = new FoldRacer(incumbentFile, 0, 10, 0, 3);
+        assertEquals(0.2, racer.getIncumbent(), 0);
+        //Perfect scores on the last 8 folds would still give a mean of 0.25
+        assertTrue(racer.canReject(Arrays.asList(1.0, 1.0, 0.5)));
+        //But not a mean of 0.15
+        assertFalse(racer.canReject(Arrays.asList(0.9, 0.6)));
+        assertFalse(racer.canReject(Arrays.asList(0.5, 0.5, 0.5)));
+
+        //Worse scores never replace the incumbent
+        racer.offer(0.4);
+        assertEquals(0.2, new FoldRacer(incumbentFile, 0, 10, 0, 3).getIncumbent(), 0);
+    }
+
+    @Test
+    public void statisticalRejection() throws Exception
+    {
+        File incumbentFile = File.createTempFile("autoweka", ".incumbent");
+        incumbentFile.delete();
+        incumbentFile.deleteOnExit();
+
+        FoldRacer racer = new FoldRacer(incumbentFile, 0, 10, 0.05, 3);
+        racer.offer(0.2);
+        //Too few folds to say anything
+        assertFalse(racer.canReject(Arrays.asList(0.5, 0.52)));
+        //Clearly worse
+        assertTrue(racer.canReject(Arrays.asList(0.5, 0.52, 0.48)));
+        //Too noisy to tell
+        assertFalse(racer.canReject(Arrays.asList(0.0, 0.6, 0.1)));
+        //Better than the incumbent so far
+        assertFalse(racer.canReject(Arrays.asList(0.1, 0.1, 0.1)));
+    }
+
+    @Test
+    public void qualityCap() throws Exception
+    {
+        //No incumbent file, just a cap from the optimizer
+        FoldRacer racer = new FoldRacer(null, 0, 4, 0, 3, 0.25);
+        assertEquals(0.25, racer.getTarget(), 0);
+        //The first fold can use up the whole budget
+        assertEquals(1.0, racer.getFoldCap(Arrays.<Double>asList()), 1e-9);
+        assertEquals(0.4, racer.getFoldCap(Arrays.asList(0.6)), 1e-9);
+        assertFalse(racer.canReject(Arrays.asList(0.6, 0.4)));
+        assertTrue(racer.canReject(Arrays.asList(0.6, 0.5)));
+        //Nothing gets recorded without racing
+        racer.offer(0.1);
+        assertEquals(0.25, racer.getTarget(), 0);
+    }
+}
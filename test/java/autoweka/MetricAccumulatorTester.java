@@ -0,0 +1,82 @@
+package autoweka;
+
+import java.io.FileReader;
+
+import org.junit.Test;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.REPTree;
+import weka.core.Instances;
+
+import static org.junit.Assert.*;
+
+public class MetricAccumulatorTester
+{
+    private static final String[] METRICS = new String[]{"errorRate", "meanAbsoluteError", "rootMeanSquaredError", "correct", "incorrect", "pctCorrect", "pctIncorrect"};
+
+    private Instances loadIris(int classIndex) throws Exception
+    {
+        Instances data = new Instances(new FileReader("test/iris.arff"));
+        data.setClassIndex(classIndex);
+        data.instance(7).setWeight(2.5);
+        data.instance(11).setClassMissing();
+        return data;
+    }
+
+    private void checkMatchesEvaluation(AbstractClassifier classifier, Instances data, String[] metrics) throws Exception
+    {
+        classifier.buildClassifier(data);
+        Evaluation eval = new Evaluation(data);
+        MetricAccumulator acc = new MetricAccumulator(data);
+        for(int i = 0; i < data.numInstances(); i++)
+        {
+            eval.evaluateModelOnceAndRecordPrediction(classifier, data.instance(i));
+            acc.evaluate(classifier, data.instance(i));
+        }
+
+        for(String metric: metrics)
+        {
+            ClassifierResult fromEval = new ClassifierResult(metric);
+            fromEval.setScoreFromEval(eval, data);
+            ClassifierResult fromAcc = new ClassifierResult(metric);
+            assertTrue(fromAcc.canStream());
+            fromAcc.setScoreFromAccumulator(acc);
+            assertEquals(metric, fromEval.getRawScore(), fromAcc.getRawScore(), 1e-12);
+            assertEquals(metric, fromEval.getPercentEvaluated(), fromAcc.getPercentEvaluated(), 1e-12);
+        }
+    }
+
+    @Test
+    public void nominalClass() throws Exception
+    {
+        checkMatchesEvaluation(new J48(), loadIris(4), METRICS);
+    }
+
+    @Test
+    public void numericClass() throws Exception
+    {
+        checkMatchesEvaluation(new REPTree(), loadIris(3), new String[]{"errorRate", "meanAbsoluteError", "rootMeanSquaredError"});
+    }
+
+    @Test
+    public void splitAndMerge() throws Exception
+    {
+        Instances data = loadIris(4);
+        J48 classifier = new J48();
+        classifier.buildClassifier(data);
+        MetricAccumulator all = new MetricAccumulator(data);
+        MetricAccumulator first = new MetricAccumulator(data);
+        MetricAccumulator second = new MetricAccumulator(data);
+        for(int i = 0; i < data.numInstances(); i++)
+        {
+            all.evaluate(classifier, data.instance(i));
+            (i % 2 == 0 ? first : second).evaluate(classifier, data.instance(i));
+        }
+        first.merge(second);
+        assertEquals(all.errorRate(), first.errorRate(), 1e-12);
+        assertEquals(all.rootMeanSquaredError(), first.rootMeanSquaredError(), 1e-12);
+        assertFalse(new ClassifierResult("areaUnderROC").canStream());
+    }
+}
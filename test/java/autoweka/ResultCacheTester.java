@@ -0,0 +1,65 @@
+package autoweka;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTester
+{
+    @Test
+    public void canonicalArgs()
+    {
+        String a = ResultCache.getKey("data", Arrays.asList("-targetclass", "weka.classifiers.trees.J48", "-C", "0.25"), "fold=0", "errorRate");
+        String b = ResultCache.getKey("data", Arrays.asList("-C", "0.25", "-targetclass", "weka.classifiers.trees.J48"), "fold=0", "errorRate");
+        String c = ResultCache.getKey("data", Arrays.asList("-C", "0.25", "-targetclass", "weka.classifiers.trees.J48"), "fold=1", "errorRate");
+        assertEquals(a, b);
+        assertNotEquals(a, c);
+    }
+
+    @Test
+    public void wrapperUsesCache() throws Exception
+    {
+        File cacheFile = File.createTempFile("autoweka", ".cache");
+        cacheFile.delete();
+        cacheFile.deleteOnExit();
+        new File(cacheFile.getPath() + ".stats").deleteOnExit();
+
+        Properties props = new Properties();
+        props.setProperty("datasetString", "__dummy__");
+        props.setProperty("instanceGenerator", "autoweka.instancegenerators.Default");
+        props.setProperty("resultMetric", "errorRate");
+        props.setProperty("resultCache", cacheFile.getAbsolutePath());
+        String[] args = new String[]{"-prop", Util.propertiesToString(props), "-timeout", "30", "-wrapper", "default", "-targetclass", "weka.classifiers.rules.ZeroR"};
+
+        ResultWrapper first = new ResultWrapper();
+        first.run(args);
+        ResultWrapper second = new ResultWrapper();
+        second.run(args);
+
+        assertTrue(first.result.getCompleted());
+        assertNotNull(first.result.getClassifier());
+        assertTrue(second.result.getCompleted());
+        assertNull(second.result.getClassifier());
+        assertEquals(first.result.getRawScore(), second.result.getRawScore(), 0);
+        assertEquals(first.result.getTime(), second.result.getTime(), 1e-6);
+
+        long[] stats = ResultCache.get(props).getStats();
+        assertEquals(1, stats[0]);
+        assertEquals(1, stats[1]);
+    }
+
+    private static class ResultWrapper extends SubProcessWrapper
+    {
+        public ClassifierResult result;
+
+        @Override
+        protected void _processResults(ClassifierResult res)
+        {
+            result = res;
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package autoweka.smac;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import autoweka.Trajectory;
 import autoweka.Experiment;
+import autoweka.TrajectoryParser;
 
 import org.junit.Test;
 import org.junit.Ignore;
@@ -31,4 +35,43 @@ public class SMACTrajectoryParserTester{
 
 
 
+  @Test
+  public void tailTrajectoryTest() throws Exception{
+    File folderFile = new File("test/experiment_folder/Auto-WEKA");
+    Experiment e = Experiment.createFromFolder(folderFile);
+    Trajectory full = new SMACTrajectoryParser().parseTrajectory(e, folderFile, "19");
+
+    //Play the run back into a new folder a bit at a time
+    File tmp = Files.createTempDirectory("autoweka").toFile();
+    File out = new File(tmp, "out" + File.separator + "autoweka");
+    File state = new File(out, "state-run19");
+    state.mkdirs();
+    Files.copy(new File(folderFile, "autoweka.params").toPath(), new File(tmp, "autoweka.params").toPath());
+    byte[] traj = Files.readAllBytes(new File(folderFile, "out/autoweka/traj-run-19.txt").toPath());
+    byte[] runs = Files.readAllBytes(new File(folderFile, "out/autoweka/state-run19/runs_and_results-it44.csv").toPath());
+
+    TrajectoryParser.Tail tail = new SMACTrajectoryParser().createTail(e, tmp, "19");
+    assertEquals(0, tail.poll());
+
+    //Half of the trajectory, which stops part way through a line
+    File trajFile = new File(out, "traj-run-19.txt");
+    Files.write(trajFile.toPath(), Arrays.copyOf(traj, traj.length / 2));
+    Files.write(new File(state, "runs_and_results-it10.csv").toPath(), Arrays.copyOf(runs, runs.length / 2));
+    int firstPoints = tail.poll();
+    assertTrue(firstPoints > 0 && firstPoints < full.getPoints().size());
+    assertTrue(tail.getTrajectory().getNumEvaluations() > 0);
+
+    //The rest of it, and a newer runs and results
+    Files.write(trajFile.toPath(), Arrays.copyOfRange(traj, traj.length / 2, traj.length), StandardOpenOption.APPEND);
+    Files.write(new File(state, "runs_and_results-it44.csv").toPath(), runs);
+    assertEquals(full.getPoints().size(), firstPoints + tail.poll());
+    assertEquals(0, tail.poll());
+
+    Trajectory t = tail.getTrajectory();
+    assertEquals(full.toString(), t.toString());
+    assertEquals(full.getNumEvaluations(), t.getNumEvaluations());
+    assertEquals(full.getNumMemOutEvaluations(), t.getNumMemOutEvaluations());
+    assertEquals(full.getNumTimedOutEvaluations(), t.getNumTimedOutEvaluations());
+  }
+
 }
@@ -0,0 +1,99 @@
+package autoweka;
+
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import weka.attributeSelection.AttributeSelection;
+import weka.attributeSelection.CfsSubsetEval;
+import weka.attributeSelection.GreedyStepwise;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+
+import static org.junit.Assert.*;
+
+public class ScoringPoolTester
+{
+    //Says it's better at batches, so that the pool hands it whole batches
+    public static class BatchJ48 extends J48
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean implementsMoreEfficientBatchPrediction()
+        {
+            return true;
+        }
+    }
+
+    @Test
+    public void predictsFromManyThreads() throws Exception
+    {
+        final Instances iris = new Instances(new FileReader("test/iris.arff"));
+        iris.setClassIndex(iris.numAttributes() - 1);
+        AttributeSelection as = new AttributeSelection();
+        as.setEvaluator(new CfsSubsetEval());
+        as.setSearch(new GreedyStepwise());
+        as.SelectAttributes(iris);
+        IBk classifier = new IBk(3);
+        classifier.buildClassifier(as.reduceDimensionality(iris));
+
+        final double[][] expected = new double[iris.numInstances()][];
+        for(int i = 0; i < iris.numInstances(); i++)
+            expected[i] = classifier.distributionForInstance(as.reduceDimensionality(iris.instance(i)));
+
+        final ScoringPool pool = new ScoringPool(classifier, as, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for(int t = 0; t < 4; t++)
+        {
+            results.add(executor.submit(new Callable<Void>(){
+                public Void call() throws Exception
+                {
+                    for(int i = 0; i < iris.numInstances(); i++)
+                        assertArrayEquals(expected[i], pool.distributionForInstance(iris.instance(i)), 0);
+                    return null;
+                }
+            }));
+        }
+        for(Future<Void> f: results)
+            f.get();
+        executor.shutdown();
+
+        double[][] batch = pool.distributionsForInstances(iris);
+        for(int i = 0; i < iris.numInstances(); i++)
+            assertArrayEquals(expected[i], batch[i], 0);
+
+        long total = 0;
+        for(long count: pool.getPredictionCounts())
+            total += count;
+        assertEquals(5 * iris.numInstances(), total);
+    }
+
+    @Test
+    public void batchesKeepEveryRow() throws Exception
+    {
+        Instances iris = new Instances(new FileReader("test/iris.arff"));
+        iris.setClassIndex(iris.numAttributes() - 1);
+        AttributeSelection as = new AttributeSelection();
+        as.setEvaluator(new CfsSubsetEval());
+        as.setSearch(new GreedyStepwise());
+        as.SelectAttributes(iris);
+        assertNotNull(AttributeProjection.create(as, iris));
+        BatchJ48 classifier = new BatchJ48();
+        classifier.buildClassifier(as.reduceDimensionality(iris));
+
+        ScoringPool pool = new ScoringPool(classifier, as, 1);
+        double[][] batch = pool.distributionsForInstances(iris);
+        assertEquals(iris.numInstances(), batch.length);
+        for(int i = 0; i < iris.numInstances(); i++)
+            assertArrayEquals(classifier.distributionForInstance(as.reduceDimensionality(iris.instance(i))), batch[i], 0);
+    }
+}
@@ -0,0 +1,60 @@
+package autoweka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class XmlSerializableTester
+{
+    private static final String EXPERIMENT_DIR = "test/experiment_folder/Auto-WEKA/";
+
+    @Test
+    public void binaryRoundTrip() throws Exception
+    {
+        assertRoundTrip(TrajectoryGroup.fromXML(EXPERIMENT_DIR + "Auto-WEKA.trajectories.19"));
+        assertRoundTrip(Experiment.fromXML(EXPERIMENT_DIR + "Auto-WEKA.experiment"));
+        assertRoundTrip(ConfigurationCollection.fromXML(EXPERIMENT_DIR + "ConfigurationLogging/configuration_ranking.xml", ConfigurationCollection.class));
+    }
+
+    @Test
+    public void refusesOtherClasses() throws Exception
+    {
+        File file = File.createTempFile("autoweka", XmlSerializable.BINARY_EXTENSION);
+        file.deleteOnExit();
+        Experiment.fromXML(EXPERIMENT_DIR + "Auto-WEKA.experiment").toXML(file.getPath());
+        try
+        {
+            TrajectoryGroup.fromXML(new FileInputStream(file));
+            fail("Read an experiment as a trajectory group");
+        }
+        catch(RuntimeException e)
+        {
+            //Good
+        }
+    }
+
+    /*
+     * Writing it out as binary and reading it back has to give the same XML
+     */
+    private void assertRoundTrip(XmlSerializable original) throws Exception
+    {
+        File file = File.createTempFile("autoweka", XmlSerializable.BINARY_EXTENSION);
+        file.deleteOnExit();
+        original.toXML(file.getPath());
+
+        XmlSerializable copy = XmlSerializable.fromXML(new FileInputStream(file), original.getClass());
+        assertEquals(toString(original), toString(copy));
+        assertTrue(file.length() < toString(original).length());
+    }
+
+    private String toString(XmlSerializable obj)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        obj.toXML(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package autoweka.instancegenerators;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import weka.core.Instances;
+import weka.filters.Filter;
+import weka.filters.supervised.instance.Resample;
+
+import autoweka.InstanceGenerator;
+import autoweka.Util;
+import static org.junit.Assert.*;
+
+public class IndexPlanTester
+{
+    @Test
+    public void crossValidationMatchesTrainCV() throws Exception
+    {
+        for(int numInstances = 97; numInstances <= 100; numInstances++){
+            Instances data = Util.createDummyInstances(numInstances, 3, 2, 1, 0, 0, 0, 0);
+            CrossValidation generator = new CrossValidation(data, data);
+            for(int fold = 0; fold < 10; fold++){
+                String params = "seed=3:numFolds=10:fold=" + fold;
+
+                Instances randData = new Instances(data);
+                randData.randomize(new Random(3));
+                assertSameRows(randData.trainCV(10, fold), generator.getTrainingFromParams(params));
+                assertSameRows(randData.testCV(10, fold), generator.getTestingFromParams(params));
+            }
+        }
+    }
+
+    @Test
+    public void randomSubSamplingMatchesResample() throws Exception
+    {
+        Instances data = Util.createDummyInstances(200, 3, 2, 1, 0, 0, 0, 0);
+        RandomSubSampling generator = new RandomSubSampling(data, data);
+        for(int seed = 0; seed < 3; seed++){
+            String params = "seed=" + seed + ":percent=70:base=0.5";
+            for(boolean invert: new boolean[]{false, true}){
+                Resample filter = new Resample();
+                filter.setNoReplacement(true);
+                filter.setRandomSeed(seed);
+                filter.setSampleSizePercent(70);
+                filter.setBiasToUniformClass(0.5);
+                filter.setInvertSelection(invert);
+                filter.setInputFormat(data);
+                Instances expected = Filter.useFilter(data, filter);
+                assertSameRows(expected, invert ? generator.getTestingFromParams(params) : generator.getTrainingFromParams(params));
+            }
+        }
+    }
+
+    @Test
+    public void testingViewsMatchCopies() throws Exception
+    {
+        Instances data = Util.createDummyInstances(100, 3, 2, 1, 0, 0, 0, 0);
+        CrossValidation cv = new CrossValidation(data, data);
+        RandomSubSampling rss = new RandomSubSampling(data, data);
+        assertSameRows(cv.getTestingFromParams("seed=1:numFolds=5:fold=2"), cv.getTestingViewFromParams("seed=1:numFolds=5:fold=2"));
+        assertSameRows(rss.getTestingFromParams("seed=1:percent=60"), rss.getTestingViewFromParams("seed=1:percent=60"));
+        assertSameRows(data, cv.getTestingViewFromParams("default"));
+
+        //Changing the shape of a view must leave the dataset alone
+        Instances view = cv.getTestingViewFromParams("default");
+        int numAttributes = data.numAttributes();
+        view.deleteAttributeAt(0);
+        assertEquals(numAttributes, cv.getTesting().instance(0).numAttributes());
+        assertEquals(numAttributes - 1, view.instance(0).numAttributes());
+    }
+
+    @Test
+    public void plansArePersistedInTheExperiment() throws Exception
+    {
+        File experimentDir = File.createTempFile("experiment", "");
+        experimentDir.delete();
+        experimentDir.mkdirs();
+
+        Instances data = Util.createDummyInstances(100, 3, 2, 1, 0, 0, 0, 0);
+        CrossValidation first = new CrossValidation(data, data);
+        first.setExperimentDir(experimentDir);
+        Instances expected = first.getTrainingFromParams("seed=3:numFolds=10:fold=0");
+        File planFile = new File(new File(experimentDir, InstanceGenerator.INDEX_PLAN_DIR), "cv-seed3-100.idx");
+        assertTrue(planFile.exists());
+
+        //Another process gets the same folds out of the persisted plan
+        CrossValidation second = new CrossValidation(data, data);
+        second.setExperimentDir(experimentDir);
+        assertSameRows(expected, second.getTrainingFromParams("seed=3:numFolds=10:fold=0"));
+
+        planFile.delete();
+        planFile.getParentFile().delete();
+        experimentDir.delete();
+    }
+
+    private void assertSameRows(Instances expected, Instances actual)
+    {
+        assertEquals(expected.numInstances(), actual.numInstances());
+        for(int i = 0; i < expected.numInstances(); i++)
+            assertArrayEquals(expected.instance(i).toDoubleArray(), actual.instance(i).toDoubleArray(), 0);
+    }
+}
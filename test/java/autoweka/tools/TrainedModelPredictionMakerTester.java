@@ -0,0 +1,52 @@
+package autoweka.tools;
+
+import java.io.File;
+import java.io.FileReader;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import weka.attributeSelection.AttributeSelection;
+import weka.attributeSelection.CfsSubsetEval;
+import weka.attributeSelection.GreedyStepwise;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+import static org.junit.Assert.*;
+
+public class TrainedModelPredictionMakerTester
+{
+    @Test
+    public void streamMatchesWholeDataset() throws Exception
+    {
+        Instances iris = new Instances(new FileReader("test/iris.arff"));
+        iris.setClassIndex(iris.numAttributes() - 1);
+        AttributeSelection as = new AttributeSelection();
+        as.setEvaluator(new CfsSubsetEval());
+        as.setSearch(new GreedyStepwise());
+        as.SelectAttributes(iris);
+        J48 classifier = new J48();
+        classifier.buildClassifier(as.reduceDimensionality(iris));
+
+        File asFile = File.createTempFile("tmpm", ".attributeselection");
+        File modelFile = File.createTempFile("tmpm", ".model");
+        File whole = File.createTempFile("tmpm-whole", ".csv");
+        File streamed = File.createTempFile("tmpm-streamed", ".csv");
+        SerializationHelper.write(asFile.getPath(), as);
+        SerializationHelper.write(modelFile.getPath(), classifier);
+
+        new TrainedModelPredictionMaker(asFile.getPath(), modelFile.getPath(), "test/iris.arff", "last", whole.getPath());
+        //Small batches on a few threads, so that they have to be put back in order
+        TrainedModelPredictionMaker.stream(asFile.getPath(), modelFile.getPath(), "test/iris.arff", "last", streamed.getPath(), 3, 16);
+
+        String expected = new String(Files.readAllBytes(whole.toPath()), "UTF-8");
+        assertTrue(expected.split("\n").length > iris.numInstances());
+        assertEquals(expected, new String(Files.readAllBytes(streamed.toPath()), "UTF-8"));
+
+        asFile.delete();
+        modelFile.delete();
+        whole.delete();
+        streamed.delete();
+    }
+}
@@ -1,7 +1,21 @@
 package weka.classifiers.meta;
 
+import java.io.FileReader;
+import java.util.Random;
+
+import weka.attributeSelection.AttributeSelection;
+import weka.attributeSelection.CfsSubsetEval;
+import weka.attributeSelection.GreedyStepwise;
+import weka.attributeSelection.PrincipalComponents;
+import weka.attributeSelection.Ranker;
+import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
+import weka.classifiers.lazy.IBk;
 import weka.classifiers.meta.AutoWEKAClassifier;
+import weka.classifiers.trees.J48;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializedObject;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -18,6 +32,160 @@ public class AutoWEKAClassifierTest {
         assertTrue(out.indexOf("Total Number of Instances              150") > -1);
     }
 
+    @Test
+    public void testBatchPredictionShared() throws Exception {
+        Instances data = loadNoisyIris();
+        checkBatchPrediction(new J48(), cfs(data), data);
+        checkBatchPrediction(new J48(), null, data);
+    }
+
+    @Test
+    public void testBatchPredictionReplicated() throws Exception {
+        Instances data = loadNoisyIris();
+        checkBatchPrediction(new IBk(3), cfs(data), data);
+        //Twice on the same model, so the second batch gets the copies the first one left behind
+        AutoWEKAClassifier autoweka = checkBatchPrediction(new IBk(3), cfs(data), data);
+        assertBatchMatches(autoweka, data);
+    }
+
+    @Test
+    public void testBatchPredictionInnerBatchPredictor() throws Exception {
+        Instances data = loadNoisyIris();
+        final int[] batches = {0};
+        J48 batchJ48 = new J48() {
+            @Override
+            public boolean implementsMoreEfficientBatchPrediction() {
+                return true;
+            }
+
+            @Override
+            public double[][] distributionsForInstances(Instances insts) throws Exception {
+                synchronized(batches) {
+                    batches[0]++;
+                }
+                return super.distributionsForInstances(insts);
+            }
+        };
+        //It isn't known to be safe to share, so the whole lot goes to it as one batch
+        checkBatchPrediction(batchJ48, cfs(data), data);
+        assertEquals(1, batches[0]);
+    }
+
+    @Test
+    public void testBatchPredictionWithoutProjection() throws Exception {
+        //Principal components aren't a projection, so everything goes through the attribute selection's filter
+        Instances data = loadNoisyIris();
+        AttributeSelection as = new AttributeSelection();
+        as.setEvaluator(new PrincipalComponents());
+        as.setSearch(new Ranker());
+        as.SelectAttributes(data);
+        checkBatchPrediction(new J48(), as, data);
+    }
+
+    @Test
+    public void testTrainingEvaluationIsLazy() throws Exception {
+        Instances iris = new Instances(new FileReader("test/iris.arff"));
+        iris.setClassIndex(iris.numAttributes() - 1);
+        J48 j48 = new J48();
+        j48.buildClassifier(iris);
+        Evaluation expected = new Evaluation(iris);
+        expected.evaluateModel(j48, iris);
+
+        AutoWEKAClassifier autoweka = new AutoWEKAClassifier();
+        autoweka.setFinalModel(null, j48, 0, iris);
+        assertNull(autoweka.eval);
+        for(Object measure: java.util.Collections.list(autoweka.enumerateMeasures())) {
+            autoweka.getMeasure((String)measure);
+        }
+        assertNull(autoweka.eval);
+
+        //What the caller does to their data afterwards doesn't change the evaluation
+        iris.delete(0);
+        assertEquals(150, autoweka.getTrainingEvaluation().numInstances(), 0);
+        assertEquals(expected.errorRate(), autoweka.measureTrainingErrorRate(), 0);
+
+        //It goes along when the model is saved
+        AutoWEKAClassifier loaded = (AutoWEKAClassifier)new SerializedObject(autoweka).getObject();
+        assertEquals(expected.errorRate(), loaded.getTrainingEvaluation().errorRate(), 0);
+    }
+
+    @Test
+    public void testDropTrainingEvaluation() throws Exception {
+        Instances iris = new Instances(new FileReader("test/iris.arff"));
+        iris.setClassIndex(iris.numAttributes() - 1);
+        J48 j48 = new J48();
+        j48.buildClassifier(iris);
+
+        //Dropped before building, so the data isn't even kept
+        AutoWEKAClassifier autoweka = new AutoWEKAClassifier();
+        autoweka.setDropTrainingEvaluation(true);
+        autoweka.setFinalModel(null, j48, 0, iris);
+        assertNull(autoweka.evalData);
+        assertNull(autoweka.getTrainingEvaluation());
+        assertTrue(Double.isNaN(autoweka.measureTrainingErrorRate()));
+
+        //Dropped after it was worked out, so it stays in memory but doesn't get saved
+        AutoWEKAClassifier evaluated = new AutoWEKAClassifier();
+        evaluated.setFinalModel(null, j48, 0, iris);
+        assertNotNull(evaluated.getTrainingEvaluation());
+        evaluated.setDropTrainingEvaluation(true);
+        AutoWEKAClassifier loaded = (AutoWEKAClassifier)new SerializedObject(evaluated).getObject();
+        assertNotNull(evaluated.getTrainingEvaluation());
+        assertNull(loaded.getTrainingEvaluation());
+        assertArrayEquals(j48.distributionForInstance(iris.instance(0)), loaded.distributionForInstance(iris.instance(0)), 0);
+    }
+
+    /*
+     * Iris a few times over, with a little noise so that every row gets its own prediction and the order shows
+     */
+    private Instances loadNoisyIris() throws Exception {
+        Instances iris = new Instances(new FileReader("test/iris.arff"));
+        iris.setClassIndex(iris.numAttributes() - 1);
+        Instances data = new Instances(iris, 20 * iris.numInstances());
+        Random rand = new Random(1);
+        for(int copy = 0; copy < 20; copy++) {
+            for(int i = 0; i < iris.numInstances(); i++) {
+                Instance inst = (Instance)iris.instance(i).copy();
+                for(int a = 0; a < iris.numAttributes() - 1; a++) {
+                    inst.setValue(a, inst.value(a) + rand.nextGaussian() * 0.3);
+                }
+                data.add(inst);
+            }
+        }
+        return data;
+    }
+
+    private AttributeSelection cfs(Instances data) throws Exception {
+        AttributeSelection as = new AttributeSelection();
+        as.setEvaluator(new CfsSubsetEval());
+        as.setSearch(new GreedyStepwise());
+        as.SelectAttributes(data);
+        return as;
+    }
+
+    /*
+     * Sets up an AutoWEKAClassifier as if the search had picked the given classifier and attribute selection, and checks that batches of
+     * more than one chunk come out the same as predicting one instance at a time through the attribute selection's filter
+     */
+    private AutoWEKAClassifier checkBatchPrediction(Classifier c, AttributeSelection as, Instances data) throws Exception {
+        c.buildClassifier(as != null ? as.reduceDimensionality(new Instances(data)) : data);
+        AutoWEKAClassifier autoweka = new AutoWEKAClassifier();
+        autoweka.classifier = c;
+        autoweka.as = as;
+        autoweka.setBatchSize("100");
+        assertBatchMatches(autoweka, data);
+        return autoweka;
+    }
+
+    private void assertBatchMatches(AutoWEKAClassifier autoweka, Instances data) throws Exception {
+        double[][] dists = autoweka.distributionsForInstances(data);
+        assertEquals(data.numInstances(), dists.length);
+        for(int i = 0; i < data.numInstances(); i++) {
+            Instance inst = autoweka.as != null ? autoweka.as.reduceDimensionality(data.instance(i)) : data.instance(i);
+            assertArrayEquals(autoweka.classifier.distributionForInstance(inst), dists[i], 0);
+        }
+    }
+
     //@Test
     //public void testCV() throws Exception {
     //    String[] args = {"-t", "test/iris.arff", "-seed", "1", "-no-cv", "-timeLimit", "1", "-resampling", "CrossValidation"};